@@ -0,0 +1,55 @@
+package com.zebra.hsdemo.benchmarks;
+
+import com.zebra.hsdemo.PcmGain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+
+import java.nio.ByteBuffer;
+
+/*
+    Gain kernels: the original float kernel of MediaFileUtils.applyGain (kept here as the
+    reference) against the Q15 kernels it now delegates to.
+    Each call includes the copy of the input buffer (see PcmBufferState.resetWorkData).
+ */
+@BenchmarkMode(Mode.AverageTime)
+public class GainBenchmark {
+
+    private static final float GAIN = 2.5f;
+    private static final int GAIN_Q15 = PcmGain.toQ15(GAIN);
+
+    @Benchmark
+    public byte[] floatKernel(PcmBufferState state) {
+        byte[] buffer = state.resetWorkData();
+        int read = state.length;
+        for (int i = 0; i < read; i += 2) {
+            short sample = (short) ((buffer[i] & 0xFF) | (buffer[i + 1] << 8));
+            sample = (short) Math.min(Math.max(sample * GAIN, Short.MIN_VALUE), Short.MAX_VALUE);
+            buffer[i] = (byte) (sample & 0xFF);
+            buffer[i + 1] = (byte) ((sample >> 8) & 0xFF);
+        }
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] q15ByteArray(PcmBufferState state) {
+        byte[] buffer = state.resetWorkData();
+        PcmGain.applyGainQ15(buffer, 0, state.length, GAIN_Q15);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer q15DirectByteBuffer(PcmBufferState state) {
+        ByteBuffer buffer = state.resetDirectBuffer();
+        PcmGain.applyGainQ15(buffer, GAIN_Q15);
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] q15Unity(PcmBufferState state) {
+        byte[] buffer = state.resetWorkData();
+        PcmGain.applyGainQ15(buffer, 0, state.length, PcmGain.UNITY_Q15);
+        return buffer;
+    }
+}
@@ -0,0 +1,30 @@
+package com.zebra.hsdemo.benchmarks;
+
+import com.zebra.hsdemo.PcmNormalizer;
+import com.zebra.hsdemo.PeakStatistics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+
+/*
+    Peak normalization (MediaFileUtils.normalizeAndAdjustPcmGain delegates to PcmNormalizer.normalize)
+    and the peak scan alone, which is what the capture thread pays per block.
+ */
+@BenchmarkMode(Mode.AverageTime)
+public class NormalizeBenchmark {
+
+    private static final float TARGET_DB = -3.0f;
+
+    @Benchmark
+    public byte[] normalize(PcmBufferState state) {
+        return PcmNormalizer.normalize(state.resetWorkData(), state.length, TARGET_DB);
+    }
+
+    @Benchmark
+    public int peakScan(PcmBufferState state) {
+        PeakStatistics statistics = new PeakStatistics();
+        statistics.update(state.pcmData, 0, state.length);
+        return statistics.getPeak();
+    }
+}
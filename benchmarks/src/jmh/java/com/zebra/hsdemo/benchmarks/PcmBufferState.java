@@ -0,0 +1,76 @@
+package com.zebra.hsdemo.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/*
+    PCM buffers shared by the benchmarks.
+    Every sample rate of MainActivity.sampleRatevalues is covered. MIN is the size of an
+    AudioRecord minimum buffer (40 ms of 16 bits mono, what getMinBufferSize returns on most
+    devices), the other sizes go up to several MB.
+ */
+@State(Scope.Thread)
+public class PcmBufferState {
+
+    public static final String MIN_BUFFER_SIZE = "MIN";
+
+    @Param({"8000", "12000", "16000", "22000", "32000", "44000"})
+    public int sampleRate;
+
+    @Param({MIN_BUFFER_SIZE, "65536", "1048576", "4194304"})
+    public String bufferSize;
+
+    // Reference data, never modified
+    public byte[] pcmData;
+    // Work buffers, the kernels process them in place
+    public byte[] workData;
+    public ByteBuffer directBuffer;
+    public int length;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        length = MIN_BUFFER_SIZE.equals(bufferSize) ? sampleRate * 2 * 40 / 1000 : Integer.parseInt(bufferSize);
+        length &= ~1;
+        pcmData = createSpeechLikePcm(sampleRate, length);
+        workData = new byte[length];
+        directBuffer = ByteBuffer.allocateDirect(length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /*
+        Restore the reference data in the work buffers. Called by the in place benchmarks so repeated
+        calls never work on saturated data (a per invocation setup would dominate small buffers).
+     */
+    public byte[] resetWorkData() {
+        System.arraycopy(pcmData, 0, workData, 0, length);
+        return workData;
+    }
+
+    public ByteBuffer resetDirectBuffer() {
+        directBuffer.clear();
+        directBuffer.put(pcmData, 0, length);
+        directBuffer.flip();
+        return directBuffer;
+    }
+
+    // Deterministic mix of a modulated tone and noise at about -12 dBFS
+    static byte[] createSpeechLikePcm(int sampleRate, int length) {
+        byte[] data = new byte[length];
+        Random random = new Random(42);
+        for (int i = 0; i < length / 2; i++) {
+            double t = (double) i / sampleRate;
+            double envelope = 0.5 + 0.5 * Math.sin(2 * Math.PI * 3 * t);
+            double value = envelope * (6000 * Math.sin(2 * Math.PI * 220 * t) + 2000 * random.nextGaussian());
+            short sample = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+            data[2 * i] = (byte) sample;
+            data[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,75 @@
+package com.zebra.hsdemo.benchmarks;
+
+import com.zebra.hsdemo.AudioVolUIProfileBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/*
+    MX profile XML creation: the string concatenation EMDKUtils used to build the MAXIMUM UI profile
+    against the precompiled templates of AudioVolUIProfileBuilder, and the batched volume setup
+    (create, activate and adjust in one profile). The MX round trips themselves need a device, compare
+    the "Profile request done" lines logged by EMDKUtils for the separate and the batched requests.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@State(Scope.Thread)
+public class ProfileBuilderBenchmark {
+
+    public String profileName = "AudioVolumeMgr-0";
+    public String uiProfileName = "MAXIMUM";
+
+    @Benchmark
+    public String concatenateMaximumProfile() {
+        return "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                "<characteristic type=\"Profile\">\n" +
+                "<parm name=\"ProfileName\" value=\"" + profileName + "\"/>\n" +
+                "  <characteristic version=\"11.6\" type=\"AudioVolUIMgr\">\n" +
+                "    <parm name=\"MuteVibrateState\" value=\"3\" />\n" +
+                "    <parm name=\"CurrentProfileAction\" value=\"1\" />\n" +
+                "    <characteristic type=\"CurrentUIProfile\">\n" +
+                "      <parm name=\"CurrentProfileName\" value=\"" + uiProfileName + "\" />\n" +
+                "      <parm name=\"SetCurrentProfileOption\" value=\"2\" />\n" +
+                "    </characteristic>\n" +
+                "    <parm name=\"UIProfileAction\" value=\"1\" />\n" +
+                "    <characteristic type=\"UIProfile\">\n" +
+                "      <parm name=\"ProfileName\" value=\"" + uiProfileName + "\" />\n" +
+                "      <characteristic type=\"UIProfile-streamconfig\">\n" +
+                "        <parm name=\"STREAM_MUSIC_SPK_LEVEL\" value=\"15,15,15\" />\n" +
+                "        <parm name=\"STREAM_MUSIC_WHS_LEVEL\" value=\"15,15,15\" />\n" +
+                "        <parm name=\"STREAM_MUSIC_BTHS_LEVEL\" value=\"10,15,15\" />\n" +
+                "        <parm name=\"STREAM_MUSIC_HDMI_LEVEL\" value=\"15,15,15\" />\n" +
+                "        <parm name=\"STREAM_RING_SPK_LEVEL\" value=\"7,7,7\" />\n" +
+                "        <parm name=\"STREAM_ALARM_SPK_LEVEL\" value=\"7,7,7\" />\n" +
+                "        <parm name=\"STREAM_VOICECALL_SPK_LEVEL\" value=\"5,5,5\" />\n" +
+                "        <parm name=\"STREAM_VOICECALL_RCVR_LEVEL\" value=\"5,5,5\" />\n" +
+                "        <parm name=\"STREAM_VOICECALL_WHS_LEVEL\" value=\"5,5,5\" />\n" +
+                "        <parm name=\"STREAM_VOICECALL_BTHS_LEVEL\" value=\"15,15,15\" />\n" +
+                "        <parm name=\"STREAM_VVS_SPK_LEVEL\" value=\"10,10,10\" />\n" +
+                "      </characteristic>\n" +
+                "    </characteristic>\n" +
+                "  </characteristic>\n" +
+                "</characteristic>\n";
+    }
+
+    @Benchmark
+    public String buildMaximumProfile() {
+        return new AudioVolUIProfileBuilder(profileName)
+                .setMuteVibrateState(3)
+                .setCurrentUIProfile(uiProfileName)
+                .createUIProfile(uiProfileName, AudioVolUIProfileBuilder.MAXIMUM_STREAM_LEVELS)
+                .build();
+    }
+
+    @Benchmark
+    public String buildVolumeSetup() {
+        return new AudioVolUIProfileBuilder(profileName)
+                .setMuteVibrateState(3)
+                .setCurrentUIProfile(uiProfileName)
+                .createUIProfile(uiProfileName, AudioVolUIProfileBuilder.MAXIMUM_STREAM_LEVELS)
+                .adjustVolumeToCurrentPreset()
+                .build();
+    }
+}
@@ -0,0 +1,74 @@
+package com.zebra.hsdemo.benchmarks;
+
+import com.zebra.hsdemo.AudioVolUIProfileBuilder;
+import com.zebra.hsdemo.MxResultParser;
+import com.zebra.hsdemo.ProfileResultCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+    Handling of a profile result: scanning a ProfileManager result XML for errors, and the content
+    hash and lookup of a cache hit (the device state is a constant here, on a device it costs a few
+    AudioManager calls). Compare with the MX round trip logged by EMDKUtils for a cache miss.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@State(Scope.Thread)
+public class ProfileResultBenchmark {
+
+    public String successResult = "<wap-provisioningdoc>\n" +
+            "  <characteristic type=\"Profile\">\n" +
+            "    <parm name=\"ProfileName\" value=\"AudioVolumeMgr-3\"/>\n" +
+            "    <characteristic version=\"11.6\" type=\"AudioVolUIMgr\">\n" +
+            "      <parm name=\"CurrentProfileAction\" value=\"2\"/>\n" +
+            "    </characteristic>\n" +
+            "  </characteristic>\n" +
+            "</wap-provisioningdoc>\n";
+
+    public String errorResult = "<wap-provisioningdoc>\n" +
+            "  <characteristic type=\"Profile\">\n" +
+            "    <parm name=\"ProfileName\" value=\"AudioVolumeMgr-3\"/>\n" +
+            "    <characteristic-error type=\"AudioVolUIMgr\" desc=\"Invalid UI profile\">\n" +
+            "      <parm-error name=\"STREAM_RING_SPK_LEVEL\" value=\"7,9,7\" desc=\"Current level is out of range\"/>\n" +
+            "    </characteristic-error>\n" +
+            "  </characteristic>\n" +
+            "</wap-provisioningdoc>\n";
+
+    public String profile;
+    public MxResultParser parser;
+    public ProfileResultCache cache;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        profile = new AudioVolUIProfileBuilder("AudioVolumeMgr-3")
+                .setMuteVibrateState(3)
+                .setCurrentUIProfile("MAXIMUM")
+                .createUIProfile("MAXIMUM", AudioVolUIProfileBuilder.MAXIMUM_STREAM_LEVELS)
+                .adjustVolumeToCurrentPreset()
+                .build();
+        parser = new MxResultParser();
+        cache = new ProfileResultCache(() -> 42);
+        cache.onApplied(ProfileResultCache.hash(profile));
+    }
+
+    @Benchmark
+    public int parseSuccess() {
+        return parser.parse(successResult);
+    }
+
+    @Benchmark
+    public String parseErrors() {
+        parser.parse(errorResult);
+        return parser.appendErrors(new StringBuilder()).toString();
+    }
+
+    @Benchmark
+    public boolean cacheHit() {
+        return cache.isApplied(ProfileResultCache.hash(profile));
+    }
+}
@@ -0,0 +1,47 @@
+package com.zebra.hsdemo.benchmarks;
+
+import com.zebra.hsdemo.PolyphaseResampler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+    Playback and export sample rate conversion: the benchmarked buffer is converted from its rate to
+    the SCO rates and to the highest recording rate. Real time is the buffer duration
+    (length / 2 / sampleRate seconds), compare with the measured time per buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+public class ResamplerBenchmark {
+
+    @State(Scope.Thread)
+    public static class Resampler {
+        @Param({"8000", "16000", "44000"})
+        public int outputRate;
+
+        public PolyphaseResampler resampler;
+        public ByteBuffer output;
+
+        @Setup(Level.Trial)
+        public void setUp(PcmBufferState state) {
+            // The filter table is built here, the benchmark only measures the streaming conversion
+            resampler = new PolyphaseResampler(state.sampleRate, outputRate, 1);
+            output = ByteBuffer.allocateDirect(resampler.getMaxOutputFrames(state.length / 2) * 2).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    @Benchmark
+    public int resample(PcmBufferState state, Resampler resampler) {
+        ByteBuffer input = state.resetDirectBuffer();
+        resampler.output.clear();
+        return resampler.resampler.process(input, resampler.output);
+    }
+}
@@ -0,0 +1,93 @@
+package com.zebra.hsdemo.benchmarks;
+
+import com.zebra.hsdemo.FileUtils;
+import com.zebra.hsdemo.FlacEncoder;
+import com.zebra.hsdemo.MappedPcmReader;
+import com.zebra.hsdemo.PcmFileReader;
+import com.zebra.hsdemo.PcmNormalizer;
+import com.zebra.hsdemo.PeakStatistics;
+import com.zebra.hsdemo.WavEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/*
+    WAV header creation, streaming PCM to WAV and FLAC conversions (the paths behind MediaFileUtils)
+    and FileUtils.readFileToByteArray on files of the benchmarked buffer sizes.
+    The Mapped variants read the PCM file through a MappedPcmReader instead of FileChannel reads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+public class WavEncodeBenchmark {
+
+    @State(Scope.Thread)
+    public static class Files {
+        public File pcmFile;
+        public File wavFile;
+        public File flacFile;
+
+        @Setup(Level.Trial)
+        public void setUp(PcmBufferState state) throws IOException {
+            pcmFile = File.createTempFile("hsdemo-bench", ".pcm");
+            wavFile = File.createTempFile("hsdemo-bench", ".wav");
+            flacFile = File.createTempFile("hsdemo-bench", ".flac");
+            try (FileOutputStream fos = new FileOutputStream(pcmFile)) {
+                fos.write(state.pcmData, 0, state.length);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pcmFile.delete();
+            wavFile.delete();
+            flacFile.delete();
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer createHeader(PcmBufferState state) {
+        return WavEncoder.createHeader(state.length, state.sampleRate, 1, 16);
+    }
+
+    @Benchmark
+    public WavEncoder.Result convertPcmToWav(PcmBufferState state, Files files) throws IOException {
+        return WavEncoder.encode(files.pcmFile, files.wavFile, state.sampleRate, 1, 16, 1.5f);
+    }
+
+    @Benchmark
+    public WavEncoder.Result convertMappedPcmToWav(PcmBufferState state, Files files) throws IOException {
+        try (PcmFileReader in = PcmFileReader.open(files.pcmFile, 0);
+             RandomAccessFile raf = new RandomAccessFile(files.wavFile, "rw")) {
+            raf.setLength(0);
+            return WavEncoder.encode(in, raf.getChannel(), state.sampleRate, 1, 16, 1.5f, WavEncoder.DEFAULT_BLOCK_SIZE);
+        }
+    }
+
+    @Benchmark
+    public PeakStatistics scanMappedPeak(Files files) throws IOException {
+        try (MappedPcmReader in = MappedPcmReader.open(files.pcmFile, 0)) {
+            return PcmNormalizer.scanPeak(in);
+        }
+    }
+
+    @Benchmark
+    public WavEncoder.Result convertPcmToFlac(PcmBufferState state, Files files) throws IOException {
+        return FlacEncoder.encode(files.pcmFile, 0, files.flacFile, state.sampleRate, 1, 16, 1.0f);
+    }
+
+    @Benchmark
+    public byte[] readFileToByteArray(Files files) throws IOException {
+        return FileUtils.readFileToByteArray(files.pcmFile);
+    }
+}
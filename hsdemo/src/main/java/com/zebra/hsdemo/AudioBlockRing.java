@@ -0,0 +1,97 @@
+package com.zebra.hsdemo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    Lock-free single producer / single consumer ring of preallocated audio blocks.
+    The producer claims a free block, fills it and publishes it. The consumer peeks the oldest
+    published block, processes it and releases it. Blocks are direct buffers in native order so
+    they can be filled by AudioRecord and written to a FileChannel without copies.
+    Only one thread may produce and only one thread may consume.
+ */
+public class AudioBlockRing {
+
+    private final ByteBuffer[] mBlocks;
+    private final int mMask;
+    private final int mBlockSize;
+
+    // Index of the next block to publish, only written by the producer
+    private final AtomicLong mHead = new AtomicLong(0);
+    // Index of the next block to consume, only written by the consumer
+    private final AtomicLong mTail = new AtomicLong(0);
+
+    // Producer side statistics
+    private volatile long mOverrunCount = 0;
+    private volatile int mHighWaterMark = 0;
+
+    public AudioBlockRing(int blockCount, int blockSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, blockCount - 1)) << 1;
+        mBlocks = new ByteBuffer[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mBlocks[i] = ByteBuffer.allocateDirect(blockSize).order(ByteOrder.nativeOrder());
+        }
+        mMask = capacity - 1;
+        mBlockSize = blockSize;
+    }
+
+    public int getCapacity() {
+        return mBlocks.length;
+    }
+
+    public int getBlockSize() {
+        return mBlockSize;
+    }
+
+    // Producer: next free block (cleared), or null if the ring is full
+    public ByteBuffer claim() {
+        long head = mHead.get();
+        if (head - mTail.get() >= mBlocks.length)
+            return null;
+        ByteBuffer block = mBlocks[(int) head & mMask];
+        block.clear();
+        return block;
+    }
+
+    // Producer: make the claimed block visible to the consumer, its position..limit holds the data
+    public void publish() {
+        long head = mHead.get() + 1;
+        mHead.lazySet(head);
+        int used = (int) (head - mTail.get());
+        if (used > mHighWaterMark)
+            mHighWaterMark = used;
+    }
+
+    // Consumer: oldest published block, or null if the ring is empty
+    public ByteBuffer peek() {
+        long tail = mTail.get();
+        if (tail >= mHead.get())
+            return null;
+        return mBlocks[(int) tail & mMask];
+    }
+
+    // Consumer: give the peeked block back to the producer
+    public void release() {
+        mTail.lazySet(mTail.get() + 1);
+    }
+
+    // Producer: a block could not be stored because the ring was full and the data was dropped
+    public void recordOverrun() {
+        mOverrunCount++;
+    }
+
+    public boolean isEmpty() {
+        return mTail.get() >= mHead.get();
+    }
+
+    // Number of blocks the producer could not store because the consumer was late
+    public long getOverrunCount() {
+        return mOverrunCount;
+    }
+
+    // Largest number of blocks waiting in the ring since creation
+    public int getHighWaterMark() {
+        return mHighWaterMark;
+    }
+}
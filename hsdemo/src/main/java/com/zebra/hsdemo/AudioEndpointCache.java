@@ -0,0 +1,207 @@
+package com.zebra.hsdemo;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Initialized capture or playback endpoints (AudioRecord, AudioTrack) kept for reuse, creating one
+    costs tens of milliseconds. Endpoints are keyed by sample rate, channel mask and encoding; an idle
+    endpoint is handed out by acquire() for exclusive use and comes back with recycle() once stopped.
+    prepare() creates the endpoint of a key ahead of time, to be called on a worker thread.
+    At most maxIdle endpoints are kept, the least recently used one is released first.
+    onRouteChanged() releases the idle endpoints, the endpoints in use are released when they are recycled;
+    the caller then prepares the endpoints it needs on the new route (the keys may have changed too, e.g.
+    the SCO sample rate). releaseIdle() is for onTrimMemory(), close() for onDestroy().
+    The Android objects are behind Factory, the cache itself runs on a JVM with fake endpoints.
+    Thread safe, the factory is never called with the lock held.
+ */
+public class AudioEndpointCache<E> {
+
+    public static final int DEFAULT_MAX_IDLE = 2;
+
+    public static final class Key
+    {
+        public final int sampleRate;
+        public final int channelMask;
+        public final int encoding;
+
+        public Key(int sampleRate, int channelMask, int encoding)
+        {
+            this.sampleRate = sampleRate;
+            this.channelMask = channelMask;
+            this.encoding = encoding;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof Key))
+                return false;
+            Key key = (Key) other;
+            return sampleRate == key.sampleRate && channelMask == key.channelMask && encoding == key.encoding;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (sampleRate * 31 + channelMask) * 31 + encoding;
+        }
+
+        @Override
+        public String toString()
+        {
+            return sampleRate + " Hz, channel mask " + channelMask + ", encoding " + encoding;
+        }
+    }
+
+    public interface Factory<E>
+    {
+        // Null when the endpoint could not be initialized
+        E create(Key key);
+
+        // Called on an idle endpoint before it is handed out again (e.g. flush a stopped track)
+        void reset(E endpoint);
+
+        void release(E endpoint);
+    }
+
+    // Endpoint handed out, with the route generation it was created on
+    private static final class Lease
+    {
+        final Key key;
+        final int generation;
+
+        Lease(Key key, int generation)
+        {
+            this.key = key;
+            this.generation = generation;
+        }
+    }
+
+    private final Factory<E> mFactory;
+    private final int mMaxIdle;
+    // Least recently used first
+    private final LinkedHashMap<Key, E> mIdle = new LinkedHashMap<>(4, 0.75f, true);
+    private final Map<E, Lease> mInUse = new IdentityHashMap<>();
+    private int mGeneration = 0;
+    private boolean mClosed = false;
+    private int mHits = 0;
+    private int mMisses = 0;
+
+    public AudioEndpointCache(Factory<E> factory, int maxIdle) {
+        mFactory = factory;
+        mMaxIdle = maxIdle;
+    }
+
+    // Creates the endpoint of the key when there is no idle one, blocks for the creation
+    public void prepare(Key key) {
+        int generation;
+        synchronized (this) {
+            if (mClosed || mIdle.containsKey(key))
+                return;
+            generation = mGeneration;
+        }
+        E endpoint = mFactory.create(key);
+        if (endpoint == null)
+            return;
+        List<E> released = new ArrayList<>(1);
+        synchronized (this) {
+            if (mClosed || generation != mGeneration || mIdle.containsKey(key))
+                released.add(endpoint);
+            else
+                putIdle(key, endpoint, released);
+        }
+        releaseAll(released);
+    }
+
+    // An idle endpoint of the key or a new one, null when it could not be created
+    public E acquire(Key key) {
+        E endpoint;
+        int generation;
+        synchronized (this) {
+            endpoint = mIdle.remove(key);
+            if (endpoint != null)
+                mHits++;
+            else
+                mMisses++;
+            generation = mGeneration;
+        }
+        if (endpoint != null)
+            mFactory.reset(endpoint);
+        else
+            endpoint = mFactory.create(key);
+        if (endpoint == null)
+            return null;
+        synchronized (this) {
+            mInUse.put(endpoint, new Lease(key, generation));
+        }
+        return endpoint;
+    }
+
+    // Gives back a stopped endpoint from acquire(), it is released when it cannot be reused
+    public void recycle(E endpoint) {
+        List<E> released = new ArrayList<>(1);
+        synchronized (this) {
+            Lease lease = mInUse.remove(endpoint);
+            if (lease == null || mClosed || lease.generation != mGeneration || mIdle.containsKey(lease.key))
+                released.add(endpoint);
+            else
+                putIdle(lease.key, endpoint, released);
+        }
+        releaseAll(released);
+    }
+
+    // The endpoints created before are not reused, a prepare() running now is discarded too
+    public void onRouteChanged() {
+        synchronized (this) {
+            mGeneration++;
+        }
+        releaseIdle();
+    }
+
+    public void releaseIdle() {
+        List<E> released;
+        synchronized (this) {
+            released = new ArrayList<>(mIdle.values());
+            mIdle.clear();
+        }
+        releaseAll(released);
+    }
+
+    // The endpoints still in use are released when recycled
+    public void close() {
+        synchronized (this) {
+            mClosed = true;
+        }
+        releaseIdle();
+    }
+
+    public synchronized int getIdleCount() {
+        return mIdle.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mIdle.size() + " idle, " + mInUse.size() + " in use, " + mHits + " hits, " + mMisses + " misses";
+    }
+
+    // Called with the lock held, the evicted endpoints are added to released
+    private void putIdle(Key key, E endpoint, List<E> released) {
+        mIdle.put(key, endpoint);
+        Iterator<E> eldest = mIdle.values().iterator();
+        while (mIdle.size() > mMaxIdle) {
+            released.add(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private void releaseAll(List<E> endpoints) {
+        for (E endpoint : endpoints) {
+            mFactory.release(endpoint);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.zebra.hsdemo;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Runs the audio work of the UI off the UI thread on two lanes of named threads at audio priority:
+    - playback: one task at a time, a new playback cancels the running one and replaces the queued one,
+      so rapid taps never start overlapping playbacks that fight over the SCO routing.
+    - work: exports and analysis, run in order with a bounded queue, extra tasks are rejected.
+    The lane threads are created on demand and stop after KEEP_ALIVE_SECONDS of inactivity.
+    Each submission returns an AudioTask that tracks its state (queued, running, completed, cancelled,
+    failed or rejected); cancellation is cooperative, see AudioTask.setCancelHook().
+ */
+public class AudioTaskExecutor {
+
+    private final static String TAG = "AudioTaskExecutor";
+
+    public static final int WORK_QUEUE_CAPACITY = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    public interface TaskBody
+    {
+        void run(AudioTask task) throws Exception;
+    }
+
+    public static class AudioTask implements Runnable
+    {
+        public enum State { QUEUED, RUNNING, COMPLETED, CANCELLED, FAILED, REJECTED }
+
+        private final String mName;
+        private final TaskBody mBody;
+        private final AtomicReference<State> mState = new AtomicReference<>(State.QUEUED);
+        private volatile boolean mCancelRequested = false;
+        private volatile Runnable mCancelHook = null;
+        private final long mSubmitNanos = System.nanoTime();
+        private volatile long mStartNanos = 0;
+        private volatile long mEndNanos = 0;
+
+        AudioTask(String name, TaskBody body)
+        {
+            mName = name;
+            mBody = body;
+        }
+
+        public String getName()
+        {
+            return mName;
+        }
+
+        public State getState()
+        {
+            return mState.get();
+        }
+
+        // Checked by the task body between steps
+        public boolean isCancelled()
+        {
+            return mCancelRequested;
+        }
+
+        /*
+            Called by the task body with the action that interrupts its current step (e.g. stop a player),
+            null when the step is done. Runs right away when the task is already cancelled.
+         */
+        public void setCancelHook(Runnable hook)
+        {
+            mCancelHook = hook;
+            if (mCancelRequested && hook != null)
+                hook.run();
+        }
+
+        public void cancel()
+        {
+            mCancelRequested = true;
+            if (mState.compareAndSet(State.QUEUED, State.CANCELLED)) {
+                Log.d(TAG, "Cancelled before start: " + this);
+                return;
+            }
+            Runnable hook = mCancelHook;
+            if (hook != null)
+                hook.run();
+        }
+
+        @Override
+        public void run()
+        {
+            if (!mState.compareAndSet(State.QUEUED, State.RUNNING))
+                return;
+            mStartNanos = System.nanoTime();
+            State endState;
+            try {
+                mBody.run(this);
+                endState = mCancelRequested ? State.CANCELLED : State.COMPLETED;
+            } catch (Exception e) {
+                Log.e(TAG, mName + " failed: " + e);
+                endState = State.FAILED;
+            } finally {
+                mCancelHook = null;
+            }
+            mEndNanos = System.nanoTime();
+            mState.set(endState);
+            Log.d(TAG, "Finished: " + this);
+        }
+
+        void reject()
+        {
+            mState.set(State.REJECTED);
+        }
+
+        @Override
+        public String toString()
+        {
+            long startNanos = mStartNanos;
+            long endNanos = mEndNanos;
+            String timings = startNanos == 0 ? "" : ", waited " + (startNanos - mSubmitNanos) / 1000000 + " ms"
+                    + (endNanos == 0 ? "" : ", ran " + (endNanos - startNanos) / 1000000 + " ms");
+            return mName + " [" + mState.get() + timings + "]";
+        }
+    }
+
+    private static class AudioThreadFactory implements ThreadFactory
+    {
+        private final String mName;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        AudioThreadFactory(String name)
+        {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable)
+        {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+                    runnable.run();
+                }
+            }, mName + " Thread " + mCount.incrementAndGet());
+        }
+    }
+
+    private final ThreadPoolExecutor mPlaybackExecutor = createExecutor("AudioPlayback", 1);
+    private final ThreadPoolExecutor mWorkExecutor = createExecutor("AudioWork", WORK_QUEUE_CAPACITY);
+    private final AtomicReference<AudioTask> mCurrentPlayback = new AtomicReference<>();
+
+    private static ThreadPoolExecutor createExecutor(String name, int queueCapacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new AudioThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    // Cancels the current playback (running or queued) and queues this one
+    public AudioTask submitPlayback(String name, TaskBody body) {
+        AudioTask task = new AudioTask(name, body);
+        AudioTask previous = mCurrentPlayback.getAndSet(task);
+        if (previous != null)
+            previous.cancel();
+        // The superseded playback may still be waiting in the queue, free its slot
+        mPlaybackExecutor.getQueue().clear();
+        return execute(mPlaybackExecutor, task);
+    }
+
+    // Queued behind the other work tasks, rejected when the queue is full
+    public AudioTask submit(String name, TaskBody body) {
+        return execute(mWorkExecutor, new AudioTask(name, body));
+    }
+
+    public void cancelPlayback() {
+        AudioTask task = mCurrentPlayback.get();
+        if (task != null)
+            task.cancel();
+    }
+
+    // Cancels the playback and drops the queued work, the running work task is left to complete
+    public void shutdown() {
+        cancelPlayback();
+        mPlaybackExecutor.shutdown();
+        List<Runnable> queued = new ArrayList<>();
+        mWorkExecutor.getQueue().drainTo(queued);
+        for (Runnable task : queued) {
+            ((AudioTask) task).cancel();
+        }
+        mWorkExecutor.shutdown();
+    }
+
+    private static AudioTask execute(ThreadPoolExecutor executor, AudioTask task) {
+        try {
+            executor.execute(task);
+            Log.d(TAG, "Queued: " + task);
+        } catch (RejectedExecutionException e) {
+            task.reject();
+            Log.w(TAG, "Rejected: " + task);
+        }
+        return task;
+    }
+}
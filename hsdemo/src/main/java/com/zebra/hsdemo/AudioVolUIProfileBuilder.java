@@ -0,0 +1,242 @@
+package com.zebra.hsdemo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Builds the MX XML of AudioVolUIMgr profiles from templates compiled once per process: each template
+    is split around its ${Parameter} placeholders when the class is loaded, filling it only appends the
+    literal parts and the values to a StringBuilder.
+    The actions are grouped in AudioVolUIMgr characteristics, a new characteristic is started when an
+    action would set a parameter already set in the current one (e.g. activate then adjust, both use
+    CurrentProfileAction). All the characteristics of a builder are applied in order by a single
+    ProfileManager.processProfile() call, so the whole volume setup (create, activate and adjust) is one
+    round trip instead of three.
+ */
+public class AudioVolUIProfileBuilder {
+
+    // Version of the AudioVolUIMgr characteristics
+    public static final String AUDIO_VOL_UI_MGR_VERSION = "11.6";
+
+    // Stream levels of the MAXIMUM UI profile
+    public static final Map<String, String> MAXIMUM_STREAM_LEVELS;
+
+    static {
+        Map<String, String> levels = new LinkedHashMap<>();
+        levels.put("STREAM_MUSIC_SPK_LEVEL", "15,15,15");
+        levels.put("STREAM_MUSIC_WHS_LEVEL", "15,15,15");
+        levels.put("STREAM_MUSIC_BTHS_LEVEL", "10,15,15");
+        levels.put("STREAM_MUSIC_HDMI_LEVEL", "15,15,15");
+        levels.put("STREAM_RING_SPK_LEVEL", "7,7,7");
+        levels.put("STREAM_ALARM_SPK_LEVEL", "7,7,7");
+        levels.put("STREAM_VOICECALL_SPK_LEVEL", "5,5,5");
+        levels.put("STREAM_VOICECALL_RCVR_LEVEL", "5,5,5");
+        levels.put("STREAM_VOICECALL_WHS_LEVEL", "5,5,5");
+        levels.put("STREAM_VOICECALL_BTHS_LEVEL", "15,15,15");
+        levels.put("STREAM_VVS_SPK_LEVEL", "10,10,10");
+        MAXIMUM_STREAM_LEVELS = Collections.unmodifiableMap(levels);
+    }
+
+    // A text with ${Parameter} placeholders, split around them once
+    static class Template
+    {
+        // Literal parts, one more than the placeholders
+        private final String[] mLiterals;
+        // Index of the value of each placeholder in the parameter names
+        private final int[] mParameters;
+
+        private Template(String[] literals, int[] parameters)
+        {
+            mLiterals = literals;
+            mParameters = parameters;
+        }
+
+        static Template compile(String text, String... parameterNames)
+        {
+            List<String> literals = new ArrayList<>();
+            List<Integer> parameters = new ArrayList<>();
+            int position = 0;
+            int start;
+            while ((start = text.indexOf("${", position)) >= 0) {
+                int end = text.indexOf('}', start);
+                if (end < 0)
+                    throw new IllegalArgumentException("Unterminated placeholder in template: " + text);
+                String name = text.substring(start + 2, end);
+                int parameter = indexOf(parameterNames, name);
+                if (parameter < 0)
+                    throw new IllegalArgumentException("Unknown template parameter: " + name);
+                literals.add(text.substring(position, start));
+                parameters.add(parameter);
+                position = end + 1;
+            }
+            literals.add(text.substring(position));
+
+            int[] parameterIndexes = new int[parameters.size()];
+            for (int i = 0; i < parameterIndexes.length; i++) {
+                parameterIndexes[i] = parameters.get(i);
+            }
+            return new Template(literals.toArray(new String[0]), parameterIndexes);
+        }
+
+        // Values in the order of the parameter names given to compile()
+        void appendTo(StringBuilder out, String... values)
+        {
+            for (int i = 0; i < mParameters.length; i++) {
+                out.append(mLiterals[i]).append(values[mParameters[i]]);
+            }
+            out.append(mLiterals[mParameters.length]);
+        }
+
+        private static int indexOf(String[] names, String name)
+        {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name))
+                    return i;
+            }
+            return -1;
+        }
+    }
+
+    private static final Template PROFILE_BEGIN = Template.compile(
+            "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+            "<characteristic type=\"Profile\">\n" +
+            "<parm name=\"ProfileName\" value=\"${ProfileName}\"/>\n",
+            "ProfileName");
+    private static final String PROFILE_END = "</characteristic>\n";
+
+    private static final String CHARACTERISTIC_BEGIN = "  <characteristic version=\"" + AUDIO_VOL_UI_MGR_VERSION + "\" type=\"AudioVolUIMgr\">\n";
+    private static final String CHARACTERISTIC_END = "  </characteristic>\n";
+
+    private static final Template MUTE_VIBRATE_STATE = Template.compile(
+            "    <parm name=\"MuteVibrateState\" value=\"${State}\" />\n",
+            "State");
+
+    private static final Template SET_CURRENT_UI_PROFILE = Template.compile(
+            "    <parm name=\"CurrentProfileAction\" value=\"1\" />\n" +
+            "    <characteristic type=\"CurrentUIProfile\">\n" +
+            "      <parm name=\"CurrentProfileName\" value=\"${UIProfileName}\" />\n" +
+            "      <parm name=\"SetCurrentProfileOption\" value=\"2\" />\n" +
+            "    </characteristic>\n",
+            "UIProfileName");
+
+    private static final String ADJUST_TO_CURRENT_PRESET =
+            "    <parm name=\"CurrentProfileAction\" value=\"2\" />\n";
+
+    private static final Template UI_PROFILE_BEGIN = Template.compile(
+            "    <parm name=\"UIProfileAction\" value=\"1\" />\n" +
+            "    <characteristic type=\"UIProfile\">\n" +
+            "      <parm name=\"ProfileName\" value=\"${UIProfileName}\" />\n" +
+            "      <characteristic type=\"UIProfile-streamconfig\">\n",
+            "UIProfileName");
+    private static final Template STREAM_LEVEL = Template.compile(
+            "        <parm name=\"${Stream}\" value=\"${Levels}\" />\n",
+            "Stream", "Levels");
+    private static final String UI_PROFILE_END =
+            "      </characteristic>\n" +
+            "    </characteristic>\n";
+
+    private static final String QUERY =
+            "  <characteristic-query type=\"AudioVolUIMgr\" />\n";
+
+    // Parameters already set in the current characteristic
+    private static final int MUTE_VIBRATE_STATE_PARM = 1;
+    private static final int CURRENT_PROFILE_ACTION_PARM = 2;
+    private static final int UI_PROFILE_ACTION_PARM = 4;
+
+    private final String mProfileName;
+    private final StringBuilder mXml = new StringBuilder(2048);
+    private int mCharacteristicCount = 0;
+    private boolean mCharacteristicOpen = false;
+    private int mCharacteristicParms = 0;
+
+    public AudioVolUIProfileBuilder(String profileName)
+    {
+        mProfileName = profileName;
+        PROFILE_BEGIN.appendTo(mXml, profileName);
+    }
+
+    // Profile reading the AudioVolUIMgr settings, for a ProfileManager GET request
+    public static String buildQuery(String profileName)
+    {
+        StringBuilder xml = new StringBuilder(256);
+        PROFILE_BEGIN.appendTo(xml, profileName);
+        return xml.append(QUERY).append(PROFILE_END).toString();
+    }
+
+    public String getProfileName()
+    {
+        return mProfileName;
+    }
+
+    // AudioVolUIMgr characteristics in the profile, each one is an action applied by the MX
+    public int getCharacteristicCount()
+    {
+        return mCharacteristicCount;
+    }
+
+    public AudioVolUIProfileBuilder setMuteVibrateState(int state)
+    {
+        beginParm(MUTE_VIBRATE_STATE_PARM);
+        MUTE_VIBRATE_STATE.appendTo(mXml, Integer.toString(state));
+        return this;
+    }
+
+    // Makes a UI profile the current one
+    public AudioVolUIProfileBuilder setCurrentUIProfile(String uiProfileName)
+    {
+        beginParm(CURRENT_PROFILE_ACTION_PARM);
+        SET_CURRENT_UI_PROFILE.appendTo(mXml, uiProfileName);
+        return this;
+    }
+
+    // Applies the levels of the current UI profile to the device volumes
+    public AudioVolUIProfileBuilder adjustVolumeToCurrentPreset()
+    {
+        beginParm(CURRENT_PROFILE_ACTION_PARM);
+        mXml.append(ADJUST_TO_CURRENT_PRESET);
+        return this;
+    }
+
+    // Creates or updates a UI profile, streamLevels maps STREAM_*_LEVEL parameters to their "min,current,max" values
+    public AudioVolUIProfileBuilder createUIProfile(String uiProfileName, Map<String, String> streamLevels)
+    {
+        beginParm(UI_PROFILE_ACTION_PARM);
+        UI_PROFILE_BEGIN.appendTo(mXml, uiProfileName);
+        for (Map.Entry<String, String> level : streamLevels.entrySet()) {
+            STREAM_LEVEL.appendTo(mXml, level.getKey(), level.getValue());
+        }
+        mXml.append(UI_PROFILE_END);
+        return this;
+    }
+
+    // The builder can still be extended after build()
+    public String build()
+    {
+        int length = mXml.length();
+        if (mCharacteristicOpen)
+            mXml.append(CHARACTERISTIC_END);
+        mXml.append(PROFILE_END);
+        String xml = mXml.toString();
+        mXml.setLength(length);
+        return xml;
+    }
+
+    // Starts a new characteristic when the parameter is already set in the current one
+    private void beginParm(int parm)
+    {
+        if (mCharacteristicOpen && (mCharacteristicParms & parm) != 0) {
+            mXml.append(CHARACTERISTIC_END);
+            mCharacteristicOpen = false;
+        }
+        if (!mCharacteristicOpen) {
+            mXml.append(CHARACTERISTIC_BEGIN);
+            mCharacteristicOpen = true;
+            mCharacteristicParms = 0;
+            mCharacteristicCount++;
+        }
+        mCharacteristicParms |= parm;
+    }
+}
@@ -0,0 +1,96 @@
+package com.zebra.hsdemo;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+    Known STREAM_*_LEVEL values of the AudioVolUIMgr UI profiles of the device.
+    A UI profile is known once it was read with a query (GET) request or written with a profile applied
+    with success. getChangedLevels() keeps only the requested levels that differ from the known ones,
+    so a UI profile update submits the changed parameters only.
+    Thread safe.
+ */
+public class AudioVolUIState {
+
+    private static final String UI_PROFILE_TYPE = "type=\"UIProfile\"";
+    private static final String PARM = "<parm";
+    private static final String STREAM_PREFIX = "STREAM_";
+    private static final String LEVEL_SUFFIX = "_LEVEL";
+
+    // UI profile name -> stream parameter -> "min,current,max"
+    private final Map<String, Map<String, String>> mUIProfiles = new HashMap<>();
+
+    public synchronized boolean isKnown(String uiProfileName) {
+        return mUIProfiles.containsKey(uiProfileName);
+    }
+
+    // Replaces what is known of the UI profile
+    public synchronized void set(String uiProfileName, Map<String, String> levels) {
+        mUIProfiles.put(uiProfileName, new LinkedHashMap<>(levels));
+    }
+
+    // Adds levels written to the UI profile
+    public synchronized void merge(String uiProfileName, Map<String, String> levels) {
+        Map<String, String> known = mUIProfiles.get(uiProfileName);
+        if (known == null) {
+            set(uiProfileName, levels);
+            return;
+        }
+        known.putAll(levels);
+    }
+
+    // Requested levels that differ from the known ones, all of them when the UI profile is unknown
+    public synchronized Map<String, String> getChangedLevels(String uiProfileName, Map<String, String> requestedLevels) {
+        Map<String, String> known = mUIProfiles.get(uiProfileName);
+        if (known == null)
+            return new LinkedHashMap<>(requestedLevels);
+        Map<String, String> changedLevels = new LinkedHashMap<>();
+        for (Map.Entry<String, String> level : requestedLevels.entrySet()) {
+            if (!level.getValue().equals(known.get(level.getKey())))
+                changedLevels.put(level.getKey(), level.getValue());
+        }
+        return changedLevels;
+    }
+
+    public synchronized void invalidate() {
+        mUIProfiles.clear();
+    }
+
+    /*
+        The STREAM_*_LEVEL parameters of a UI profile found in a query result, null when the result
+        does not have this UI profile.
+     */
+    public static Map<String, String> parseStreamLevels(String xml, String uiProfileName) {
+        int[] name = new int[2];
+        int[] value = new int[2];
+        int section = xml.indexOf(UI_PROFILE_TYPE);
+        while (section >= 0) {
+            int nextSection = xml.indexOf(UI_PROFILE_TYPE, section + UI_PROFILE_TYPE.length());
+            int sectionEnd = nextSection < 0 ? xml.length() : nextSection;
+            Map<String, String> levels = new LinkedHashMap<>();
+            boolean found = false;
+            int position = section;
+            while ((position = xml.indexOf(PARM, position)) >= 0 && position < sectionEnd) {
+                int tagEnd = MxResultParser.findTagEnd(xml, position);
+                if (position + PARM.length() < xml.length() && Character.isWhitespace(xml.charAt(position + PARM.length()))) {
+                    MxResultParser.findAttribute(xml, position, tagEnd, "name", name, 0);
+                    MxResultParser.findAttribute(xml, position, tagEnd, "value", value, 0);
+                    if (name[0] >= 0 && value[0] >= 0) {
+                        String parmName = xml.substring(name[0], name[1]);
+                        String parmValue = xml.substring(value[0], value[1]);
+                        if (parmName.equals("ProfileName"))
+                            found = parmValue.equals(uiProfileName);
+                        else if (parmName.startsWith(STREAM_PREFIX) && parmName.endsWith(LEVEL_SUFFIX))
+                            levels.put(parmName, parmValue);
+                    }
+                }
+                position = tagEnd;
+            }
+            if (found)
+                return levels;
+            section = nextSection;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,124 @@
+package com.zebra.hsdemo;
+
+/*
+    Metrics of the capture pipeline.
+    The read side is only updated by the reader thread and the process/write side only by the
+    writer thread, so each field has a single writer and plain volatile fields are enough.
+    Nothing is allocated while recording, snapshot() can be polled from any thread (UI, log dump).
+ */
+public class CaptureMetrics {
+
+    // Reader thread
+    final LatencyHistogram readLatency = new LatencyHistogram();
+    private volatile long mReads = 0;
+    private volatile long mShortReads = 0;
+    private volatile long mInvalidOperationErrors = 0;
+    private volatile long mOtherReadErrors = 0;
+    private volatile long mBytesRead = 0;
+
+    // Writer thread
+    final LatencyHistogram processLatency = new LatencyHistogram();
+    final LatencyHistogram writeLatency = new LatencyHistogram();
+    private volatile long mBlocksWritten = 0;
+    private volatile long mBytesWritten = 0;
+    private volatile long mWriteErrors = 0;
+    // Unexpected exceptions that ended the capture
+    private volatile long mWriterFailures = 0;
+
+    // Reader thread: result of one read call. requested is the number of bytes asked, result the value returned.
+    public void onRead(int requested, int result, long nanos, int invalidOperationCode) {
+        readLatency.record(nanos);
+        mReads++;
+        if (result >= 0) {
+            mBytesRead += result;
+            if (result < requested)
+                mShortReads++;
+        } else if (result == invalidOperationCode) {
+            mInvalidOperationErrors++;
+        } else {
+            mOtherReadErrors++;
+        }
+    }
+
+    // Writer thread
+    public void onProcessed(long nanos) {
+        processLatency.record(nanos);
+    }
+
+    // Writer thread
+    public void onWritten(int bytes, long nanos) {
+        writeLatency.record(nanos);
+        mBlocksWritten++;
+        mBytesWritten += bytes;
+    }
+
+    // Writer thread
+    public void onWriteError() {
+        mWriteErrors++;
+    }
+
+    // Writer thread
+    public void onWriterFailure() {
+        mWriterFailures++;
+    }
+
+    public Snapshot snapshot(AudioBlockRing ring) {
+        return new Snapshot(this, ring);
+    }
+
+    public static class Snapshot
+    {
+        public final long reads;
+        public final long shortReads;
+        public final long invalidOperationErrors;
+        public final long otherReadErrors;
+        public final long bytesRead;
+        public final long blocksWritten;
+        public final long bytesWritten;
+        public final long writeErrors;
+        public final long writerFailures;
+        public final long overruns;
+        public final int ringHighWaterMark;
+        public final int ringCapacity;
+        public final LatencyHistogram.Snapshot readLatency;
+        public final LatencyHistogram.Snapshot processLatency;
+        public final LatencyHistogram.Snapshot writeLatency;
+
+        Snapshot(CaptureMetrics metrics, AudioBlockRing ring)
+        {
+            reads = metrics.mReads;
+            shortReads = metrics.mShortReads;
+            invalidOperationErrors = metrics.mInvalidOperationErrors;
+            otherReadErrors = metrics.mOtherReadErrors;
+            bytesRead = metrics.mBytesRead;
+            blocksWritten = metrics.mBlocksWritten;
+            bytesWritten = metrics.mBytesWritten;
+            writeErrors = metrics.mWriteErrors;
+            writerFailures = metrics.mWriterFailures;
+            overruns = ring != null ? ring.getOverrunCount() : 0;
+            ringHighWaterMark = ring != null ? ring.getHighWaterMark() : 0;
+            ringCapacity = ring != null ? ring.getCapacity() : 0;
+            readLatency = metrics.readLatency.snapshot();
+            processLatency = metrics.processLatency.snapshot();
+            writeLatency = metrics.writeLatency.snapshot();
+        }
+
+        // Short summary for the UI
+        public String toSummary()
+        {
+            return "Reads: " + reads + " (short: " + shortReads + ", errors: " + (invalidOperationErrors + otherReadErrors) + ")"
+                    + "\nOverruns: " + overruns + " Ring: " + ringHighWaterMark + "/" + ringCapacity
+                    + "\nRead p99<" + readLatency.getPercentileMicros(99) + "us Process p99<" + processLatency.getPercentileMicros(99)
+                    + "us Write p99<" + writeLatency.getPercentileMicros(99) + "us";
+        }
+
+        @Override
+        public String toString() {
+            return "reads=" + reads + " shortReads=" + shortReads + " invalidOperation=" + invalidOperationErrors
+                    + " otherReadErrors=" + otherReadErrors + " bytesRead=" + bytesRead
+                    + " blocksWritten=" + blocksWritten + " bytesWritten=" + bytesWritten + " writeErrors=" + writeErrors
+                    + " writerFailures=" + writerFailures + " overruns=" + overruns + " ring=" + ringHighWaterMark + "/" + ringCapacity
+                    + "\nread: " + readLatency + "\nprocess: " + processLatency + "\nwrite: " + writeLatency;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.zebra.hsdemo;
+
+import android.media.AudioRecord;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+    Capture pipeline decoupling AudioRecord reads from disk writes.
+    A high priority reader thread only reads the microphone into the blocks of an AudioBlockRing.
+    A writer thread drains the ring, processes each block (gain, statistics...) and persists it
+    into a PcmSink. A filesystem stall only fills the ring instead of delaying the next read.
+    When the ring is full the block is still read (to keep AudioRecord drained) and dropped.
+    A read error that will not go away (dead object, invalid operation or bad value) ends the capture at
+    once; other errors are retried with a short back off and end the capture when they persist. The
+    ReadErrorListener is told, the caller still calls stop().
+    A RuntimeException thrown by the processor or the sink ends the capture too; the sink is still
+    closed and onStopped still called.
+ */
+public class CapturePipeline {
+
+    private final static String TAG = "CapturePipeline";
+
+    public static final int DEFAULT_BLOCK_COUNT = 32;
+
+    // Maximum time the writer sleeps when the ring is empty, in case a wake up is missed
+    private static final long WRITER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    // Wait before retrying a failed read, and consecutive failed reads that end the capture
+    private static final long READ_ERROR_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int MAX_READ_ERRORS = 50;
+
+    // Processing applied by the writer thread on each block before it is written
+    public interface BlockProcessor {
+        void process(ByteBuffer block);
+    }
+
+    // Called by the reader thread when a read error ended the capture
+    public interface ReadErrorListener {
+        void onReadError(int error);
+    }
+
+    private final AudioRecord mRecorder;
+    private final PcmSink mSink;
+    private final BlockProcessor mProcessor;
+    private final AudioBlockRing mRing;
+    private final ByteBuffer mOverrunBlock;
+    private final CaptureMetrics mMetrics = new CaptureMetrics();
+
+    private volatile boolean mRunning = false;
+    private volatile boolean mReaderDone = false;
+    private Thread mReaderThread = null;
+    private Thread mWriterThread = null;
+    private volatile ReadErrorListener mReadErrorListener = null;
+    // Called by the writer thread once the sink is closed, guarded by this
+    private Runnable mOnStopped = null;
+    private boolean mWriterDone = false;
+    private volatile long mDroppedBytes = 0;
+    // System.nanoTime() when the first non empty read returned, 0 before
+    private volatile long mFirstReadNanos = 0;
+
+    public CapturePipeline(AudioRecord recorder, PcmSink sink, BlockProcessor processor, int blockSize, int blockCount) {
+        mRecorder = recorder;
+        mSink = sink;
+        mProcessor = processor;
+        mRing = new AudioBlockRing(blockCount, blockSize);
+        mOverrunBlock = ByteBuffer.allocateDirect(blockSize).order(ByteOrder.nativeOrder());
+    }
+
+    public void start() {
+        mRunning = true;
+        mReaderDone = false;
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+                writeLoop();
+            }
+        }, "AudioWriter Thread");
+        mReaderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+                readLoop();
+            }
+        }, "AudioRecorder Thread");
+        mWriterThread.start();
+        mReaderThread.start();
+    }
+
+    public void setReadErrorListener(ReadErrorListener listener) {
+        mReadErrorListener = listener;
+    }
+
+    /*
+        Stop reading and return at once, the writer persists the pending blocks and closes the sink.
+        onStopped is then called on the writer thread (right away when a read error already ended the capture),
+        the recorder can be stopped and released from there on.
+     */
+    public void stop(Runnable onStopped) {
+        mRunning = false;
+        boolean writerDone;
+        synchronized (this) {
+            mOnStopped = onStopped;
+            writerDone = mWriterDone;
+        }
+        if (writerDone && onStopped != null)
+            onStopped.run();
+    }
+
+    private void readLoop() {
+        int blockSize = mRing.getBlockSize();
+        int consecutiveErrors = 0;
+        while (mRunning) {
+            ByteBuffer block = mRing.claim();
+            boolean overrun = block == null;
+            if (overrun) {
+                mRing.recordOverrun();
+                block = mOverrunBlock;
+                block.clear();
+            }
+            long readStart = System.nanoTime();
+            int read = mRecorder.read(block, blockSize);
+            mMetrics.onRead(blockSize, read, System.nanoTime() - readStart, AudioRecord.ERROR_INVALID_OPERATION);
+            if (read > 0 && mFirstReadNanos == 0)
+                mFirstReadNanos = System.nanoTime();
+            if (read > 0 && !overrun) {
+                block.limit(read);
+                mRing.publish();
+                LockSupport.unpark(mWriterThread);
+            } else if (read > 0) {
+                mDroppedBytes += read;
+            } else if (read < 0) {
+                Log.w(TAG, "AudioRecord read error: " + read);
+                consecutiveErrors++;
+                if (isFatalReadError(read) || consecutiveErrors >= MAX_READ_ERRORS) {
+                    Log.e(TAG, "Capture ended after " + consecutiveErrors + " read errors");
+                    ReadErrorListener listener = mReadErrorListener;
+                    if (listener != null)
+                        listener.onReadError(read);
+                    break;
+                }
+                LockSupport.parkNanos(this, READ_ERROR_BACKOFF_NANOS);
+                continue;
+            }
+            consecutiveErrors = 0;
+        }
+        mReaderDone = true;
+        LockSupport.unpark(mWriterThread);
+    }
+
+    private void writeLoop() {
+        try {
+            drainRing();
+        } catch (RuntimeException e) {
+            // Bug in a processor or in the sink, the next blocks would fail too
+            mMetrics.onWriterFailure();
+            Log.e(TAG, "Capture writer failed, capture stopped: " + e);
+            e.printStackTrace();
+            mRunning = false;
+        } finally {
+            try {
+                mSink.close();
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+            joinQuietly(mReaderThread);
+            Log.d(TAG, "Capture stopped, dropped bytes: " + mDroppedBytes + "\n" + getMetricsSnapshot());
+            Runnable onStopped;
+            synchronized (this) {
+                mWriterDone = true;
+                onStopped = mOnStopped;
+            }
+            if (onStopped != null)
+                onStopped.run();
+        }
+    }
+
+    // Processes and writes the blocks until the reader is done and the ring is empty
+    private void drainRing() {
+        while (true) {
+            ByteBuffer block = mRing.peek();
+            if (block == null) {
+                if (mReaderDone && mRing.isEmpty())
+                    break;
+                LockSupport.parkNanos(this, WRITER_PARK_NANOS);
+                continue;
+            }
+            try {
+                long processStart = System.nanoTime();
+                if (mProcessor != null)
+                    mProcessor.process(block);
+                long writeStart = System.nanoTime();
+                mMetrics.onProcessed(writeStart - processStart);
+                int length = block.remaining();
+                mSink.write(block);
+                mMetrics.onWritten(length, System.nanoTime() - writeStart);
+            } catch (IOException e) {
+                mMetrics.onWriteError();
+                e.printStackTrace();
+            }
+            mRing.release();
+        }
+    }
+
+    // The recorder is gone or not recording, retrying cannot succeed
+    private static boolean isFatalReadError(int error) {
+        return error == AudioRecord.ERROR_DEAD_OBJECT || error == AudioRecord.ERROR_INVALID_OPERATION
+                || error == AudioRecord.ERROR_BAD_VALUE;
+    }
+
+    private static void joinQuietly(Thread thread) {
+        if (thread == null)
+            return;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Can be polled from any thread while recording
+    public CaptureMetrics.Snapshot getMetricsSnapshot() {
+        return mMetrics.snapshot(mRing);
+    }
+
+    public long getOverrunCount() {
+        return mRing.getOverrunCount();
+    }
+
+    public int getHighWaterMark() {
+        return mRing.getHighWaterMark();
+    }
+
+    public int getRingCapacity() {
+        return mRing.getCapacity();
+    }
+
+    public long getDroppedBytes() {
+        return mDroppedBytes;
+    }
+
+    // System.nanoTime() of the first non empty read, 0 when nothing was read yet
+    public long getFirstReadNanos() {
+        return mFirstReadNanos;
+    }
+}
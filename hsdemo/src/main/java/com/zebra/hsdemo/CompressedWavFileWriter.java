@@ -0,0 +1,169 @@
+package com.zebra.hsdemo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/*
+    Encodes the captured PCM samples on the fly (IMA-ADPCM, mu-law or A-law) into a WAV container.
+    Like WavFileWriter, the header is reserved when the file is opened and patched on close.
+    The encoding buffers are allocated once, the write calls do not allocate.
+ */
+public class CompressedWavFileWriter implements PcmSink {
+
+    // Samples encoded per G.711 write
+    private static final int G711_CHUNK_SAMPLES = 4096;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final RecordingFormat mFormat;
+    private final int mSampleRate;
+    private final int mChannels;
+
+    // IMA-ADPCM: samples of the block being filled
+    private final ImaAdpcm.Encoder mAdpcmEncoder;
+    private final short[] mBlockSamples;
+    private int mBlockSampleCount = 0;
+
+    // Samples kept as little endian bytes for G.711, encoded bytes for both codecs
+    private final byte[] mPcmBytes;
+    private final byte[] mEncoded;
+    private final ByteBuffer mEncodedBuffer;
+
+    // A byte of a sample split between two writes
+    private int mPendingByte = -1;
+
+    private long mDataSize = 0;
+    private long mEncodedSize = 0;
+    private boolean mClosed = false;
+
+    public CompressedWavFileWriter(File file, int sampleRate, int channels, RecordingFormat format) throws IOException {
+        if (!format.isCompressed())
+            throw new IllegalArgumentException("Use WavFileWriter for " + format);
+        if (format == RecordingFormat.IMA_ADPCM && channels != 1)
+            throw new IllegalArgumentException("IMA-ADPCM recording is mono only");
+        mFormat = format;
+        mSampleRate = sampleRate;
+        mChannels = channels;
+
+        if (format == RecordingFormat.IMA_ADPCM) {
+            int blockAlign = ImaAdpcm.getBlockAlign(sampleRate, channels);
+            mAdpcmEncoder = new ImaAdpcm.Encoder();
+            mBlockSamples = new short[ImaAdpcm.getSamplesPerBlock(blockAlign, channels)];
+            mPcmBytes = null;
+            mEncoded = new byte[blockAlign];
+        } else {
+            mAdpcmEncoder = null;
+            mBlockSamples = null;
+            mPcmBytes = new byte[G711_CHUNK_SAMPLES * 2];
+            mEncoded = new byte[G711_CHUNK_SAMPLES];
+        }
+        mEncodedBuffer = ByteBuffer.wrap(mEncoded);
+
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        writeFully(WavHeader.createHeader(format, sampleRate, channels, 0, 0));
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        write(ByteBuffer.wrap(data, offset, length).order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    // The samples are read in the buffer byte order (native order for the capture blocks)
+    @Override
+    public void write(ByteBuffer data) throws IOException {
+        mDataSize += data.remaining();
+        boolean bigEndian = data.order() == ByteOrder.BIG_ENDIAN;
+        if (mPendingByte >= 0 && data.hasRemaining()) {
+            int other = data.get() & 0xFF;
+            putSample((short) (bigEndian ? (mPendingByte << 8) | other : mPendingByte | (other << 8)));
+            mPendingByte = -1;
+        }
+        while (data.remaining() >= 2) {
+            putSample(data.getShort());
+        }
+        if (data.hasRemaining())
+            mPendingByte = data.get() & 0xFF;
+    }
+
+    private void putSample(short sample) throws IOException {
+        if (mFormat == RecordingFormat.IMA_ADPCM) {
+            mBlockSamples[mBlockSampleCount++] = sample;
+            if (mBlockSampleCount == mBlockSamples.length)
+                flushAdpcmBlock();
+        } else {
+            int p = mBlockSampleCount * 2;
+            mPcmBytes[p] = (byte) sample;
+            mPcmBytes[p + 1] = (byte) (sample >> 8);
+            if (++mBlockSampleCount == G711_CHUNK_SAMPLES)
+                flushG711();
+        }
+    }
+
+    private void flushAdpcmBlock() throws IOException {
+        if (mBlockSampleCount == 0)
+            return;
+        writeEncoded(mAdpcmEncoder.encodeBlock(mBlockSamples, 0, mBlockSampleCount, mEncoded, 0));
+    }
+
+    private void flushG711() throws IOException {
+        if (mBlockSampleCount == 0)
+            return;
+        G711.encode(mFormat == RecordingFormat.A_LAW, mPcmBytes, 0, mEncoded, 0, mBlockSampleCount);
+        writeEncoded(mBlockSampleCount);
+    }
+
+    private void writeEncoded(int length) throws IOException {
+        mEncodedBuffer.clear();
+        mEncodedBuffer.limit(length);
+        writeFully(mEncodedBuffer);
+        mEncodedSize += length;
+        mBlockSampleCount = 0;
+    }
+
+    // Number of PCM bytes received, not the size of the encoded data
+    @Override
+    public long getDataSize() {
+        return mDataSize;
+    }
+
+    public long getEncodedSize() {
+        return mEncodedSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed)
+            return;
+        mClosed = true;
+        try {
+            // The last IMA-ADPCM block is shorter, the fact chunk gives the exact sample count
+            if (mFormat == RecordingFormat.IMA_ADPCM)
+                flushAdpcmBlock();
+            else
+                flushG711();
+            // RIFF chunks are word aligned: an odd number of G.711 bytes gets a pad byte, not counted in the data size
+            if ((mEncodedSize & 1) != 0) {
+                mEncodedBuffer.clear();
+                mEncodedBuffer.put((byte) 0);
+                mEncodedBuffer.flip();
+                writeFully(mEncodedBuffer);
+            }
+            mChannel.position(0);
+            writeFully(WavHeader.createHeader(mFormat, mSampleRate, mChannels, mEncodedSize, mDataSize / 2 / mChannels));
+        } finally {
+            mFile.close();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+}
@@ -1,9 +1,8 @@
 package com.zebra.hsdemo;
 
 import android.content.Context;
-import android.text.TextUtils;
+import android.media.AudioManager;
 import android.util.Log;
-import android.util.Xml;
 
 import com.symbol.emdk.EMDKBase;
 import com.symbol.emdk.EMDKException;
@@ -11,12 +10,26 @@ import com.symbol.emdk.EMDKManager;
 import com.symbol.emdk.EMDKResults;
 import com.symbol.emdk.ProfileManager;
 
-import org.xmlpull.v1.XmlPullParser;
-import org.xmlpull.v1.XmlPullParserException;
-
-import java.io.StringReader;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/*
+    Long-lived MX profile session.
+    The EMDKManager and the ProfileManager are bound on the first request (or by open()) and kept until
+    release(), so only the first request pays for the bind. Requests are queued and processed one at a
+    time on a dedicated thread: ProfileManager.processProfile() is a blocking call that only accepts one
+    request at a time. Requests submitted while the manager is being bound wait for it.
+    Callbacks are called on the profile thread (or on the main thread when the bind fails).
+    Each request logs how long it waited (bind included) and how long the MX processing took.
+    Applying again the last profile applied, with the device volumes unchanged since, completes at once
+    without going through the ProfileManager, see ProfileResultCache.
+    updateUIProfileLevels() submits only the stream levels that differ from the known state of the UI
+    profile, read once with a GET request, see AudioVolUIState.
+ */
 public class EMDKUtils {
 
     public interface IResultCallbacks{
@@ -58,45 +71,142 @@ public class EMDKUtils {
         }
     }
 
-    // A class that will hold errors if it happens
-    protected class ErrorHolder
+    // A profile to apply, with its timings
+    public static class ProfileRequest
     {
-        // Provides the error type for characteristic-error
-        protected String sErrorType = "";
+        private final String msProfileName;
+        // Built on the profile thread for the delta updates
+        private volatile String msProfileData;
+        private final IResultCallbacks mIResultCallbacks;
+        private final long mProfileHash;
+        // UI profile written by the request, null when it does not write stream levels
+        private final String msUIProfileName;
+        // Stream levels written by the request, the requested ones for a delta update until it is prepared
+        private volatile Map<String, String> mLevels;
+        // Only the levels that differ from the known state are submitted
+        private final boolean mDeltaOnly;
+        private volatile int mRequestedParameters = 0;
+        private volatile int mSkippedParameters = 0;
+        private final long mSubmitNanos = System.nanoTime();
+        private volatile long mStartNanos = 0;
+        private volatile long mEndNanos = 0;
+        // The request was queued while the EMDKManager/ProfileManager were bound
+        private volatile boolean mWaitedForBind = false;
+        // The result cache was checked for this request
+        private volatile boolean mCacheChecked = false;
+        // Completed from the result cache
+        private volatile boolean mCached = false;
+
+        ProfileRequest(String profileName, String profileData, IResultCallbacks resultCallbacks)
+        {
+            this(profileName, profileData, null, null, false, resultCallbacks);
+        }
 
-        // Provides the parm name for parm-error
-        protected String sParmName = "";
+        ProfileRequest(String profileName, String profileData, String uiProfileName, Map<String, String> levels, boolean deltaOnly, IResultCallbacks resultCallbacks)
+        {
+            msProfileName = profileName;
+            msProfileData = profileData;
+            mIResultCallbacks = resultCallbacks;
+            msUIProfileName = uiProfileName;
+            mLevels = levels;
+            mDeltaOnly = deltaOnly;
+            // The content of a delta update depends on the device state, it does not go through the result cache
+            mProfileHash = deltaOnly ? 0 : ProfileResultCache.hash(profileData);
+            mCacheChecked = deltaOnly;
+            if (deltaOnly)
+                mRequestedParameters = levels.size();
+        }
 
-        // Provides error description
-        protected String sErrorDescription = "";
-    }
+        public String getProfileName()
+        {
+            return msProfileName;
+        }
 
-    private final static String TAG = "EMDKUtils";
+        public boolean isCached()
+        {
+            return mCached;
+        }
+
+        // Requested stream levels that already had the requested value and were not submitted (delta updates)
+        public int getSkippedParameters()
+        {
+            return mSkippedParameters;
+        }
+
+        public int getSubmittedParameters()
+        {
+            return mRequestedParameters - mSkippedParameters;
+        }
+
+        // Time spent waiting for the manager and for the previous requests
+        public long getWaitedMs()
+        {
+            long startNanos = mStartNanos;
+            return startNanos == 0 ? 0 : (startNanos - mSubmitNanos) / 1000000;
+        }
+
+        // Time spent in ProfileManager.processProfile() and parsing its result
+        public long getProcessedMs()
+        {
+            long startNanos = mStartNanos;
+            long endNanos = mEndNanos;
+            return startNanos == 0 || endNanos == 0 ? 0 : (endNanos - startNanos) / 1000000;
+        }
 
-    // Profile content in XML
-    private String msProfileData = "";
+        @Override
+        public String toString()
+        {
+            if (mCached && mEndNanos != 0)
+                return msProfileName + " [cache hit in " + (mEndNanos - mStartNanos) / 1000 + " us"
+                        + (getWaitedMs() > 0 ? ", waited " + getWaitedMs() + " ms" : "") + "]";
+            String timings = mStartNanos == 0 ? "queued" : "waited " + getWaitedMs() + " ms" + (mWaitedForBind ? " with bind" : "")
+                    + (mEndNanos == 0 ? "" : ", processed " + getProcessedMs() + " ms");
+            if (mDeltaOnly && mEndNanos != 0)
+                timings += ", " + mSkippedParameters + " of " + mRequestedParameters + " parameters skipped";
+            return msProfileName + " [" + timings + "]";
+        }
+    }
 
-    // Profile name to execute
-    private String msProfileName = "";
+    private final static String TAG = "EMDKUtils";
 
     //Declare a variable to store ProfileManager object
-    private ProfileManager mProfileManager = null;
+    private volatile ProfileManager mProfileManager = null;
 
     //Declare a variable to store EMDKManager object
-    private EMDKManager mEMDKManager = null;
+    private volatile EMDKManager mEMDKManager = null;
 
-    // An ArrayList that will contains errors if we find some
-    private ArrayList<ErrorHolder> mErrors = new ArrayList<>();
+    // Finds the errors in the profile results (profile thread only)
+    private final MxResultParser mResultParser = new MxResultParser();
 
-    // Error String
-    private String msErrorString = null;
+    private final ProfileResultCache mResultCache;
 
-    // Status returned by the profile in case of success
-    private String msStatusXMLResponse = "";
+    // Stream levels of the UI profiles, for the delta updates
+    private final AudioVolUIState mUIState = new AudioVolUIState();
 
     private Context mContext = null;
 
-    private IResultCallbacks mIResultCallbacks = null;
+    private AudioManager mAudioManager = null;
+
+    // Guards the bind state and the pending requests
+    private final Object mLock = new Object();
+
+    // Requests waiting for the ProfileManager
+    private final ArrayDeque<ProfileRequest> mPendingRequests = new ArrayDeque<>();
+
+    private boolean mBinding = false;
+
+    // Requests submitted and not completed yet
+    private int mRequestsInFlight = 0;
+
+    private volatile boolean mReleased = false;
+
+    private long mBindStartNanos = 0;
+
+    // Request being processed, receives the debug status messages
+    private volatile ProfileRequest mCurrentRequest = null;
+
+    // Processes the requests one at a time
+    private final ExecutorService mProfileExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "EMDKProfile Thread"));
 
     // EMDKListener implementation
     private EMDKManager.EMDKListener mEMDKListener = new EMDKManager.EMDKListener() {
@@ -136,102 +246,198 @@ public class EMDKUtils {
             {
                 String errorMessage = "Error when trying to retrieve ProfileManager: " + getResultCode(statusData.getResult());
                 logMessage(errorMessage, EMessageType.ERROR);
+                onBindFailed(errorMessage);
             }
         }
     };
 
     public EMDKUtils(Context context)
     {
-        mContext = context;
+        // The session outlives the activity that creates it
+        mContext = context.getApplicationContext();
+        mAudioManager = (AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE);
+        mResultCache = new ProfileResultCache(this::getVolumeSignature);
     }
 
-    public void createAudioVolUIProfileToMAXIMUM(String audioProfileName, IResultCallbacks resultCallbacks)
+    // Next request goes through the ProfileManager even when it was the last one applied, the UI profiles are read again
+    public void invalidateResultCache()
     {
-        mIResultCallbacks = resultCallbacks;
-        msProfileName = "AudioVolumeMgr-0";
-        msProfileData = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
-                "<characteristic type=\"Profile\">\n" +
-                "<parm name=\"ProfileName\" value=\"" + msProfileName + "\"/>\n" +
-                "  <characteristic version=\"11.6\" type=\"AudioVolUIMgr\">\n" +
-                "    <parm name=\"MuteVibrateState\" value=\"3\" />\n" +
-                "    <parm name=\"CurrentProfileAction\" value=\"1\" />\n" +
-                "    <characteristic type=\"CurrentUIProfile\">\n" +
-                "      <parm name=\"CurrentProfileName\" value=\"MAXIMUM\" />\n" +
-                "      <parm name=\"SetCurrentProfileOption\" value=\"2\" />\n" +
-                "    </characteristic>\n" +
-                "    <parm name=\"UIProfileAction\" value=\"1\" />\n" +
-                "    <characteristic type=\"UIProfile\">\n" +
-                "      <parm name=\"ProfileName\" value=\"MAXIMUM\" />\n" +
-                "      <characteristic type=\"UIProfile-streamconfig\">\n" +
-                "        <parm name=\"STREAM_MUSIC_SPK_LEVEL\" value=\"15,15,15\" />\n" +
-                "        <parm name=\"STREAM_MUSIC_WHS_LEVEL\" value=\"15,15,15\" />\n" +
-                "        <parm name=\"STREAM_MUSIC_BTHS_LEVEL\" value=\"10,15,15\" />\n" +
-                "        <parm name=\"STREAM_MUSIC_HDMI_LEVEL\" value=\"15,15,15\" />\n" +
-                "        <parm name=\"STREAM_RING_SPK_LEVEL\" value=\"7,7,7\" />\n" +
-                "        <parm name=\"STREAM_ALARM_SPK_LEVEL\" value=\"7,7,7\" />\n" +
-                "        <parm name=\"STREAM_VOICECALL_SPK_LEVEL\" value=\"5,5,5\" />\n" +
-                "        <parm name=\"STREAM_VOICECALL_RCVR_LEVEL\" value=\"5,5,5\" />\n" +
-                "        <parm name=\"STREAM_VOICECALL_WHS_LEVEL\" value=\"5,5,5\" />\n" +
-                "        <parm name=\"STREAM_VOICECALL_BTHS_LEVEL\" value=\"15,15,15\" />\n" +
-                "        <parm name=\"STREAM_VVS_SPK_LEVEL\" value=\"10,10,10\" />\n" +
-                "      </characteristic>\n" +
-                "    </characteristic>\n" +
-                "  </characteristic>\n" +
-                "</characteristic>\n";
-        processProfile();
+        mResultCache.invalidate();
+        mUIState.invalidate();
     }
 
-    public void activateVolumeProfile(String audioProfileName, IResultCallbacks resultCallbacks)
+    // The volumes and the ringer mode, 6 bits per stream
+    private long getVolumeSignature()
+    {
+        long signature = mAudioManager.getRingerMode();
+        signature = (signature << 6) | mAudioManager.getStreamVolume(AudioManager.STREAM_MUSIC);
+        signature = (signature << 6) | mAudioManager.getStreamVolume(AudioManager.STREAM_RING);
+        signature = (signature << 6) | mAudioManager.getStreamVolume(AudioManager.STREAM_ALARM);
+        signature = (signature << 6) | mAudioManager.getStreamVolume(AudioManager.STREAM_VOICE_CALL);
+        signature = (signature << 6) | mAudioManager.getStreamVolume(AudioManager.STREAM_NOTIFICATION);
+        signature = (signature << 6) | mAudioManager.getStreamVolume(AudioManager.STREAM_SYSTEM);
+        return signature;
+    }
+
+    // Binds the EMDKManager and the ProfileManager ahead of the first request
+    public void open()
+    {
+        synchronized (mLock) {
+            if (mReleased || mBinding || mProfileManager != null)
+                return;
+            mBinding = true;
+        }
+        bindProfileManager();
+    }
+
+    // Releases the EMDKManager once the running request is done, the queued requests are dropped
+    public void release()
+    {
+        synchronized (mLock) {
+            if (mReleased)
+                return;
+            mReleased = true;
+            mRequestsInFlight -= mPendingRequests.size();
+            mPendingRequests.clear();
+        }
+        mProfileExecutor.execute(this::cleanUp);
+        mProfileExecutor.shutdown();
+    }
+
+    public ProfileRequest createAudioVolUIProfileToMAXIMUM(String audioProfileName, IResultCallbacks resultCallbacks)
+    {
+        AudioVolUIProfileBuilder builder = new AudioVolUIProfileBuilder("AudioVolumeMgr-0")
+                .setMuteVibrateState(3)
+                .setCurrentUIProfile(audioProfileName)
+                .createUIProfile(audioProfileName, AudioVolUIProfileBuilder.MAXIMUM_STREAM_LEVELS);
+        return submit(new ProfileRequest(builder.getProfileName(), builder.build(),
+                audioProfileName, AudioVolUIProfileBuilder.MAXIMUM_STREAM_LEVELS, false, resultCallbacks));
+    }
+
+    public ProfileRequest activateVolumeProfile(String audioProfileName, IResultCallbacks resultCallbacks)
     {
-        mIResultCallbacks = resultCallbacks;
         // Create profile content
-        msProfileName = "AudioVolumeMgr-1";
-        msProfileData = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
-                "<characteristic type=\"Profile\">\n" +
-                "<parm name=\"ProfileName\" value=\"" + msProfileName + "\"/>\n" +
-                "<characteristic type=\"AudioVolUIMgr\" version=\"11.6\">\n" +
-                "<parm name=\"CurrentProfileAction\" value=\"1\" />\n" +
-                "    <characteristic type=\"CurrentUIProfile\">\n" +
-                "      <parm name=\"CurrentProfileName\" value=\"" + audioProfileName + "\" />\n" +
-                "      <parm name=\"SetCurrentProfileOption\" value=\"2\" />\n" +
-                "    </characteristic>\n" +
-                "</characteristic>\n" +
-                "</characteristic>\n";
-
-        // initialize profile manager processing
-        processProfile();
+        AudioVolUIProfileBuilder builder = new AudioVolUIProfileBuilder("AudioVolumeMgr-1")
+                .setCurrentUIProfile(audioProfileName);
+
+        // queue the profile for the profile manager
+        return processProfile(builder, resultCallbacks);
     }
 
-    public void adjustVolumeToCurrentPreset( IResultCallbacks resultCallbacks)
+    public ProfileRequest adjustVolumeToCurrentPreset( IResultCallbacks resultCallbacks)
     {
-        mIResultCallbacks = resultCallbacks;
         // Create profile content
-        msProfileName = "AudioVolumeMgr-2";
-        msProfileData = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
-                "<characteristic type=\"Profile\">\n" +
-                "<parm name=\"ProfileName\" value=\"" + msProfileName + "\"/>\n" +
-                "  <characteristic version=\"11.6\" type=\"AudioVolUIMgr\">\n" +
-                "    <parm name=\"CurrentProfileAction\" value=\"2\" />\n" +
-                "  </characteristic>" +
-                "</characteristic>\n";
-        // initialize profile manager processing
-        processProfile();
+        AudioVolUIProfileBuilder builder = new AudioVolUIProfileBuilder("AudioVolumeMgr-2")
+                .adjustVolumeToCurrentPreset();
+        // queue the profile for the profile manager
+        return processProfile(builder, resultCallbacks);
+    }
+
+    // Creates the UI profile, makes it current and adjusts the volumes in a single submission
+    public ProfileRequest applyMaximumVolumeSetup(String audioProfileName, IResultCallbacks resultCallbacks)
+    {
+        AudioVolUIProfileBuilder builder = new AudioVolUIProfileBuilder("AudioVolumeMgr-3")
+                .setMuteVibrateState(3)
+                .setCurrentUIProfile(audioProfileName)
+                .createUIProfile(audioProfileName, AudioVolUIProfileBuilder.MAXIMUM_STREAM_LEVELS)
+                .adjustVolumeToCurrentPreset();
+        return submit(new ProfileRequest(builder.getProfileName(), builder.build(),
+                audioProfileName, AudioVolUIProfileBuilder.MAXIMUM_STREAM_LEVELS, false, resultCallbacks));
     }
 
-    private void processProfile()
+    /*
+        Writes the stream levels of a UI profile, submitting only the ones that differ from its state on
+        the device. The state is read with a GET request the first time, then kept up to date with the
+        levels written. Completes without a ProfileManager call when all the levels already match.
+     */
+    public ProfileRequest updateUIProfileLevels(String uiProfileName, Map<String, String> levels, IResultCallbacks resultCallbacks)
     {
+        return submit(new ProfileRequest("AudioVolumeMgr-4", "", uiProfileName, levels, true, resultCallbacks));
+    }
+
+    // All the characteristics of the builder are applied by one ProfileManager.processProfile() call
+    public ProfileRequest processProfile(AudioVolUIProfileBuilder builder, IResultCallbacks resultCallbacks)
+    {
+        return submit(new ProfileRequest(builder.getProfileName(), builder.build(), resultCallbacks));
+    }
+
+    /*
+        Completes the request at once when it is a cache hit and no other request is in flight (the
+        callbacks are then called on the calling thread). Otherwise processes the request right away
+        when the ProfileManager is bound, after the bind when it is not.
+     */
+    private ProfileRequest submit(ProfileRequest request)
+    {
+        synchronized (mLock) {
+            if (mReleased) {
+                Log.w(TAG, "Session released, request dropped: " + request);
+                return request;
+            }
+            if (mRequestsInFlight == 0 && !request.mCacheChecked) {
+                request.mCacheChecked = true;
+                if (mResultCache.isApplied(request.mProfileHash)) {
+                    request.mCached = true;
+                    request.mStartNanos = System.nanoTime();
+                }
+            }
+            if (!request.mCached)
+                mRequestsInFlight++;
+        }
+        if (request.mCached) {
+            onProfileExecutedWithSuccess(request, "");
+            return request;
+        }
+        return queueOrBind(request);
+    }
+
+    private ProfileRequest queueOrBind(ProfileRequest request)
+    {
+        synchronized (mLock) {
+            if (mReleased) {
+                mRequestsInFlight--;
+                return request;
+            }
+            if (mProfileManager != null) {
+                queueRequest(request);
+                return request;
+            }
+            request.mWaitedForBind = true;
+            mPendingRequests.add(request);
+            if (mBinding)
+                return request;
+            mBinding = true;
+        }
+        bindProfileManager();
+        return request;
+    }
+
+    // Called with mLock held
+    private void queueRequest(final ProfileRequest request)
+    {
+        try {
+            mProfileExecutor.execute(() -> processMXContent(request));
+        } catch (RejectedExecutionException e) {
+            mRequestsInFlight--;
+            Log.w(TAG, "Session released, request dropped: " + request);
+        }
+    }
+
+    private void bindProfileManager()
+    {
+        mBindStartNanos = System.nanoTime();
         if(mEMDKManager == null)
         {
             EMDKResults results = null;
             try
             {
                 //The EMDKManager object will be created and returned in the callback.
-                results = EMDKManager.getEMDKManager(mContext.getApplicationContext(), mEMDKListener);
+                results = EMDKManager.getEMDKManager(mContext, mEMDKListener);
             }
             catch(Exception e)
             {
                 logMessage("Error while requesting EMDKManager.\n" + e.getLocalizedMessage(), EMessageType.ERROR);
                 e.printStackTrace();
+                onBindFailed("Error while requesting EMDKManager: " + e.getLocalizedMessage());
                 return;
             }
 
@@ -240,6 +446,7 @@ public class EMDKUtils {
                 logMessage("EMDKManager request command issued with success", EMessageType.DEBUG);
             }else {
                 logMessage("EMDKManager request command error", EMessageType.ERROR);
+                onBindFailed("EMDKManager request command error: " + getResultCode(results.statusCode));
             }
         }
         else
@@ -248,8 +455,29 @@ public class EMDKUtils {
         }
     }
 
+    // Fails the requests waiting for the bind, the next request tries again
+    private void onBindFailed(String message)
+    {
+        ArrayList<ProfileRequest> failedRequests;
+        synchronized (mLock) {
+            mBinding = false;
+            failedRequests = new ArrayList<>(mPendingRequests);
+            mRequestsInFlight -= mPendingRequests.size();
+            mPendingRequests.clear();
+        }
+        for (ProfileRequest request : failedRequests) {
+            onProfileExecutedError(request, message, "");
+        }
+    }
+
     private void onEMDKManagerRetrieved(EMDKManager emdkManager)
     {
+        if(mReleased)
+        {
+            // The session was released while the bind was in progress
+            emdkManager.release();
+            return;
+        }
         mEMDKManager = emdkManager;
         logMessage("EMDK Manager retrieved.", EMessageType.DEBUG);
         if(mProfileManager == null)
@@ -269,9 +497,14 @@ public class EMDKUtils {
                     {
                         onProfileManagerInitialized(profileManager);
                     }
+                    else
+                    {
+                        onBindFailed("Could not retrieve ProfileManager synchronously.");
+                    }
                 }
             } catch (EMDKException e) {
                 logMessage("Error when trying to retrieve profile manager: " + e.getMessage(), EMessageType.ERROR);
+                onBindFailed("Error when trying to retrieve profile manager: " + e.getMessage());
             }
         }
         else
@@ -283,22 +516,64 @@ public class EMDKUtils {
 
     private void onProfileManagerInitialized(ProfileManager profileManager)
     {
-        mProfileManager = profileManager;
-        logMessage("Profile Manager retrieved.", EMessageType.DEBUG);
-        processMXContent();
+        synchronized (mLock) {
+            mProfileManager = profileManager;
+            mBinding = false;
+            logMessage("Profile Manager retrieved in " + (System.nanoTime() - mBindStartNanos) / 1000000 + " ms.", EMessageType.DEBUG);
+            while (!mPendingRequests.isEmpty()) {
+                queueRequest(mPendingRequests.poll());
+            }
+        }
     }
 
-    private void processMXContent()
+    // Runs on the profile thread
+    private void processMXContent(ProfileRequest request)
+    {
+        boolean requeued = false;
+        try {
+            if(mReleased)
+                return;
+            mCurrentRequest = request;
+            request.mStartNanos = System.nanoTime();
+            if(!request.mCacheChecked)
+            {
+                // Queued behind other requests, they are applied now
+                request.mCacheChecked = true;
+                if(mResultCache.isApplied(request.mProfileHash))
+                {
+                    request.mCached = true;
+                    onProfileExecutedWithSuccess(request, "");
+                    return;
+                }
+            }
+            requeued = !processMXContent(request, request.msProfileName, request.msProfileData);
+        } finally {
+            mCurrentRequest = null;
+            if(!requeued)
+            {
+                synchronized (mLock) {
+                    mRequestsInFlight--;
+                }
+            }
+        }
+    }
+
+    // Returns false when the request was queued again for a new bind
+    private boolean processMXContent(ProfileRequest request, String profileName, String profileData)
     {
         String[] params = new String[1];
-        params[0] = msProfileData;
+        params[0] = profileData;
+        // Status returned by the profile
+        String statusXMLResponse = "";
 
-        if(mProfileManager == null)
+        ProfileManager profileManager = mProfileManager;
+        if(profileManager == null)
         {
             logMessage("ProcessMXContent : Error : ProfileManager == null", EMessageType.ERROR);
-            if(mEMDKManager != null) {
+            EMDKManager emdkManager = mEMDKManager;
+            if(emdkManager != null) {
                 logMessage("ProcessMXContent : Trying to retrieve profileManager synchronously", EMessageType.ERROR);
-                ProfileManager profileManager = (ProfileManager) mEMDKManager.getInstance(EMDKManager.FEATURE_TYPE.PROFILE);
+                profileManager = (ProfileManager) emdkManager.getInstance(EMDKManager.FEATURE_TYPE.PROFILE);
                 if (profileManager != null) {
                     logMessage("ProcessMXContent, ProfileManager retrieved syncrhonously.", EMessageType.VERBOSE);
                     mProfileManager = profileManager;
@@ -306,158 +581,151 @@ public class EMDKUtils {
                 else
                 {
                     logMessage("ProcessMXContent : Error : Could not retrieve ProfileManager syncrhonously.", EMessageType.VERBOSE);
-                    onProfileExecutedError("ProcessMXContent : Error : Could not retrieve ProfileManager syncrhonously.");
-                    return;
+                    onProfileExecutedError(request, "ProcessMXContent : Error : Could not retrieve ProfileManager syncrhonously.", statusXMLResponse);
+                    return true;
                 }
             }
             else {
-                logMessage("ProcessMXContent : Error : mEMDKManager == null", EMessageType.ERROR);
-                onProfileExecutedError("ProcessMXContent : Error : mEMDKManager == null");
-                return;
+                // The EMDKManager was closed since the request was queued, bind it again
+                logMessage("ProcessMXContent : mEMDKManager == null, binding again", EMessageType.WARNING);
+                queueOrBind(request);
+                return false;
+            }
+        }
+
+        if(request.mDeltaOnly)
+        {
+            if(!prepareDeltaUpdate(profileManager, request))
+            {
+                logMessage("UI profile " + request.msUIProfileName + " already up to date", EMessageType.DEBUG);
+                onProfileExecutedWithSuccess(request, statusXMLResponse);
+                return true;
             }
+            params[0] = request.msProfileData;
         }
 
-        EMDKResults results = mProfileManager.processProfile(msProfileName, ProfileManager.PROFILE_FLAG.SET, params);
+        EMDKResults results = profileManager.processProfile(profileName, ProfileManager.PROFILE_FLAG.SET, params);
 
         //Check the return status of processProfile
         if(results.statusCode == EMDKResults.STATUS_CODE.CHECK_XML) {
 
             // Get XML response as a String
-            msStatusXMLResponse = results.getStatusString();
-
-            try {
-                // Empty Error Holder Array List if it already exists
-                mErrors.clear();
-
-                // Create instance of XML Pull Parser to parse the response
-                XmlPullParser parser = Xml.newPullParser();
-                // Provide the string response to the String Reader that reads
-                // for the parser
-                parser.setInput(new StringReader(msStatusXMLResponse));
-                // Call method to parse the response
-                parseXML(parser);
+            statusXMLResponse = results.getStatusString();
 
-                if ( mErrors.size() == 0 ) {
+            if ( mResultParser.parse(statusXMLResponse) == 0 ) {
 
-                    logMessage("Profile executed with success: " + msProfileName, EMessageType.SUCCESS);
-                    onProfileExecutedWithSuccess();
-                }
-                else {
-                    String errorMessage = "";
-                    for(ErrorHolder error : mErrors)
-                    {
-                        errorMessage += "Profile processing error.\t" + "Type:" + error.sErrorType + "\tParamName:" + error.sParmName + "\tDescription:" + error.sErrorDescription;
-                    }
-                    logMessage(errorMessage, EMessageType.ERROR);
-                    onProfileExecutedError(errorMessage);
-                    return;
-                }
-
-            } catch (XmlPullParserException e) {
-                String errorMessage = "Error while trying to parse ProfileManager XML Response: " + e.getLocalizedMessage();
+                logMessage("Profile executed with success: " + profileName, EMessageType.SUCCESS);
+                onProfileExecutedWithSuccess(request, statusXMLResponse);
+            }
+            else {
+                String errorMessage = mResultParser.appendErrors(new StringBuilder()).toString();
                 logMessage(errorMessage, EMessageType.ERROR);
-                onProfileExecutedError(errorMessage);
-                return;
+                onProfileExecutedError(request, errorMessage, statusXMLResponse);
             }
+            return true;
         }
         else if(results.statusCode == EMDKResults.STATUS_CODE.SUCCESS)
         {
-            logMessage("Profile executed with success: " + msProfileName, EMessageType.DEBUG);
-            onProfileExecutedWithSuccess();
-            return;
+            logMessage("Profile executed with success: " + profileName, EMessageType.DEBUG);
+            onProfileExecutedWithSuccess(request, statusXMLResponse);
+            return true;
         }
         else
         {
-            String errorMessage = "Profile update failed." + getResultCode(results.statusCode) + "\nProfil:\n" + msProfileName;
+            String errorMessage = "Profile update failed." + getResultCode(results.statusCode) + "\nProfil:\n" + profileName;
             logMessage(errorMessage, EMessageType.ERROR);
-            onProfileExecutedError(errorMessage);
-            return;
+            onProfileExecutedError(request, errorMessage, statusXMLResponse);
+            return true;
         }
     }
 
-    private void onProfileExecutedWithSuccess()
+    /*
+        Reads the UI profile when its state is unknown and keeps the changed levels in the request,
+        returns false when there is nothing to submit.
+     */
+    private boolean prepareDeltaUpdate(ProfileManager profileManager, ProfileRequest request)
     {
-        cleanUp();
-        if(mIResultCallbacks != null)
+        if(!mUIState.isKnown(request.msUIProfileName))
         {
-            mIResultCallbacks.onSuccess("Success applying profile:" + msProfileName + "\nProfileData:" + msProfileData, msStatusXMLResponse);
+            long startTime = System.nanoTime();
+            String[] params = new String[] { AudioVolUIProfileBuilder.buildQuery("AudioVolumeMgr-Query") };
+            EMDKResults results = profileManager.processProfile("AudioVolumeMgr-Query", ProfileManager.PROFILE_FLAG.GET, params);
+            String statusXML = results.getStatusString();
+            Map<String, String> knownLevels = statusXML == null ? null : AudioVolUIState.parseStreamLevels(statusXML, request.msUIProfileName);
+            if(knownLevels != null)
+            {
+                mUIState.set(request.msUIProfileName, knownLevels);
+                logMessage("UI profile " + request.msUIProfileName + " read in " + (System.nanoTime() - startTime) / 1000000 + " ms", EMessageType.DEBUG);
+            }
+            else
+            {
+                logMessage("UI profile " + request.msUIProfileName + " state not available (" + getResultCode(results.statusCode) + "), all levels submitted", EMessageType.WARNING);
+            }
         }
 
+        Map<String, String> changedLevels = mUIState.getChangedLevels(request.msUIProfileName, request.mLevels);
+        request.mSkippedParameters = request.mRequestedParameters - changedLevels.size();
+        request.mLevels = changedLevels;
+        if(changedLevels.isEmpty())
+            return false;
+        request.msProfileData = new AudioVolUIProfileBuilder(request.msProfileName)
+                .createUIProfile(request.msUIProfileName, changedLevels)
+                .build();
+        return true;
     }
 
-    private void onProfileExecutedError(String message)
+    private void onProfileExecutedWithSuccess(ProfileRequest request, String statusXMLResponse)
     {
-        cleanUp();
-        if(mIResultCallbacks != null)
+        if(request.mDeltaOnly)
         {
-            mIResultCallbacks.onError("Error on profile: " + msProfileName + "\nError:" + message + "\nProfileData:" + msProfileData, msStatusXMLResponse);
+            // Another profile than the cached one was applied, unless all the levels were skipped
+            if(!request.mLevels.isEmpty())
+                mResultCache.invalidate();
+        }
+        else if(!request.mCached)
+        {
+            mResultCache.onApplied(request.mProfileHash);
+        }
+        if(request.msUIProfileName != null && !request.mCached)
+            mUIState.merge(request.msUIProfileName, request.mLevels);
+        request.mEndNanos = System.nanoTime();
+        Log.d(TAG, "Profile request done: " + request);
+        if(request.mIResultCallbacks != null)
+        {
+            request.mIResultCallbacks.onSuccess("Success applying profile:" + request.msProfileName + "\nProfileData:" + request.msProfileData, statusXMLResponse);
         }
 
     }
 
-    private void onProfileExecutedStatusChanged(String message)
+    private void onProfileExecutedError(ProfileRequest request, String message, String statusXMLResponse)
     {
-        if(mIResultCallbacks != null)
+        // The profile may have been partly applied
+        mResultCache.invalidate();
+        mUIState.invalidate();
+        request.mEndNanos = System.nanoTime();
+        Log.d(TAG, "Profile request failed: " + request);
+        if(request.mIResultCallbacks != null)
         {
-            mIResultCallbacks.onDebugStatus(message);
+            request.mIResultCallbacks.onError("Error on profile: " + request.msProfileName + "\nError:" + message + "\nProfileData:" + request.msProfileData, statusXMLResponse);
         }
-    }
 
-    // Method to parse the XML response using XML Pull Parser
-    private void parseXML(XmlPullParser myParser) {
-        int event;
-        try {
-            // Retrieve error details if parm-error/characteristic-error in the response XML
-            event = myParser.getEventType();
-            // An object that will store a temporary error holder if an error characteristic is found
-           ErrorHolder tempErrorHolder = null;
-            //logMessage("XML document", EMessageType.VERBOSE);
-            while (event != XmlPullParser.END_DOCUMENT) {
-                String name = myParser.getName();
-                switch (event) {
-                    case XmlPullParser.START_TAG:
-                        //logMessage("XML Element:<" + myParser.getText()+">", EMessageType.VERBOSE);
-                        if (name.equals("characteristic-error"))
-                        {
-                            if(tempErrorHolder == null)
-                                tempErrorHolder = new ErrorHolder();
-                            tempErrorHolder.sErrorType = myParser.getAttributeValue(null, "type");
-                            if(tempErrorHolder.sParmName != null && TextUtils.isEmpty(tempErrorHolder.sParmName) == false)
-                            {
-                                msErrorString += "Nom: " + tempErrorHolder.sParmName + "\nType: " + tempErrorHolder.sErrorType + "\nDescription: " + tempErrorHolder.sErrorDescription + ")";
-                                mErrors.add(tempErrorHolder);
-                                tempErrorHolder = null;
-                            }
-                        }
-                        else if (name.equals("parm-error"))
-                        {
-                            if(tempErrorHolder == null)
-                                tempErrorHolder = new ErrorHolder();
-                            tempErrorHolder.sParmName = myParser.getAttributeValue(null, "name");
-                            tempErrorHolder.sErrorDescription = myParser.getAttributeValue(null, "desc");
-                            if(tempErrorHolder.sErrorType != null && TextUtils.isEmpty(tempErrorHolder.sErrorType) == false)
-                            {
-                                msErrorString += "Nom: " + tempErrorHolder.sParmName + "\nType: " + tempErrorHolder.sErrorType + "\nDescription: " + tempErrorHolder.sErrorDescription + ")";
-                                mErrors.add(tempErrorHolder);
-                                tempErrorHolder = null;
-                            }
-                        }
-                        break;
-                    case XmlPullParser.END_TAG:
-                        //logMessage("XML Element:<//" + myParser.getText()+">", EMessageType.VERBOSE);
-                        break;
-                }
-                event = myParser.next();
-            }
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    private void onProfileExecutedStatusChanged(String message)
+    {
+        ProfileRequest request = mCurrentRequest;
+        if(request != null && request.mIResultCallbacks != null)
+        {
+            request.mIResultCallbacks.onDebugStatus(message);
         }
     }
 
+    // The next request binds again
     private void onEMDKManagerClosed()
     {
-        cleanUp();
+        synchronized (mLock) {
+            cleanUp();
+        }
     }
 
     private void cleanUp()
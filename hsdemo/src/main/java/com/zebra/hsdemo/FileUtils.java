@@ -1,19 +1,25 @@
 package com.zebra.hsdemo;
 
-import android.content.Context;
-import android.net.Uri;
-import androidx.core.content.FileProvider;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 public class FileUtils {
 
+    // Small files only, recordings are read through a MappedPcmReader or a PcmFileReader
     public static byte[] readFileToByteArray(File file) throws IOException {
-        byte[] data = new byte[(int) file.length()];
+        long size = file.length();
+        if (size > Integer.MAX_VALUE - 8)
+            throw new IOException(file.getPath() + " is too large to be read in memory (" + size + " bytes)");
+        byte[] data = new byte[(int) size];
         try (FileInputStream fis = new FileInputStream(file)) {
-            fis.read(data);
+            int offset = 0;
+            int read;
+            while (offset < data.length && (read = fis.read(data, offset, data.length - offset)) >= 0) {
+                offset += read;
+            }
+            if (offset < data.length)
+                throw new IOException("Unexpected end of " + file.getPath());
         }
         return data;
     }
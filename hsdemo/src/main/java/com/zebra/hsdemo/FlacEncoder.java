@@ -0,0 +1,612 @@
+package com.zebra.hsdemo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/*
+    Streaming FLAC encoder for 16 bits PCM, pure Java.
+    The samples are read in blocks of DEFAULT_BLOCK_SIZE frames. For each channel of a block the
+    encoder picks the smallest of a constant, verbatim, fixed (order 0 to 4) or LPC (order 1 to
+    MAX_LPC_ORDER) subframe, the residuals are Rice coded with partitioned parameters. Frames end
+    with their CRC-16, frame headers with their CRC-8. The STREAMINFO block (sample count, frame
+    sizes, MD5) is patched at the end like the WAV header, so the output channel must be seekable.
+    All the work buffers are allocated once per encode call.
+ */
+public class FlacEncoder {
+
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    public static final int MAX_LPC_ORDER = 8;
+
+    // Precision of the quantized LPC coefficients
+    private static final int LPC_PRECISION = 12;
+    private static final int MAX_FIXED_ORDER = 4;
+    private static final int MAX_PARTITION_ORDER = 8;
+    // Largest Rice parameter of the 4 bits parameter coding method
+    private static final int MAX_RICE_PARAMETER = 14;
+
+    private static final int BITS_PER_SAMPLE = 16;
+    private static final int STREAMINFO_SIZE = 4 + 4 + 34;
+
+    private static final int[] CRC8_TABLE = new int[256];
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc8 = i;
+            int crc16 = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc8 = (crc8 & 0x80) != 0 ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+                crc16 = (crc16 & 0x8000) != 0 ? (crc16 << 1) ^ 0x8005 : crc16 << 1;
+            }
+            CRC8_TABLE[i] = crc8 & 0xFF;
+            CRC16_TABLE[i] = crc16 & 0xFFFF;
+        }
+    }
+
+    public static WavEncoder.Result encode(File pcmFile, long dataOffset, File flacFile, int sampleRate, int channels, int bitDepth, float gain) throws IOException {
+        try (PcmFileReader in = PcmFileReader.open(pcmFile, dataOffset);
+             RandomAccessFile raf = new RandomAccessFile(flacFile, "rw")) {
+            raf.setLength(0);
+            return encode(in, raf.getChannel(), sampleRate, channels, bitDepth, gain, DEFAULT_BLOCK_SIZE);
+        }
+    }
+
+    /*
+        Encode the remaining content of the in channel (16 bits little endian PCM) as a FLAC stream
+        starting at the current position of the out channel. The result reports the PCM bytes read.
+     */
+    public static WavEncoder.Result encode(ReadableByteChannel in, FileChannel out, int sampleRate, int channels, int bitDepth, float gain, int blockSize) throws IOException {
+        if (bitDepth != BITS_PER_SAMPLE)
+            throw new IllegalArgumentException("Only 16 bits PCM can be encoded to FLAC");
+        if (channels < 1 || channels > 8)
+            throw new IllegalArgumentException("Unsupported channel count " + channels);
+        long startTime = System.nanoTime();
+        blockSize = Math.max(16, Math.min(blockSize, 65535));
+
+        long headerPosition = out.position();
+        writeFully(out, createStreamInfo(sampleRate, channels, blockSize, 0, 0, 0, new byte[16]));
+
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        int frameSize = channels * 2;
+        ByteBuffer block = ByteBuffer.allocate(blockSize * frameSize);
+        int gainQ15 = PcmGain.toQ15(gain);
+        Encoder encoder = new Encoder(blockSize, channels);
+        ByteBuffer frame = ByteBuffer.wrap(encoder.mWriter.mBuffer);
+
+        long frameNumber = 0;
+        long totalSamples = 0;
+        int minFrameSize = Integer.MAX_VALUE;
+        int maxFrameSize = 0;
+        int read;
+        while ((read = readBlock(in, block)) > 0) {
+            int length = read - (read % frameSize);
+            if (length == 0)
+                break;
+            PcmGain.applyGainQ15(block.array(), 0, length, gainQ15);
+            md5.update(block.array(), 0, length);
+
+            int frameLength = encoder.encodeFrame(block.array(), length / frameSize, frameNumber++);
+            frame.clear();
+            frame.limit(frameLength);
+            writeFully(out, frame);
+            minFrameSize = Math.min(minFrameSize, frameLength);
+            maxFrameSize = Math.max(maxFrameSize, frameLength);
+            totalSamples += length / frameSize;
+        }
+
+        long endPosition = out.position();
+        out.position(headerPosition);
+        writeFully(out, createStreamInfo(sampleRate, channels, blockSize, totalSamples, frameNumber > 0 ? minFrameSize : 0, maxFrameSize, md5.digest()));
+        out.position(endPosition);
+
+        return new WavEncoder.Result(totalSamples * frameSize, System.nanoTime() - startTime);
+    }
+
+    // "fLaC" marker followed by the STREAMINFO metadata block (the only and last one)
+    static ByteBuffer createStreamInfo(int sampleRate, int channels, int blockSize, long totalSamples, int minFrameSize, int maxFrameSize, byte[] md5) {
+        ByteBuffer header = ByteBuffer.allocate(STREAMINFO_SIZE);
+        header.put(new byte[] {'f', 'L', 'a', 'C'});
+        header.putInt(0x80000000 | 34);                      // Last metadata block, STREAMINFO, length
+        header.putShort((short) blockSize);                   // Min block size
+        header.putShort((short) blockSize);                   // Max block size
+        putInt24(header, minFrameSize);
+        putInt24(header, maxFrameSize);
+        // Sample rate (20 bits), channels - 1 (3 bits), bits per sample - 1 (5 bits), total samples (36 bits)
+        long packed = ((long) sampleRate << 44) | ((long) (channels - 1) << 41) | ((long) (BITS_PER_SAMPLE - 1) << 36)
+                | (Math.min(totalSamples, 0xFFFFFFFFFL));
+        header.putLong(packed);
+        header.put(md5, 0, 16);
+        header.flip();
+        return header;
+    }
+
+    private static void putInt24(ByteBuffer buffer, int value) {
+        buffer.put((byte) (value >> 16));
+        buffer.put((byte) (value >> 8));
+        buffer.put((byte) value);
+    }
+
+    // Per stream state: sample, residual and analysis buffers
+    private static class Encoder
+    {
+        private final int mChannels;
+        private final int[][] mSamples;
+        private final int[] mResidual;
+        private final int[] mBestResidual;
+        private final double[] mWindowed;
+        private final double[] mWindow;
+        private final double[] mAutocorrelation = new double[MAX_LPC_ORDER + 1];
+        private final double[][] mLpc = new double[MAX_LPC_ORDER][MAX_LPC_ORDER];
+        private final double[] mLpcWork = new double[MAX_LPC_ORDER];
+        private final int[] mQuantized = new int[MAX_LPC_ORDER];
+        private final int[] mBestQuantized = new int[MAX_LPC_ORDER];
+        private final long[] mPartitionSums = new long[1 << MAX_PARTITION_ORDER];
+        private final int[] mRiceParameters = new int[1 << MAX_PARTITION_ORDER];
+        private final int[] mBestRiceParameters = new int[1 << MAX_PARTITION_ORDER];
+        private final BitWriter mWriter;
+
+        // Description of the best subframe found by the analysis
+        private int mBestPartitionOrder;
+        private int mPartitionOrder;
+
+        Encoder(int blockSize, int channels)
+        {
+            mChannels = channels;
+            mSamples = new int[channels][blockSize];
+            mResidual = new int[blockSize];
+            mBestResidual = new int[blockSize];
+            mWindowed = new double[blockSize];
+            mWindow = new double[blockSize];
+            // Welch window
+            for (int i = 0; i < blockSize; i++) {
+                double x = (2.0 * i - (blockSize - 1)) / (blockSize + 1);
+                mWindow[i] = 1.0 - x * x;
+            }
+            // Frame header (at most 16 bytes), verbatim subframes and CRC
+            mWriter = new BitWriter(16 + channels * (blockSize * 2 + 8) + 2);
+        }
+
+        // Encode count frames of little endian interleaved samples, returns the frame size in bytes
+        int encodeFrame(byte[] pcm, int count, long frameNumber)
+        {
+            for (int i = 0; i < count; i++) {
+                for (int c = 0; c < mChannels; c++) {
+                    int p = (i * mChannels + c) * 2;
+                    mSamples[c][i] = (short) ((pcm[p] & 0xFF) | (pcm[p + 1] << 8));
+                }
+            }
+
+            BitWriter writer = mWriter;
+            writer.reset();
+            writer.write(0xFFF8, 16);                           // Sync code, fixed block size stream
+            writer.write(0x7, 4);                               // Block size stored at the end of the header (16 bits)
+            writer.write(0x0, 4);                               // Sample rate from STREAMINFO
+            writer.write(mChannels - 1, 4);                     // Independent channels
+            writer.write(0x4, 3);                               // 16 bits per sample
+            writer.write(0, 1);
+            writeUtf8(writer, frameNumber);
+            writer.write(count - 1, 16);
+            writer.write(crc8(writer.mBuffer, writer.getByteCount()), 8);
+
+            for (int c = 0; c < mChannels; c++) {
+                encodeSubframe(mSamples[c], count);
+            }
+
+            writer.alignToByte();
+            int crc = crc16(writer.mBuffer, writer.getByteCount());
+            writer.write(crc, 16);
+            return writer.getByteCount();
+        }
+
+        private void encodeSubframe(int[] samples, int count)
+        {
+            BitWriter writer = mWriter;
+            boolean constant = true;
+            for (int i = 1; i < count && constant; i++) {
+                constant = samples[i] == samples[0];
+            }
+            if (constant) {
+                writer.write(0, 8);                             // CONSTANT
+                writer.write(samples[0], BITS_PER_SAMPLE);
+                return;
+            }
+
+            long bestBits = (long) count * BITS_PER_SAMPLE;
+            int bestType = -1;                                  // Verbatim
+            int bestOrder = 0;
+            int bestShift = 0;
+
+            // Fixed predictors
+            for (int order = 0; order <= MAX_FIXED_ORDER && order < count; order++) {
+                computeFixedResidual(samples, count, order);
+                long bits = (long) order * BITS_PER_SAMPLE + estimateResidualBits(count, order);
+                if (bits < bestBits) {
+                    bestBits = bits;
+                    bestType = 0;
+                    bestOrder = order;
+                    keepBest();
+                }
+            }
+
+            // LPC predictors
+            int maxLpcOrder = Math.min(MAX_LPC_ORDER, count - 1);
+            int lpcOrders = computeLpc(samples, count, maxLpcOrder);
+            for (int order = 1; order <= lpcOrders; order++) {
+                int shift = quantizeLpc(mLpc[order - 1], order);
+                if (shift < 0)
+                    continue;
+                computeLpcResidual(samples, count, order, shift);
+                long bits = (long) order * BITS_PER_SAMPLE + 4 + 5 + (long) order * LPC_PRECISION + estimateResidualBits(count, order);
+                if (bits < bestBits) {
+                    bestBits = bits;
+                    bestType = 1;
+                    bestOrder = order;
+                    bestShift = shift;
+                    System.arraycopy(mQuantized, 0, mBestQuantized, 0, order);
+                    keepBest();
+                }
+            }
+
+            if (bestType < 0) {
+                writer.write(1 << 1, 8);                        // VERBATIM
+                for (int i = 0; i < count; i++) {
+                    writer.write(samples[i], BITS_PER_SAMPLE);
+                }
+                return;
+            }
+
+            if (bestType == 0) {
+                writer.write((0x08 | bestOrder) << 1, 8);       // FIXED
+            } else {
+                writer.write((0x20 | (bestOrder - 1)) << 1, 8); // LPC
+            }
+            for (int i = 0; i < bestOrder; i++) {
+                writer.write(samples[i], BITS_PER_SAMPLE);
+            }
+            if (bestType == 1) {
+                writer.write(LPC_PRECISION - 1, 4);
+                writer.write(bestShift, 5);
+                for (int i = 0; i < bestOrder; i++) {
+                    writer.write(mBestQuantized[i], LPC_PRECISION);
+                }
+            }
+            writeResidual(count, bestOrder);
+        }
+
+        private void keepBest()
+        {
+            System.arraycopy(mResidual, 0, mBestResidual, 0, mResidual.length);
+            System.arraycopy(mRiceParameters, 0, mBestRiceParameters, 0, 1 << mPartitionOrder);
+            mBestPartitionOrder = mPartitionOrder;
+        }
+
+        private void computeFixedResidual(int[] x, int count, int order)
+        {
+            int[] r = mResidual;
+            switch (order) {
+                case 0:
+                    System.arraycopy(x, 0, r, 0, count);
+                    break;
+                case 1:
+                    for (int i = 1; i < count; i++) r[i] = x[i] - x[i - 1];
+                    break;
+                case 2:
+                    for (int i = 2; i < count; i++) r[i] = x[i] - 2 * x[i - 1] + x[i - 2];
+                    break;
+                case 3:
+                    for (int i = 3; i < count; i++) r[i] = x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3];
+                    break;
+                default:
+                    for (int i = 4; i < count; i++) r[i] = x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4];
+                    break;
+            }
+        }
+
+        // Windowed autocorrelation and Levinson-Durbin recursion, returns the number of usable orders
+        private int computeLpc(int[] x, int count, int maxOrder)
+        {
+            if (maxOrder <= 0)
+                return 0;
+            // The window is computed for full blocks, the last block of a stream is not windowed
+            boolean windowed = count == mWindow.length;
+            for (int i = 0; i < count; i++) {
+                mWindowed[i] = windowed ? x[i] * mWindow[i] : x[i];
+            }
+            for (int lag = 0; lag <= maxOrder; lag++) {
+                double sum = 0;
+                for (int i = lag; i < count; i++) {
+                    sum += mWindowed[i] * mWindowed[i - lag];
+                }
+                mAutocorrelation[lag] = sum;
+            }
+            if (mAutocorrelation[0] == 0)
+                return 0;
+
+            double error = mAutocorrelation[0];
+            double[] a = mLpcWork;
+            for (int i = 0; i < maxOrder; i++) {
+                double r = -mAutocorrelation[i + 1];
+                for (int j = 0; j < i; j++) {
+                    r -= a[j] * mAutocorrelation[i - j];
+                }
+                r /= error;
+                a[i] = r;
+                int j;
+                for (j = 0; j < (i >> 1); j++) {
+                    double tmp = a[j];
+                    a[j] += r * a[i - 1 - j];
+                    a[i - 1 - j] += r * tmp;
+                }
+                if ((i & 1) != 0)
+                    a[j] += a[j] * r;
+                error *= 1.0 - r * r;
+                for (j = 0; j <= i; j++) {
+                    mLpc[i][j] = -a[j];
+                }
+                if (error <= 0)
+                    return i + 1;
+            }
+            return maxOrder;
+        }
+
+        // Quantize the coefficients with error feedback, returns the shift or -1 when they can't be represented
+        private int quantizeLpc(double[] lpc, int order)
+        {
+            double max = 0;
+            for (int i = 0; i < order; i++) {
+                max = Math.max(max, Math.abs(lpc[i]));
+            }
+            if (max <= 0 || Double.isNaN(max) || Double.isInfinite(max))
+                return -1;
+            int shift = LPC_PRECISION - 2 - Math.getExponent(max);
+            if (shift > 15)
+                shift = 15;
+            if (shift < 0)
+                return -1;
+            int qmax = (1 << (LPC_PRECISION - 1)) - 1;
+            int qmin = -(1 << (LPC_PRECISION - 1));
+            double error = 0;
+            for (int i = 0; i < order; i++) {
+                error += lpc[i] * (1 << shift);
+                long q = Math.round(error);
+                if (q > qmax)
+                    q = qmax;
+                else if (q < qmin)
+                    q = qmin;
+                error -= q;
+                mQuantized[i] = (int) q;
+            }
+            return shift;
+        }
+
+        private void computeLpcResidual(int[] x, int count, int order, int shift)
+        {
+            int[] q = mQuantized;
+            for (int i = order; i < count; i++) {
+                long sum = 0;
+                for (int j = 0; j < order; j++) {
+                    sum += (long) q[j] * x[i - 1 - j];
+                }
+                mResidual[i] = x[i] - (int) (sum >> shift);
+            }
+        }
+
+        /*
+            Pick the partition order and the Rice parameters of the residual (from index order),
+            returns the exact number of bits of the coded residual.
+         */
+        private long estimateResidualBits(int count, int order)
+        {
+            int maxPartitionOrder = 0;
+            while (maxPartitionOrder < MAX_PARTITION_ORDER
+                    && (count % (2 << maxPartitionOrder)) == 0
+                    && (count >> (maxPartitionOrder + 1)) > order) {
+                maxPartitionOrder++;
+            }
+
+            // Sums of the zigzag coded residuals for the finest partitions
+            int partitions = 1 << maxPartitionOrder;
+            int partitionSize = count >> maxPartitionOrder;
+            int i = order;
+            for (int p = 0; p < partitions; p++) {
+                int end = (p + 1) * partitionSize;
+                long sum = 0;
+                for (; i < end; i++) {
+                    int r = mResidual[i];
+                    sum += (r << 1) ^ (r >> 31);
+                }
+                mPartitionSums[p] = sum;
+            }
+
+            long bestBits = Long.MAX_VALUE;
+            int bestPartitionOrder = maxPartitionOrder;
+            for (int partitionOrder = maxPartitionOrder; partitionOrder >= 0; partitionOrder--) {
+                int n = 1 << partitionOrder;
+                long bits = 2 + 4;
+                for (int p = 0; p < n; p++) {
+                    int samples = (count >> partitionOrder) - (p == 0 ? order : 0);
+                    bits += 4 + riceBits(mPartitionSums[p], samples, riceParameter(mPartitionSums[p], samples));
+                }
+                if (bits <= bestBits) {
+                    bestBits = bits;
+                    bestPartitionOrder = partitionOrder;
+                }
+                // Merge the sums for the next coarser order
+                for (int p = 0; p < n / 2; p++) {
+                    mPartitionSums[p] = mPartitionSums[2 * p] + mPartitionSums[2 * p + 1];
+                }
+            }
+
+            // Exact size with the chosen parameters
+            mPartitionOrder = bestPartitionOrder;
+            int n = 1 << bestPartitionOrder;
+            partitionSize = count >> bestPartitionOrder;
+            long bits = 2 + 4;
+            i = order;
+            for (int p = 0; p < n; p++) {
+                int start = i;
+                int end = (p + 1) * partitionSize;
+                long sum = 0;
+                for (int j = start; j < end; j++) {
+                    int r = mResidual[j];
+                    sum += (r << 1) ^ (r >> 31);
+                }
+                int k = riceParameter(sum, end - start);
+                mRiceParameters[p] = k;
+                bits += 4 + (long) (end - start) * (k + 1);
+                for (; i < end; i++) {
+                    int r = mResidual[i];
+                    bits += ((r << 1) ^ (r >> 31)) >>> k;
+                }
+            }
+            return bits;
+        }
+
+        private void writeResidual(int count, int order)
+        {
+            BitWriter writer = mWriter;
+            writer.write(0, 2);                                 // Rice coding, 4 bits parameters
+            writer.write(mBestPartitionOrder, 4);
+            int n = 1 << mBestPartitionOrder;
+            int partitionSize = count >> mBestPartitionOrder;
+            int i = order;
+            for (int p = 0; p < n; p++) {
+                int k = mBestRiceParameters[p];
+                writer.write(k, 4);
+                int end = (p + 1) * partitionSize;
+                for (; i < end; i++) {
+                    int r = mBestResidual[i];
+                    writer.writeRice((r << 1) ^ (r >> 31), k);
+                }
+            }
+        }
+    }
+
+    private static int riceParameter(long sum, int count) {
+        if (count <= 0 || sum <= count)
+            return 0;
+        int k = 63 - Long.numberOfLeadingZeros(sum / count);
+        return Math.min(k, MAX_RICE_PARAMETER);
+    }
+
+    // Estimated size of a partition, sum >> k approximates the sum of the quotients
+    private static long riceBits(long sum, int count, int k) {
+        return (long) count * (k + 1) + (sum >> k);
+    }
+
+    private static void writeUtf8(BitWriter writer, long value) {
+        if (value < 0x80) {
+            writer.write((int) value, 8);
+            return;
+        }
+        int bytes = value < 0x800 ? 2 : value < 0x10000 ? 3 : value < 0x200000 ? 4 : value < 0x4000000 ? 5 : 6;
+        int shift = (bytes - 1) * 6;
+        writer.write(((0xFF00 >> bytes) & 0xFF) | (int) (value >>> shift), 8);
+        while (shift > 0) {
+            shift -= 6;
+            writer.write(0x80 | (int) ((value >>> shift) & 0x3F), 8);
+        }
+    }
+
+    static int crc8(byte[] data, int length) {
+        int crc = 0;
+        for (int i = 0; i < length; i++) {
+            crc = CRC8_TABLE[(crc ^ data[i]) & 0xFF];
+        }
+        return crc;
+    }
+
+    static int crc16(byte[] data, int length) {
+        int crc = 0;
+        for (int i = 0; i < length; i++) {
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+
+    // MSB first bit writer over a fixed buffer sized for the largest frame
+    private static class BitWriter
+    {
+        private final byte[] mBuffer;
+        private int mPosition = 0;
+        private long mAccumulator = 0;
+        private int mBits = 0;
+
+        BitWriter(int size)
+        {
+            mBuffer = new byte[size];
+        }
+
+        void reset()
+        {
+            mPosition = 0;
+            mAccumulator = 0;
+            mBits = 0;
+        }
+
+        // Write the count (at most 32) low bits of value
+        void write(int value, int count)
+        {
+            if (count == 0)
+                return;
+            mAccumulator = (mAccumulator << count) | (value & (0xFFFFFFFFL >>> (32 - count)));
+            mBits += count;
+            while (mBits >= 8) {
+                mBits -= 8;
+                mBuffer[mPosition++] = (byte) (mAccumulator >>> mBits);
+            }
+        }
+
+        void writeRice(int value, int k)
+        {
+            int quotient = value >>> k;
+            while (quotient >= 32) {
+                write(0, 32);
+                quotient -= 32;
+            }
+            write(1, quotient + 1);
+            write(value, k);
+        }
+
+        void alignToByte()
+        {
+            if (mBits > 0)
+                write(0, 8 - mBits);
+        }
+
+        // Bytes completely written
+        int getByteCount()
+        {
+            return mPosition;
+        }
+    }
+
+    // Read until the block is full or the end of the channel is reached
+    private static int readBlock(ReadableByteChannel in, ByteBuffer block) throws IOException {
+        block.clear();
+        while (block.hasRemaining()) {
+            if (in.read(block) < 0)
+                break;
+        }
+        block.flip();
+        return block.limit();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.zebra.hsdemo;
+
+/*
+    G.711 mu-law and A-law codecs for 16 bits little endian PCM.
+    Encoding is a few shifts per sample, decoding is a table lookup. None of the methods allocate.
+ */
+public class G711 {
+
+    private static final int MU_LAW_BIAS = 0x84;
+    private static final int MU_LAW_CLIP = 32635;
+
+    private static final short[] MU_LAW_DECODE = new short[256];
+    private static final short[] A_LAW_DECODE = new short[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            MU_LAW_DECODE[i] = muLawToLinear(i);
+            A_LAW_DECODE[i] = aLawToLinear(i);
+        }
+    }
+
+    public static byte linearToMuLaw(int sample) {
+        int sign = 0;
+        if (sample < 0) {
+            sign = 0x80;
+            sample = -sample;
+        }
+        if (sample > MU_LAW_CLIP)
+            sample = MU_LAW_CLIP;
+        sample += MU_LAW_BIAS;
+        // Position of the highest bit above bit 7 (sample >= 0x84)
+        int exponent = 24 - Integer.numberOfLeadingZeros(sample);
+        int mantissa = (sample >> (exponent + 3)) & 0x0F;
+        return (byte) ~(sign | (exponent << 4) | mantissa);
+    }
+
+    public static byte linearToALaw(int sample) {
+        int value = sample >> 3;
+        int mask;
+        if (value >= 0) {
+            mask = 0xD5;
+        } else {
+            mask = 0x55;
+            value = -value - 1;
+        }
+        // Segment: number of bits above the 5 first ones
+        int segment = Math.max(0, 27 - Integer.numberOfLeadingZeros(value | 1));
+        if (segment >= 8)
+            return (byte) (0x7F ^ mask);
+        int code = segment << 4;
+        code |= segment < 2 ? (value >> 1) & 0x0F : (value >> segment) & 0x0F;
+        return (byte) (code ^ mask);
+    }
+
+    public static short decodeMuLaw(byte code) {
+        return MU_LAW_DECODE[code & 0xFF];
+    }
+
+    public static short decodeALaw(byte code) {
+        return A_LAW_DECODE[code & 0xFF];
+    }
+
+    // Encode count little endian samples of pcm (from pcmOffset) into count bytes of out
+    public static void encode(boolean aLaw, byte[] pcm, int pcmOffset, byte[] out, int outOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            int p = pcmOffset + 2 * i;
+            int sample = (short) ((pcm[p] & 0xFF) | (pcm[p + 1] << 8));
+            out[outOffset + i] = aLaw ? linearToALaw(sample) : linearToMuLaw(sample);
+        }
+    }
+
+    // Decode count bytes of in into count little endian samples of pcm
+    public static void decode(boolean aLaw, byte[] in, int inOffset, byte[] pcm, int pcmOffset, int count) {
+        short[] table = aLaw ? A_LAW_DECODE : MU_LAW_DECODE;
+        for (int i = 0; i < count; i++) {
+            short sample = table[in[inOffset + i] & 0xFF];
+            int p = pcmOffset + 2 * i;
+            pcm[p] = (byte) sample;
+            pcm[p + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    private static short muLawToLinear(int code) {
+        code = ~code;
+        int t = ((code & 0x0F) << 3) + MU_LAW_BIAS;
+        t <<= (code & 0x70) >> 4;
+        return (short) ((code & 0x80) != 0 ? MU_LAW_BIAS - t : t - MU_LAW_BIAS);
+    }
+
+    private static short aLawToLinear(int code) {
+        code ^= 0x55;
+        int t = (code & 0x0F) << 4;
+        int segment = (code & 0x70) >> 4;
+        if (segment == 0) {
+            t += 8;
+        } else {
+            t += 0x108;
+            if (segment > 1)
+                t <<= segment - 1;
+        }
+        return (short) ((code & 0x80) != 0 ? t : -t);
+    }
+}
@@ -0,0 +1,161 @@
+package com.zebra.hsdemo;
+
+/*
+    IMA-ADPCM codec using the block layout of WAV files (format tag 0x11), mono only.
+    Each block starts with a 4 bytes header (first sample as is, step index) followed by the
+    other samples packed as 4 bits codes, low nibble first. The step index is carried from one
+    block to the next by the Encoder. None of the methods allocate.
+ */
+public class ImaAdpcm {
+
+    public static final int BLOCK_HEADER_SIZE = 4;
+
+    private static final int[] INDEX_TABLE = {
+            -1, -1, -1, -1, 2, 4, 6, 8,
+            -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17,
+            19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118,
+            130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796,
+            876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+            2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358,
+            5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+            15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    // Usual block sizes: 256 bytes up to 11 kHz, doubled for each multiple of 11 kHz
+    public static int getBlockAlign(int sampleRate, int channels) {
+        return 256 * channels * Math.max(1, sampleRate / 11000);
+    }
+
+    public static int getSamplesPerBlock(int blockAlign, int channels) {
+        return (blockAlign - BLOCK_HEADER_SIZE * channels) * 2 / channels + 1;
+    }
+
+    // Size of a block holding sampleCount samples (the last block of a file may be shorter)
+    public static int getEncodedBlockSize(int sampleCount) {
+        return BLOCK_HEADER_SIZE + sampleCount / 2;
+    }
+
+    // Encoder state kept between blocks
+    public static class Encoder
+    {
+        private int mIndex = 0;
+
+        /*
+            Encode count samples (count odd, at most samplesPerBlock) into one block written in out at outOffset.
+            Returns the size of the block.
+         */
+        public int encodeBlock(short[] samples, int offset, int count, byte[] out, int outOffset)
+        {
+            int predictor = samples[offset];
+            int index = mIndex;
+            out[outOffset] = (byte) predictor;
+            out[outOffset + 1] = (byte) (predictor >> 8);
+            out[outOffset + 2] = (byte) index;
+            out[outOffset + 3] = 0;
+
+            int o = outOffset + BLOCK_HEADER_SIZE;
+            int end = offset + count;
+            boolean lowNibble = true;
+            for (int i = offset + 1; i < end; i++) {
+                int step = STEP_TABLE[index];
+                int diff = samples[i] - predictor;
+                int code = 0;
+                if (diff < 0) {
+                    code = 8;
+                    diff = -diff;
+                }
+                int delta = step >> 3;
+                if (diff >= step) {
+                    code |= 4;
+                    diff -= step;
+                    delta += step;
+                }
+                step >>= 1;
+                if (diff >= step) {
+                    code |= 2;
+                    diff -= step;
+                    delta += step;
+                }
+                step >>= 1;
+                if (diff >= step) {
+                    code |= 1;
+                    delta += step;
+                }
+                predictor = clamp((code & 8) != 0 ? predictor - delta : predictor + delta);
+                index = clampIndex(index + INDEX_TABLE[code]);
+
+                if (lowNibble) {
+                    out[o] = (byte) code;
+                } else {
+                    out[o] |= (byte) (code << 4);
+                    o++;
+                }
+                lowNibble = !lowNibble;
+            }
+            // Pad a last incomplete byte
+            if (!lowNibble)
+                o++;
+            mIndex = index;
+            return o - outOffset;
+        }
+    }
+
+    /*
+        Decode one block of length bytes into little endian samples written in pcm at pcmOffset.
+        At most maxSamples are decoded, returns the number of samples.
+     */
+    public static int decodeBlock(byte[] in, int offset, int length, byte[] pcm, int pcmOffset, int maxSamples) {
+        if (length < BLOCK_HEADER_SIZE || maxSamples <= 0)
+            return 0;
+        int predictor = (short) ((in[offset] & 0xFF) | (in[offset + 1] << 8));
+        int index = clampIndex(in[offset + 2]);
+        pcm[pcmOffset] = (byte) predictor;
+        pcm[pcmOffset + 1] = (byte) (predictor >> 8);
+        int count = 1;
+
+        int end = offset + length;
+        int p = pcmOffset + 2;
+        for (int i = offset + BLOCK_HEADER_SIZE; i < end && count < maxSamples; i++) {
+            for (int shift = 0; shift <= 4 && count < maxSamples; shift += 4) {
+                int code = (in[i] >> shift) & 0x0F;
+                int step = STEP_TABLE[index];
+                int delta = step >> 3;
+                if ((code & 4) != 0)
+                    delta += step;
+                if ((code & 2) != 0)
+                    delta += step >> 1;
+                if ((code & 1) != 0)
+                    delta += step >> 2;
+                predictor = clamp((code & 8) != 0 ? predictor - delta : predictor + delta);
+                index = clampIndex(index + INDEX_TABLE[code]);
+                pcm[p] = (byte) predictor;
+                pcm[p + 1] = (byte) (predictor >> 8);
+                p += 2;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int clamp(int sample) {
+        if (sample > Short.MAX_VALUE)
+            return Short.MAX_VALUE;
+        if (sample < Short.MIN_VALUE)
+            return Short.MIN_VALUE;
+        return sample;
+    }
+
+    private static int clampIndex(int index) {
+        if (index < 0)
+            return 0;
+        if (index > 88)
+            return 88;
+        return index;
+    }
+}
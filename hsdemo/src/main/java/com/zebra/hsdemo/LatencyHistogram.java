@@ -0,0 +1,90 @@
+package com.zebra.hsdemo;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+    Fixed bucket latency histogram, safe to record from one thread and read from others.
+    Bucket i counts the durations in [2^i, 2^(i+1)) microseconds, the first bucket also holds
+    everything under 2 us and the last one everything above. Recording does not allocate.
+ */
+public class LatencyHistogram {
+
+    public static final int BUCKET_COUNT = 22;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private volatile long mCount = 0;
+    private volatile long mTotalNanos = 0;
+    private volatile long mMaxNanos = 0;
+
+    // Single writer: only one thread may record in a given histogram
+    public void record(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 63 - Long.numberOfLeadingZeros(micros | 1);
+        if (bucket >= BUCKET_COUNT)
+            bucket = BUCKET_COUNT - 1;
+        mBuckets.lazySet(bucket, mBuckets.get(bucket) + 1);
+        mCount++;
+        mTotalNanos += nanos;
+        if (nanos > mMaxNanos)
+            mMaxNanos = nanos;
+    }
+
+    // Lower bound of a bucket in microseconds
+    public static long getBucketLowerBoundMicros(int bucket) {
+        return bucket == 0 ? 0 : 1L << bucket;
+    }
+
+    public Snapshot snapshot() {
+        long[] buckets = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = mBuckets.get(i);
+        }
+        return new Snapshot(buckets, mCount, mTotalNanos, mMaxNanos);
+    }
+
+    public static class Snapshot
+    {
+        public final long[] buckets;
+        public final long count;
+        public final long totalNanos;
+        public final long maxNanos;
+
+        Snapshot(long[] buckets, long count, long totalNanos, long maxNanos)
+        {
+            this.buckets = buckets;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getMeanMicros()
+        {
+            return count == 0 ? 0 : totalNanos / count / 1000;
+        }
+
+        // Upper bound (in microseconds) of the bucket holding the given percentile (0 to 100)
+        public long getPercentileMicros(double percentile)
+        {
+            long total = 0;
+            for (long bucket : buckets) {
+                total += bucket;
+            }
+            if (total == 0)
+                return 0;
+            long rank = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank)
+                    return 1L << (i + 1);
+            }
+            return 1L << buckets.length;
+        }
+
+        @Override
+        public String toString() {
+            return "n=" + count + " mean=" + getMeanMicros() + "us p50<" + getPercentileMicros(50) + "us p99<"
+                    + getPercentileMicros(99) + "us max=" + (maxNanos / 1000) + "us";
+        }
+    }
+}
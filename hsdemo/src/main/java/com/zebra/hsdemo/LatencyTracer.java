@@ -0,0 +1,225 @@
+package com.zebra.hsdemo;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+    Time to first audio of the record and play actions.
+    A trace is begun when an action is requested (button tapped) and collects the spans of its stages
+    (SCO setup, setMode, MediaStore insert, WAV conversion, prepare...) until it is finished by the first
+    audio (first non empty read, AudioTrack.play(), MediaPlayer prepared and started), the spans recorded
+    after that are ignored. Times come from System.nanoTime(), a span is a start and a duration.
+    The spans of all the traces go to a ring buffer of primitive arrays: recording a span does not
+    allocate and only keeps the last spans once the ring is full. getReport() aggregates the spans still
+    in the ring per action and stage (count, mean, max, last) and lists the last traces.
+    Thread safe, the stages of an action run on the UI thread, the task threads and the capture threads.
+ */
+public class LatencyTracer {
+
+    public static final int DEFAULT_CAPACITY = 512;
+
+    // Stage of the span recorded by Trace.finish(), from begin() to the first audio
+    public static final String FIRST_AUDIO = "First audio";
+
+    private static final int REPORTED_TRACES = 10;
+
+    public static class Trace
+    {
+        // Records nothing, for the callers without a trace
+        public static final Trace NONE = new Trace(null, 0, "", 0);
+
+        private final LatencyTracer mTracer;
+        private final long mId;
+        private final String mAction;
+        private final long mBeginNanos;
+        private volatile boolean mFinished;
+
+        private Trace(LatencyTracer tracer, long id, String action, long beginNanos)
+        {
+            mTracer = tracer;
+            mFinished = tracer == null;
+            mId = id;
+            mAction = action;
+            mBeginNanos = beginNanos;
+        }
+
+        public String getAction()
+        {
+            return mAction;
+        }
+
+        public long getBeginNanos()
+        {
+            return mBeginNanos;
+        }
+
+        public boolean isFinished()
+        {
+            return mFinished;
+        }
+
+        // Span of a stage started at startNanos (System.nanoTime()) and ending now
+        public void span(String stage, long startNanos)
+        {
+            span(stage, startNanos, System.nanoTime());
+        }
+
+        public void span(String stage, long startNanos, long endNanos)
+        {
+            if (mTracer == null || mFinished)
+                return;
+            mTracer.record(mId, mAction, stage, startNanos, endNanos - startNanos);
+        }
+
+        // The first audio is out (or in) now, records the FIRST_AUDIO span and closes the trace
+        public void finish()
+        {
+            finish(System.nanoTime());
+        }
+
+        public void finish(long endNanos)
+        {
+            if (mTracer == null || mFinished)
+                return;
+            mFinished = true;
+            mTracer.record(mId, mAction, FIRST_AUDIO, mBeginNanos, endNanos - mBeginNanos);
+        }
+    }
+
+    private final int mCapacity;
+    private final long[] mTraceIds;
+    private final String[] mActions;
+    private final String[] mStages;
+    private final long[] mStartNanos;
+    private final long[] mDurationNanos;
+    // Spans recorded since the creation, the next one goes to mSpanCount % mCapacity
+    private long mSpanCount = 0;
+    private long mNextTraceId = 1;
+    private final long mSessionStartNanos = System.nanoTime();
+
+    public LatencyTracer(int capacity) {
+        mCapacity = capacity;
+        mTraceIds = new long[capacity];
+        mActions = new String[capacity];
+        mStages = new String[capacity];
+        mStartNanos = new long[capacity];
+        mDurationNanos = new long[capacity];
+    }
+
+    // Called when the action is requested
+    public Trace begin(String action) {
+        long beginNanos = System.nanoTime();
+        long id;
+        synchronized (this) {
+            id = mNextTraceId++;
+        }
+        return new Trace(this, id, action, beginNanos);
+    }
+
+    public synchronized long getSpanCount() {
+        return mSpanCount;
+    }
+
+    public synchronized void clear() {
+        mSpanCount = 0;
+    }
+
+    private synchronized void record(long traceId, String action, String stage, long startNanos, long durationNanos) {
+        int slot = (int) (mSpanCount % mCapacity);
+        mTraceIds[slot] = traceId;
+        mActions[slot] = action;
+        mStages[slot] = stage;
+        mStartNanos[slot] = startNanos;
+        mDurationNanos[slot] = durationNanos;
+        mSpanCount++;
+    }
+
+    private static class StageStatistics
+    {
+        long count = 0;
+        long totalNanos = 0;
+        long maxNanos = 0;
+        long lastNanos = 0;
+
+        void add(long nanos)
+        {
+            count++;
+            totalNanos += nanos;
+            if (nanos > maxNanos)
+                maxNanos = nanos;
+            lastNanos = nanos;
+        }
+    }
+
+    /*
+        Latency report of the spans still in the ring, description identifies the device and the session
+        (e.g. model and Android version). The stages are listed in the order they were first seen.
+     */
+    public synchronized String getReport(String description) {
+        long retained = Math.min(mSpanCount, mCapacity);
+        long first = mSpanCount - retained;
+
+        // action -> stage -> statistics
+        Map<String, Map<String, StageStatistics>> actions = new LinkedHashMap<>();
+        // Traces in the ring, oldest first
+        List<Long> traceIds = new ArrayList<>();
+        Map<Long, StringBuilder> traces = new LinkedHashMap<>();
+        for (long i = first; i < mSpanCount; i++) {
+            int slot = (int) (i % mCapacity);
+            Map<String, StageStatistics> stages = actions.get(mActions[slot]);
+            if (stages == null) {
+                stages = new LinkedHashMap<>();
+                actions.put(mActions[slot], stages);
+            }
+            StageStatistics statistics = stages.get(mStages[slot]);
+            if (statistics == null) {
+                statistics = new StageStatistics();
+                stages.put(mStages[slot], statistics);
+            }
+            statistics.add(mDurationNanos[slot]);
+
+            StringBuilder trace = traces.get(mTraceIds[slot]);
+            if (trace == null) {
+                trace = new StringBuilder();
+                trace.append("  #").append(mTraceIds[slot]).append(' ').append(mActions[slot]).append(" at ")
+                        .append(formatSeconds(mStartNanos[slot] - mSessionStartNanos)).append(':');
+                traces.put(mTraceIds[slot], trace);
+                traceIds.add(mTraceIds[slot]);
+            }
+            trace.append(' ').append(mStages[slot]).append(' ').append(formatMs(mDurationNanos[slot])).append(',');
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append("Latency report, ").append(description).append('\n');
+        report.append("Session ").append(formatSeconds(System.nanoTime() - mSessionStartNanos)).append(", ")
+                .append(traces.size()).append(" traces, ").append(retained).append(" spans (")
+                .append(first).append(" dropped)\n");
+        for (Map.Entry<String, Map<String, StageStatistics>> action : actions.entrySet()) {
+            report.append(action.getKey()).append('\n');
+            for (Map.Entry<String, StageStatistics> stage : action.getValue().entrySet()) {
+                StageStatistics statistics = stage.getValue();
+                report.append(String.format(Locale.US, "  %-24s count %4d  mean %10s  max %10s  last %10s\n",
+                        stage.getKey(), statistics.count, formatMs(statistics.totalNanos / statistics.count),
+                        formatMs(statistics.maxNanos), formatMs(statistics.lastNanos)));
+            }
+        }
+        report.append("Last traces\n");
+        for (int i = Math.max(0, traceIds.size() - REPORTED_TRACES); i < traceIds.size(); i++) {
+            StringBuilder trace = traces.get(traceIds.get(i));
+            trace.setLength(trace.length() - 1);
+            report.append(trace).append('\n');
+        }
+        return report.toString();
+    }
+
+    private static String formatMs(long nanos) {
+        return String.format(Locale.US, "%.1f ms", nanos / 1e6);
+    }
+
+    private static String formatSeconds(long nanos) {
+        return String.format(Locale.US, "%.3f s", nanos / 1e9);
+    }
+}
@@ -11,6 +11,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.media.AudioAttributes;
+import android.media.AudioDeviceCallback;
 import android.media.AudioDeviceInfo;
 import android.media.AudioFormat;
 import android.media.AudioManager;
@@ -23,10 +24,13 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.Settings;
 import android.util.Log;
 import android.view.View;
 import android.widget.CompoundButton;
+import android.widget.EditText;
 import android.widget.SeekBar;
 import android.widget.Switch;
 import android.widget.TextView;
@@ -38,11 +42,13 @@ import com.zebra.criticalpermissionshelper.EPermissionType;
 import com.zebra.criticalpermissionshelper.IResultCallbacks;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
@@ -87,17 +93,48 @@ public class MainActivity extends AppCompatActivity {
     private BluetoothAdapter bluetoothAdapter;
     private BluetoothHeadset mBluetoothHeadset;
     private List<BluetoothDevice> devices;
-    private boolean targetBt = false;
+
+    // Bluetooth SCO link kept up between the recording and the playbacks
+    private ScoLinkManager scoLink = null;
+    long scoIdleTimeoutMs = ScoLinkManager.DEFAULT_IDLE_TIMEOUT_MS;
+    private ScoLinkManager.Lease recordingScoLease = null;
+
+    // Time to first audio of the record and play actions, exported by btLatencyReport
+    final LatencyTracer latencyTracer = new LatencyTracer(LatencyTracer.DEFAULT_CAPACITY);
+    volatile LatencyTracer.Trace recordingTrace = LatencyTracer.Trace.NONE;
+
+    // Initialized AudioRecord and AudioTrack kept between the recordings and the playbacks
+    AudioEndpointCache<AudioRecord> recordEndpoints = null;
+    AudioEndpointCache<AudioTrack> trackEndpoints = null;
+    private final AudioDeviceCallback audioDeviceCallback = new AudioDeviceCallback() {
+        @Override
+        public void onAudioDevicesAdded(AudioDeviceInfo[] addedDevices) {
+            onAudioRouteChanged();
+        }
+
+        @Override
+        public void onAudioDevicesRemoved(AudioDeviceInfo[] removedDevices) {
+            onAudioRouteChanged();
+        }
+    };
 
     private EMDKUtils emdkUtils = null;
 
     AudioRecord recorder = null;
-    Thread recordingThread = null;
+    CapturePipeline capturePipeline = null;
+    volatile PcmStreamPlayer currentPlayer = null;
+
+    // Playbacks, exports and analysis run here instead of on the UI thread or on a new thread per tap
+    private final AudioTaskExecutor audioTasks = new AudioTaskExecutor();
+
     int bufSize = 0;
     boolean isRecording = false;
     float recordingGain = 1.0f;
     float replayGain = 1.0f;
 
+    // Peak of the last recording, updated by the capture thread
+    final PeakStatistics recordingStatistics = new PeakStatistics();
+
     final static int[] sampleRatevalues = {8000, 12000, 16000, 22000, 32000, 44000};
     public static int sampleRate = sampleRatevalues[0];
     public static final int channelInConfig = AudioFormat.CHANNEL_IN_MONO;
@@ -106,21 +143,58 @@ public class MainActivity extends AppCompatActivity {
     public static final int audioFormat = AudioFormat.ENCODING_PCM_16BIT;
     public static final int bitDepth = 16;
 
-    private boolean isBluetoothConnected = false;
+    // Playback through a Bluetooth SCO headset runs at the wideband speech rate, recordings are resampled to it
+    public static final int scoSampleRate = 16000;
+
+    // When true the capture loop writes a WAV file that can be played and exported without conversion
+    boolean recordToWav = true;
+
+    // Compressed formats are encoded by the capture writer and always stored as WAV
+    final static RecordingFormat[] recordingFormatValues = RecordingFormat.values();
+    RecordingFormat recordingFormat = RecordingFormat.PCM_16BIT;
+
+    // The recording is split in segments, a new segment is started after this duration or size (0 = no limit)
+    long segmentMaxDurationMs = 30 * 60 * 1000L;
+    long segmentMaxBytes = 0;
+    volatile SegmentedRecordingStore recordingStore = null;
+
+    // Voice activity detection: silences are not stored, playback restores them from the silence index
+    boolean skipSilence = false;
+    int vadHangoverMs = 300;
+    int vadPreRollMs = 200;
+    volatile VadGateSink vadGateSink = null;
+
+    // Waveform peaks of the recording, built by the capture writer thread and written next to the segments
+    PeakPyramid.Builder peakBuilder = null;
+
+    // Capture metrics displayed while recording
+    private static final long CAPTURE_METRICS_REFRESH_MS = 1000;
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+    private final Runnable captureMetricsRefresh = new Runnable() {
+        @Override
+        public void run() {
+            CapturePipeline pipeline = capturePipeline;
+            if(pipeline == null)
+                return;
+            TextView tvCaptureMetrics = findViewById(R.id.tvCaptureMetrics);
+            tvCaptureMetrics.setText(pipeline.getMetricsSnapshot().toSummary());
+            uiHandler.postDelayed(this, CAPTURE_METRICS_REFRESH_MS);
+        }
+    };
+
     private BroadcastReceiver scoConnectReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
             Log.d(TAG, ">>> BT SCO state changed !!! ");
-            if(AudioManager.ACTION_SCO_AUDIO_STATE_CHANGED.equals(action)) {
+            if(AudioManager.ACTION_SCO_AUDIO_STATE_UPDATED.equals(action)) {
                 int status = intent.getIntExtra(AudioManager.EXTRA_SCO_AUDIO_STATE, AudioManager.SCO_AUDIO_STATE_ERROR );
                 Log.d(TAG, "BT SCO state changed : " + status);
-                audioManager.setBluetoothScoOn(targetBt);
-                if(status == AudioManager.SCO_AUDIO_STATE_CONNECTED) {
-                    isBluetoothConnected = true;
-                }else if(status == AudioManager.SCO_AUDIO_STATE_DISCONNECTED) {
-                    isBluetoothConnected = false;
-                }
+                // Before the SCO link: a recording waiting for the link must not get an endpoint of the previous route
+                if(status == AudioManager.SCO_AUDIO_STATE_CONNECTED || status == AudioManager.SCO_AUDIO_STATE_DISCONNECTED)
+                    onAudioRouteChanged();
+                if(scoLink != null)
+                    scoLink.onScoAudioStateChanged(status);
             }
         }
     };
@@ -165,8 +239,108 @@ public class MainActivity extends AppCompatActivity {
     {
         audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
 
-        // Start Bluetooth SCO
-        audioManager.startBluetoothSco();
+        // Bluetooth SCO is started by the first recording or playback and stopped once idle
+        scoLink = new ScoLinkManager(new ScoLinkManager.ScoAudio() {
+            @Override
+            public void startBluetoothSco() {
+                Log.d(TAG, "BT SCO on >>>");
+                audioManager.startBluetoothSco();
+            }
+
+            @Override
+            public void stopBluetoothSco() {
+                Log.d(TAG, "BT SCO off >>>");
+                audioManager.stopBluetoothSco();
+            }
+
+            @Override
+            public void setBluetoothScoOn(boolean on) {
+                audioManager.setBluetoothScoOn(on);
+            }
+        }, new ScoLinkManager.Scheduler() {
+            @Override
+            public void postDelayed(Runnable action, long delayMs) {
+                uiHandler.postDelayed(action, delayMs);
+            }
+
+            @Override
+            public void removeCallbacks(Runnable action) {
+                uiHandler.removeCallbacks(action);
+            }
+        }, scoIdleTimeoutMs, ScoLinkManager.DEFAULT_SETUP_TIMEOUT_MS);
+
+        recordEndpoints = new AudioEndpointCache<>(new AudioEndpointCache.Factory<AudioRecord>() {
+            @SuppressLint("MissingPermission")
+            @Override
+            public AudioRecord create(AudioEndpointCache.Key key) {
+                int bufferSize = AudioRecord.getMinBufferSize(key.sampleRate, key.channelMask, key.encoding);
+                AudioRecord record;
+                try {
+                    record = new AudioRecord(MediaRecorder.AudioSource.MIC, key.sampleRate, key.channelMask, key.encoding, bufferSize);
+                } catch (Exception e) {
+                    Log.e(TAG,"UNSUPPORTED Input Parameter : " + e);
+                    return null;
+                }
+                if(record.getState() != AudioRecord.STATE_INITIALIZED) {
+                    record.release();
+                    return null;
+                }
+                return record;
+            }
+
+            @Override
+            public void reset(AudioRecord record) {
+            }
+
+            @Override
+            public void release(AudioRecord record) {
+                record.release();
+            }
+        }, AudioEndpointCache.DEFAULT_MAX_IDLE);
+
+        trackEndpoints = new AudioEndpointCache<>(new AudioEndpointCache.Factory<AudioTrack>() {
+            @Override
+            public AudioTrack create(AudioEndpointCache.Key key) {
+                AudioAttributes audioAttributes = new AudioAttributes.Builder()
+                        .setUsage(AudioAttributes.USAGE_MEDIA)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                        .build();
+
+                AudioFormat format = new AudioFormat.Builder()
+                        .setSampleRate(key.sampleRate)
+                        .setEncoding(key.encoding)
+                        .setChannelMask(key.channelMask)
+                        .build();
+
+                int bufferSize = AudioTrack.getMinBufferSize(key.sampleRate, key.channelMask, key.encoding);
+                AudioTrack track = new AudioTrack(
+                        audioAttributes,
+                        format,
+                        bufferSize,
+                        AudioTrack.MODE_STREAM,
+                        AudioManager.AUDIO_SESSION_ID_GENERATE
+                );
+                if(track.getState() != AudioTrack.STATE_INITIALIZED) {
+                    track.release();
+                    return null;
+                }
+                return track;
+            }
+
+            @Override
+            public void reset(AudioTrack track) {
+                // Drop what was left of the previous playback
+                track.flush();
+            }
+
+            @Override
+            public void release(AudioTrack track) {
+                track.release();
+            }
+        }, AudioEndpointCache.DEFAULT_MAX_IDLE);
+
+        // Also reports the current devices, the first endpoints are prepared from there
+        audioManager.registerAudioDeviceCallback(audioDeviceCallback, uiHandler);
 
         // Request audio focus
         audioManager.requestAudioFocus(focusChange -> {
@@ -179,6 +353,9 @@ public class MainActivity extends AppCompatActivity {
 
         bluetoothAdapter.getProfileProxy(this, mProfileListener, BluetoothProfile.HEADSET);
 
+        // Bind the profile manager now so the first volume profile does not wait for it
+        if(Build.MANUFACTURER.toLowerCase().contains("zebra"))
+            getProfileSession().open();
 
         findViewById(R.id.btStartRecording).setOnClickListener(new View.OnClickListener() {
             @Override
@@ -196,20 +373,16 @@ public class MainActivity extends AppCompatActivity {
         findViewById(R.id.btPlayWithMPOld).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                playWithMediaPlayerOld();
+                LatencyTracer.Trace trace = latencyTracer.begin("MediaPlayer voice call");
+                audioTasks.submitPlayback("MediaPlayer voice call", task -> playWithMediaPlayerOld(task, trace));
             }
         });
 
         findViewById(R.id.btPlayWithMP).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        // Your code here
-                        playWithMediaPlayer();
-                    }
-                }).start();
+                LatencyTracer.Trace trace = latencyTracer.begin("MediaPlayer");
+                audioTasks.submitPlayback("MediaPlayer", task -> playWithMediaPlayer(task, trace));
             }
         });
 
@@ -217,14 +390,47 @@ public class MainActivity extends AppCompatActivity {
         {
             @Override
             public void onClick(View view) {
-                   new Thread(new Runnable() {
-                        @Override
-                        public void run() {
-                            // Your code here
-                            playPcmFileWithAudioTrack(false);
-                        }
-                    }).start();
-                }
+                LatencyTracer.Trace trace = latencyTracer.begin("AudioTrack LoudnessEnhancer");
+                audioTasks.submitPlayback("AudioTrack LoudnessEnhancer", task -> playPcmFileWithAudioTrack(task, trace, false, 0, -1));
+            }
+        });
+
+        findViewById(R.id.btPauseResumePlayback).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                pauseOrResumePlayback();
+            }
+        });
+
+        findViewById(R.id.btStopPlayback).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                stopPlayback();
+            }
+        });
+
+        findViewById(R.id.btPlayRange).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                long startMs = parseSecondsToMs(((EditText)findViewById(R.id.etRangeStart)).getText().toString(), 0);
+                long endMs = parseSecondsToMs(((EditText)findViewById(R.id.etRangeEnd)).getText().toString(), -1);
+                LatencyTracer.Trace trace = latencyTracer.begin("AudioTrack range");
+                audioTasks.submitPlayback("AudioTrack range", task -> playPcmFileWithAudioTrack(task, trace, true, startMs, endMs));
+            }
+        });
+
+        findViewById(R.id.btExportFlac).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                submitWork("FLAC export", task -> exportRecordingToFlac(task));
+            }
+        });
+
+        findViewById(R.id.btLatencyReport).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                submitWork("Latency report", task -> exportLatencyReport());
+            }
         });
 
         findViewById(R.id.btCreateVolumeProfile).setOnClickListener(new View.OnClickListener() {
@@ -248,8 +454,25 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        findViewById(R.id.btApplyVolumeSetup).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                applyMaximumVolumeSetup();
+            }
+        });
+
+        findViewById(R.id.btUpdateVolumeLevels).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                updateMaximumVolumeLevels();
+            }
+        });
+
         setButtonVisibility(true);
 
+        // Wait for the layout so the overview matches the view width
+        findViewById(R.id.wvRecording).post(this::refreshWaveform);
+
         TextView tvRecordingGain = findViewById(R.id.tvRecordingGain);
         tvRecordingGain.setText(String.format("%.1f", recordingGain));
 
@@ -318,15 +541,80 @@ public class MainActivity extends AppCompatActivity {
                 // Optional: handle stop of touch
             }
         });
+
+        Switch swSkipSilence = findViewById(R.id.swSkipSilence);
+        swSkipSilence.setChecked(skipSilence);
+        swSkipSilence.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton compoundButton, boolean isChecked) {
+                skipSilence = isChecked;
+            }
+        });
+
+        SeekBar sbRecordingFormat = findViewById(R.id.sbRecordingFormat);
+        TextView tvRecordingFormat = findViewById(R.id.tvRecordingFormat);
+        tvRecordingFormat.setText(recordingFormat.name());
+        sbRecordingFormat.setProgress(recordingFormat.ordinal());
+        sbRecordingFormat.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                recordingFormat = recordingFormatValues[progress];
+                tvRecordingFormat.setText(recordingFormat.name());
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        // Another application may have applied a volume profile in the meantime
+        if(emdkUtils != null)
+            emdkUtils.invalidateResultCache();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        // Idle endpoints hold native buffers and audio server streams, they are created again when needed
+        if(recordEndpoints != null) {
+            recordEndpoints.releaseIdle();
+            trackEndpoints.releaseIdle();
+        }
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
 
+        audioTasks.shutdown();
+
+        if(recordEndpoints != null) {
+            audioManager.unregisterAudioDeviceCallback(audioDeviceCallback);
+            Log.d(TAG, "AudioRecord cache: " + recordEndpoints + ", AudioTrack cache: " + trackEndpoints);
+            recordEndpoints.close();
+            trackEndpoints.close();
+        }
+
+        if(emdkUtils != null)
+            emdkUtils.release();
+
         // Stop Bluetooth SCO
-        if(audioManager != null)
-            audioManager.stopBluetoothSco();
+        if(scoLink != null) {
+            Log.d(TAG, scoLink.toString());
+            scoLink.shutdown();
+        }
 
         if(bluetoothAdapter != null && mBluetoothHeadset != null)
             bluetoothAdapter.closeProfileProxy(BluetoothProfile.HEADSET, mBluetoothHeadset);
@@ -340,247 +628,507 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private void startBluetoothSCOAudio(boolean state) {
-        targetBt = state;
-        if (state != isBluetoothConnected) {
-            if(state) {
-                Log.d(TAG, "BT SCO on >>>"); // First we try to connect
-                audioManager.startBluetoothSco();
-            } else {
-                Log.d(TAG, "BT SCO off >>>"); // We stop to use BT SCO
-                audioManager.setBluetoothScoOn(false);
-                // And we stop BT SCO connection
-                audioManager.stopBluetoothSco();
-            }
-        } else if (state != audioManager.isBluetoothScoOn()) {
-            // BT SCO is already in desired connection state, we only have to use it
-            audioManager.setBluetoothScoOn(state);
-        }
+    private AudioEndpointCache.Key getRecordEndpointKey() {
+        return new AudioEndpointCache.Key(sampleRate, channelInConfig, audioFormat);
     }
 
+    private static AudioEndpointCache.Key getTrackEndpointKey(int trackSampleRate) {
+        return new AudioEndpointCache.Key(trackSampleRate, channelOutConfig, audioFormat);
+    }
 
+    // Prepares on the task thread the endpoints the next recording and playback will use
+    private void prepareAudioEndpoints() {
+        if(recordEndpoints == null)
+            return;
+        // Not worth a toast when the queue is full, the endpoints are then created when needed
+        audioTasks.submit("Audio endpoints", task -> {
+            long startTime = System.nanoTime();
+            recordEndpoints.prepare(getRecordEndpointKey());
+            trackEndpoints.prepare(getTrackEndpointKey(isHeadsetConnected() ? scoSampleRate : getRecordingSampleRate()));
+            Log.d(TAG, "Audio endpoints prepared in " + (System.nanoTime() - startTime) / 1000000 + " ms");
+        });
+    }
 
-    @SuppressLint("MissingPermission")
-    private void startRecording(){
-         if (isHeadsetConnected()) {
-            startBluetoothSCOAudio(true);
-        } // To check if BT Headset is available to connect SCO and record via BT
+    // The endpoints created on the previous route are not reused
+    private void onAudioRouteChanged() {
+        if(recordEndpoints == null)
+            return;
+        recordEndpoints.onRouteChanged();
+        trackEndpoints.onRouteChanged();
+        prepareAudioEndpoints();
+    }
 
-         audioManager.setMode(AudioManager.MODE_IN_COMMUNICATION);
+    private void logScoLink(String action, ScoLinkManager.Lease lease) {
+        if(lease.isConnected())
+            Log.d(TAG, "BT SCO link ready for " + action + " in " + lease.getSetupMs() + " ms");
+        else
+            Log.w(TAG, "BT SCO link not connected for " + action + " after " + lease.getSetupMs() + " ms");
+    }
 
-        bufSize = AudioRecord.getMinBufferSize(sampleRate, channelInConfig, audioFormat);
-        try {
-            recorder = new AudioRecord( MediaRecorder.AudioSource.MIC ,
-                    sampleRate, channelInConfig, audioFormat, bufSize);
+    // Waits on the calling task thread for the SCO link, null when there is no headset to connect
+    private ScoLinkManager.Lease acquireScoLink(String action, LatencyTracer.Trace trace) throws InterruptedException {
+        if (!isHeadsetConnected())
+            return null;
+        long scoStart = System.nanoTime();
+        ScoLinkManager.Lease lease = scoLink.acquireAndWait();
+        trace.span("SCO setup", scoStart);
+        logScoLink(action, lease);
+        return lease;
+    }
 
-        } catch (Exception e) {
-            // handle exception
-            Log.e(TAG,"UNSUPPORTED Input Parameter : " + e);
+    // Headset routing of a playback, setMode() included
+    private void routeAudioToHeadset(LatencyTracer.Trace trace) {
+        long routeStart = System.nanoTime();
+        routeAudioToHeadset(true);
+        trace.span("setMode and route", routeStart);
+    }
+
+    private void startRecording(){
+        // A recording is already started, stopping or waiting for the SCO link
+        if (isRecording || capturePipeline != null || (recordingScoLease != null && recordingScoLease.isPending()))
             return;
+        // Finished by the first non empty read
+        LatencyTracer.Trace trace = latencyTracer.begin("Record");
+        recordingTrace = trace;
+        if (isHeadsetConnected()) {
+            // To record via the BT headset, the capture starts once the SCO link is up (right away when it is warm)
+            long scoStart = System.nanoTime();
+            recordingScoLease = scoLink.acquire(lease -> {
+                trace.span("SCO setup", scoStart);
+                logScoLink("recording", lease);
+                if (!startCapture(trace))
+                    lease.release();
+            });
+        } else {
+            startCapture(trace);
         }
-        int recordstate = recorder.getState();
-        if (recordstate == AudioRecord.STATE_INITIALIZED) {
+    }
+
+    // Returns false when the recorder could not be started
+    private boolean startCapture(LatencyTracer.Trace trace){
+         long setModeStart = System.nanoTime();
+         audioManager.setMode(AudioManager.MODE_IN_COMMUNICATION);
+         trace.span("setMode", setModeStart);
+
+        bufSize = AudioRecord.getMinBufferSize(sampleRate, channelInConfig, audioFormat);
+        // Prepared ahead of time when possible, created here otherwise
+        long createStart = System.nanoTime();
+        recorder = recordEndpoints.acquire(getRecordEndpointKey());
+        trace.span("AudioRecord create", createStart);
+        if (recorder != null) {
             Log.w(TAG,"startRecording recorder instance created");
+            long sinkStart = System.nanoTime();
+            PcmSink sink = createRecordingSink();
+            trace.span("Recording files", sinkStart);
+            if(sink == null) {
+                recordEndpoints.recycle(recorder);
+                recorder = null;
+                return false;
+            }
+            recordingStatistics.reset();
+            peakBuilder = new PeakPyramid.Builder(sampleRate, channelNumber, PeakPyramid.DEFAULT_LEVELS);
+            long startRecordingStart = System.nanoTime();
             recorder.startRecording();
+            trace.span("AudioRecord start", startRecordingStart);
             isRecording = true;
-            recordingThread = new Thread(new Runnable() {
+            capturePipeline = new CapturePipeline(recorder, sink, new CapturePipeline.BlockProcessor() {
                 @Override
-                public void run() {
-                    writeAudioDataToFile();
+                public void process(ByteBuffer block) {
+                    processCapturedBlock(block);
                 }
-            },"AudioRecorder Thread");
-            Log.w(TAG,"Recording thread to start");
-            recordingThread.start();
+            }, bufSize, CapturePipeline.DEFAULT_BLOCK_COUNT);
+            // The microphone was lost (e.g. audio server restarted), stop this recording and keep what was written
+            CapturePipeline pipeline = capturePipeline;
+            pipeline.setReadErrorListener(error -> runOnUiThread(() -> {
+                if(capturePipeline != pipeline || isRecording == false)
+                    return;
+                Toast.makeText(this, "Recording stopped, microphone read error " + error + ".", Toast.LENGTH_LONG).show();
+                stopRecording();
+            }));
+            Log.w(TAG,"Recording threads to start");
+            capturePipeline.start();
+            uiHandler.postDelayed(captureMetricsRefresh, CAPTURE_METRICS_REFRESH_MS);
+            return true;
         }
         else {
             Log.e(TAG,"UNSUPPORTED Input Parameter, recorder instance NOT created");
+            return false;
         }
     }
 
-    private String getFilename()
+    private File getSessionDirectory()
     {
-        File myCacheFile = new File(getExternalStorageDirectory(), "hsdemo_audio.pcm");
-        return myCacheFile.getPath();
+        return new File(getExternalStorageDirectory(), "hsdemo_session");
     }
 
-    private void writeAudioDataToFile() {
-        byte[] audioData = new byte[bufSize];
-        String filePath = getFilename();
-        FileOutputStream os = null;
+    // Finished segments of the current or last recording, can be called while recording
+    private List<File> getRecordingSegments()
+    {
+        List<File> files = new ArrayList<>();
+        for (SegmentedRecordingStore.Segment segment : getRecordingSegmentEntries()) {
+            if(segment.file.exists())
+                files.add(segment.file);
+        }
+        return files;
+    }
 
+    // Index entries of the finished segments, see getRecordingSegments()
+    private List<SegmentedRecordingStore.Segment> getRecordingSegmentEntries()
+    {
+        SegmentedRecordingStore store = recordingStore;
         try {
-            os = new FileOutputStream(filePath);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            return store != null ? store.getFinishedSegments() : SegmentedRecordingStore.readIndex(getSessionDirectory());
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read session index: " + e);
+            return new ArrayList<>();
         }
+    }
 
-        while (isRecording) {
-            int read = recorder.read(audioData, 0, bufSize);
-            if (AudioRecord.ERROR_INVALID_OPERATION != read) {
-                try {
-                    audioData = MediaFileUtils.applyGain(audioData, read, recordingGain);
-                    os.write(audioData);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+    // Index entry of a segment file, null when it is not in the index
+    private SegmentedRecordingStore.Segment getSegmentEntry(File segmentFile)
+    {
+        for (SegmentedRecordingStore.Segment segment : getRecordingSegmentEntries()) {
+            if(segment.file.equals(segmentFile))
+                return segment;
+        }
+        return null;
+    }
+
+    // Silences removed by the VAD from a segment, the last segment of a finished recording also gets the trailing ones
+    private List<SilenceIndex.Marker> getSegmentSilences(SegmentedRecordingStore.Segment segment)
+    {
+        if(segment == null)
+            return Collections.emptyList();
+        try {
+            SilenceIndex silenceIndex = SilenceIndex.read(getSessionDirectory());
+            List<SegmentedRecordingStore.Segment> segments = getRecordingSegmentEntries();
+            boolean lastSegment = recordingStore == null && segments.isEmpty() == false && segments.get(segments.size() - 1).index == segment.index;
+            return silenceIndex.getMarkers(segment.byteOffset, lastSegment ? Long.MAX_VALUE : segment.byteOffset + segment.dataSize);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read silence index: " + e);
+            return Collections.emptyList();
+        }
+    }
+
+    // Offset of the first sample in the recorded file
+    private long getRecordingDataOffset()
+    {
+        return recordToWav ? WavEncoder.WAV_HEADER_SIZE : 0;
+    }
+
+    // Rate of the recorded session, the seekbar may have been moved since; falls back to the seekbar rate
+    private int getRecordingSampleRate()
+    {
+        SegmentedRecordingStore store = recordingStore;
+        if(store != null)
+            return store.getSampleRate();
+        try {
+            int recordedRate = SegmentedRecordingStore.readSampleRate(getSessionDirectory());
+            if(recordedRate > 0)
+                return recordedRate;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read session index: " + e);
         }
+        return sampleRate;
+    }
 
+    private PcmSink createRecordingSink() {
         try {
-            os.close();
+            recordingStore = new SegmentedRecordingStore(getSessionDirectory(), sampleRate, channelNumber, bitDepth, recordToWav, recordingFormat, segmentMaxDurationMs, segmentMaxBytes);
+            if(skipSilence == false)
+                return recordingStore;
+            VoiceActivityDetector detector = new VoiceActivityDetector(sampleRate, channelNumber, vadHangoverMs, VoiceActivityDetector.DEFAULT_MARGIN_DB);
+            vadGateSink = new VadGateSink(recordingStore, detector, new SilenceIndex.Writer(getSessionDirectory()), sampleRate, channelNumber, vadPreRollMs);
+            return vadGateSink;
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
         }
     }
 
+    // Called by the capture writer thread on each block read from the microphone (direct buffer in native order)
+    private void processCapturedBlock(ByteBuffer block) {
+        LatencyTracer.Trace trace = recordingTrace;
+        if(trace.isFinished() == false)
+            trace.finish(capturePipeline.getFirstReadNanos());
+        PcmGain.applyGainQ15(block, PcmGain.toQ15(recordingGain));
+        recordingStatistics.update(block);
+        peakBuilder.update(block);
+    }
+
+    /*
+        Transfer the recording into the MediaStore, the samples are only re-encoded when a gain must be applied,
+        when the recording is compressed (decoded to PCM, MediaPlayer does not read IMA-ADPCM everywhere)
+        or when silences removed by the VAD must be put back
+     */
+    private Uri exportRecordingToMediaStore(File recordedFile, float gain, LatencyTracer.Trace trace) throws IOException
+    {
+        return exportRecordingToMediaStore(recordedFile, gain, getRecordingSampleRate(), trace);
+    }
+
+    // Same as above, the samples are also re-encoded when exportSampleRate differs from the recording rate
+    private Uri exportRecordingToMediaStore(File recordedFile, float gain, int exportSampleRate, LatencyTracer.Trace trace) throws IOException
+    {
+        int recordingSampleRate = getRecordingSampleRate();
+        WavHeader header = WavHeader.read(recordedFile);
+        SegmentedRecordingStore.Segment segment = getSegmentEntry(recordedFile);
+        List<SilenceIndex.Marker> silences = getSegmentSilences(segment);
+        if(header != null && header.isPcm() && gain == 1.0f && exportSampleRate == recordingSampleRate && silences.isEmpty())
+            return MediaFileUtils.insertFileIntoMediaStore(this, recordedFile, trace);
+        long streamOffset = segment != null ? segment.byteOffset : 0;
+        return MediaFileUtils.encodePCMtoWavThenTransferFileToMediaStore(this, recordedFile, getRecordingDataOffset(), recordingSampleRate, exportSampleRate, channelNumber, bitDepth, gain, silences, streamOffset, trace);
+    }
+
 
     private void stopRecording(){
+        // Already stopping, the pipeline is cleared by onRecordingStopped()
+        if(isRecording == false && capturePipeline != null)
+            return;
         isRecording = false;
+        uiHandler.removeCallbacks(captureMetricsRefresh);
+        if(null != capturePipeline){
+            // The writer thread writes the pending blocks and patches the WAV header, the UI thread is not blocked
+            PeakPyramid.Builder builder = peakBuilder;
+            capturePipeline.stop(() -> {
+                // The segments are closed, the peaks are written on the writer thread too
+                try {
+                    builder.write(getSessionDirectory());
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not write waveform peaks: " + e);
+                }
+                runOnUiThread(this::onRecordingStopped);
+            });
+            return;
+        }
+        onRecordingStopped();
+    }
+
+    // Second half of stopRecording(), once the capture threads are done
+    private void onRecordingStopped(){
+        if(null != capturePipeline){
+            TextView tvCaptureMetrics = findViewById(R.id.tvCaptureMetrics);
+            tvCaptureMetrics.setText(capturePipeline.getMetricsSnapshot().toSummary());
+            capturePipeline = null;
+            recordingStore = null;
+            peakBuilder = null;
+            if(vadGateSink != null)
+            {
+                Log.d(TAG, "VAD removed " + vadGateSink.getSkippedBytes() + " of " + vadGateSink.getDataSize() + " bytes");
+                vadGateSink = null;
+            }
+        }
         if(null != recorder){
             Log.w(TAG, "StopRecording");
             //recAudioManager.setMode(AudioManager.MODE_NORMAL);
             recorder.stop();
-            recorder.release();
+            // Kept for the next recording at this rate
+            recordEndpoints.recycle(recorder);
             recorder = null;
-            recordingThread = null;
         }
-        if (audioManager.isBluetoothScoOn()) {
-            Log.w(TAG, "Disconnect BTSCO Record");
-            startBluetoothSCOAudio(false);
+        if (recordingScoLease != null) {
+            // The link stays up for the idle timeout, a playback started in the meantime reuses it
+            Log.w(TAG, "Release BTSCO Record");
+            recordingScoLease.release();
+            recordingScoLease = null;
         }
         else {
             Log.d(TAG, "BTSCO is not connected");
         }
         audioManager.setMode(AudioManager.MODE_NORMAL);
-        File recordedFile = new File(getFilename());
-        if(recordedFile.exists())
+        List<File> segments = getRecordingSegments();
+        if(segments.isEmpty() == false)
         {
-            Log.d(TAG, "File exists:" + recordedFile.getPath());
+            Log.d(TAG, "Recorded segments: " + segments.size() + " in " + getSessionDirectory().getPath());
+            Log.d(TAG, "Recording peak: " + recordingStatistics.getPeakDbfs() + " dBFS");
         }
+        refreshWaveform();
+        // The next playback runs at the rate of this recording
+        prepareAudioEndpoints();
     }
 
-    public void playWithMediaPlayer() {
-        File recordedFile = new File(getFilename());
-        if(recordedFile.exists())
-        {
-            if (isHeadsetConnected()) {
-                startBluetoothSCOAudio(true);
-                routeAudioToHeadset(true);
+    // Draw the overview of the session from its peak sidecar (rebuilt from the segments when it is out of date)
+    private void refreshWaveform()
+    {
+        WaveformView waveformView = findViewById(R.id.wvRecording);
+        int columns = waveformView.getColumnCount();
+        long dataOffset = getRecordingDataOffset();
+        submitWork("Waveform overview", task -> {
+            short[] min = new short[columns];
+            short[] max = new short[columns];
+            long startTime = System.nanoTime();
+            PeakPyramid pyramid = PeakPyramid.load(getSessionDirectory(), dataOffset, channelNumber);
+            if(pyramid == null) {
+                runOnUiThread(() -> waveformView.clear());
+                return;
             }
+            pyramid.readOverview(columns, min, max);
+            Log.d(TAG, "Waveform overview loaded in " + (System.nanoTime() - startTime) / 1000 + " us");
+            runOnUiThread(() -> waveformView.setColumns(min, max));
+        });
+    }
 
+    // Work tasks are rejected when too many are already queued
+    private void submitWork(String name, AudioTaskExecutor.TaskBody body)
+    {
+        AudioTaskExecutor.AudioTask task = audioTasks.submit(name, body);
+        if(task.getState() == AudioTaskExecutor.AudioTask.State.REJECTED)
+            runOnUiThread(() -> Toast.makeText(this, "Busy, " + name + " not started.", Toast.LENGTH_SHORT).show());
+    }
 
+    /*
+        Play a MediaPlayer prepared on the calling task thread and wait for its completion,
+        returns false when the task was cancelled (the player is then stopped).
+        The trace is finished once the player is started.
+     */
+    private boolean playAndWait(AudioTaskExecutor.AudioTask task, MediaPlayer mediaPlayer, LatencyTracer.Trace trace) throws InterruptedException
+    {
+        CountDownLatch completion = new CountDownLatch(1);
+        mediaPlayer.setOnCompletionListener(mp -> completion.countDown());
+        task.setCancelHook(completion::countDown);
+        try {
+            long startStart = System.nanoTime();
+            mediaPlayer.start();
+            trace.span("MediaPlayer start", startStart);
+            trace.finish();
+            completion.await();
+        } finally {
+            task.setCancelHook(null);
+            if(task.isCancelled())
+                mediaPlayer.stop();
+            mediaPlayer.release();
+        }
+        return !task.isCancelled();
+    }
+
+    public void playWithMediaPlayer(AudioTaskExecutor.AudioTask task, LatencyTracer.Trace trace) throws InterruptedException {
+        trace.span("Task start", trace.getBeginNanos());
+        List<File> segments = getRecordingSegments();
+        if(segments.isEmpty() == false)
+        {
+            ScoLinkManager.Lease scoLease = acquireScoLink("MediaPlayer", trace);
+            if (scoLease != null) {
+                routeAudioToHeadset(trace);
+            }
 
             int maxVolume = audioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC);
             audioManager.setStreamVolume(AudioManager.STREAM_MUSIC, maxVolume,0);
 
-
-                Uri fileAsUri = null;
-                try {
-                    fileAsUri = MediaFileUtils.encodePCMtoWavThenTransferFileToMediaStore(this, recordedFile, sampleRate, channelNumber, bitDepth, replayGain);
-                } catch (IOException e) {
-                    Log.e(TAG, "Exception: " + e);
-                    e.printStackTrace();
-                    return;
+            try {
+                // Segments are exported and played one after the other
+                for (File segment : segments) {
+                    if(task.isCancelled() || playSegmentWithMediaPlayer(task, segment, trace) == false)
+                        break;
                 }
+            } finally {
+                if (scoLease != null)
+                    scoLease.release();
+            }
+        }
+        else
+        {
+            runOnUiThread(() -> Toast.makeText(this, "No recorded data found.", Toast.LENGTH_SHORT).show());
+        }
+    }
 
-                // Create AudioAttributes
-                AudioAttributes audioAttributes = new AudioAttributes.Builder()
-                        .setUsage(AudioAttributes.USAGE_VOICE_COMMUNICATION)
-                        // Do not use speech channel as it gives lower quality
-                        //.setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
-                        .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
-                        .build();
+    // Returns false when the segment could not be played or the task was cancelled
+    private boolean playSegmentWithMediaPlayer(AudioTaskExecutor.AudioTask task, File recordedFile, LatencyTracer.Trace trace) throws InterruptedException {
+        Uri fileAsUri = null;
+        try {
+            // The replay gain is baked into the exported file as before, it also plays outside the app;
+            // the WAV recording is copied as is when there is no gain to apply
+            fileAsUri = exportRecordingToMediaStore(recordedFile, replayGain, trace);
+        } catch (IOException e) {
+            Log.e(TAG, "Exception: " + e);
+            e.printStackTrace();
+            return false;
+        }
 
+        // Create AudioAttributes
+        AudioAttributes audioAttributes = new AudioAttributes.Builder()
+                .setUsage(AudioAttributes.USAGE_VOICE_COMMUNICATION)
+                // Do not use speech channel as it gives lower quality
+                //.setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+                .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                .build();
 
-                MediaPlayer mediaPlayer = new MediaPlayer();
-
-                mediaPlayer.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
-                    @Override
-                    public void onPrepared(MediaPlayer mediaPlayer) {
-                        // Step 3: Create and configure LoudnessEnhancer
-                        int audioSessionId = mediaPlayer.getAudioSessionId();
-                        LoudnessEnhancer loudnessEnhancer = new LoudnessEnhancer(audioSessionId);
-                        loudnessEnhancer.setTargetGain((int)(replayGain * 1000.0f)); // Set the target gain in millibels
-                        loudnessEnhancer.setEnabled(true);
-                        mediaPlayer.start();
-                    }
-                });
-
-
-                mediaPlayer.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
-                    @Override
-                    public void onCompletion(MediaPlayer mp) {
-                        mp.stop();
-                        mp.release();
-                        if (audioManager.isBluetoothScoOn()) {
-                            Log.w(TAG, "Stop play Disconnect BTSCO play");
-                            startBluetoothSCOAudio(false);
-                        } else
-                            Log.w(TAG, "play BTSCO is not connected");
-
-                    }
-                });
-                try {
-                    mediaPlayer.setVolume(1.0f,1.0f);
-                    mediaPlayer.setAudioAttributes(audioAttributes);
-                    mediaPlayer.setDataSource(this, fileAsUri);
-                    mediaPlayer.prepareAsync();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+
+        MediaPlayer mediaPlayer = new MediaPlayer();
+        try {
+            mediaPlayer.setVolume(1.0f,1.0f);
+            mediaPlayer.setAudioAttributes(audioAttributes);
+            mediaPlayer.setDataSource(this, fileAsUri);
+            // Prepared on the task thread, the UI thread is never blocked
+            long prepareStart = System.nanoTime();
+            mediaPlayer.prepare();
+            trace.span("MediaPlayer prepare", prepareStart);
+        } catch (Exception e) {
+            e.printStackTrace();
+            mediaPlayer.release();
+            return false;
         }
-        else
-        {
-            Toast.makeText(this, "No recorded data found.", Toast.LENGTH_SHORT).show();
+
+        // Create and configure LoudnessEnhancer
+        int audioSessionId = mediaPlayer.getAudioSessionId();
+        LoudnessEnhancer loudnessEnhancer = new LoudnessEnhancer(audioSessionId);
+        loudnessEnhancer.setTargetGain((int)(replayGain * 1000.0f)); // Set the target gain in millibels
+        loudnessEnhancer.setEnabled(true);
+        try {
+            return playAndWait(task, mediaPlayer, trace);
+        } finally {
+            loudnessEnhancer.release();
         }
     }
 
-    private void playWithMediaPlayerOld()
+    private void playWithMediaPlayerOld(AudioTaskExecutor.AudioTask task, LatencyTracer.Trace trace) throws InterruptedException
     {
-        File recordedFile = new File(getFilename());
-        if(recordedFile.exists())
+        trace.span("Task start", trace.getBeginNanos());
+        List<File> segments = getRecordingSegments();
+        if(segments.isEmpty() == false)
         {
-            if (isHeadsetConnected()) {
-                startBluetoothSCOAudio(true);
-            }
+            ScoLinkManager.Lease scoLease = acquireScoLink("MediaPlayer voice call", trace);
 
-            Uri fileAsUri = null;
             try {
-                fileAsUri = MediaFileUtils.encodePCMtoWavThenTransferFileToMediaStore(this, recordedFile, sampleRate, channelNumber, bitDepth, replayGain);
-            } catch (IOException e) {
-                Log.e(TAG, "Exception: " + e);
-                e.printStackTrace();
-                return;
-            }
-
-            MediaPlayer mediaPlayer = new MediaPlayer();
-
-            mediaPlayer.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
-                @Override
-                public void onCompletion(MediaPlayer mp) {
-                    mp.stop();
-                    mp.release();
-                    if (audioManager.isBluetoothScoOn()) {
-                        Log.w(TAG, "Stop play Disconnect BTSCO play");
-                        startBluetoothSCOAudio(false);
-                    } else
-                        Log.w(TAG, "play BTSCO is not connected");
-
+                for (File segment : segments) {
+                    if(task.isCancelled() || playSegmentWithMediaPlayerOld(task, segment, trace) == false)
+                        break;
                 }
-            });
-            try {
-                mediaPlayer.setDataSource(this, fileAsUri);
-                mediaPlayer.setAudioStreamType(AudioManager.STREAM_VOICE_CALL);
-                mediaPlayer.prepare();
-                mediaPlayer.start();
-            } catch (Exception e) {
-                e.printStackTrace();
+            } finally {
+                if (scoLease != null)
+                    scoLease.release();
             }
         }
         else
         {
-            Toast.makeText(this, "No recorded data found.", Toast.LENGTH_SHORT).show();
+            runOnUiThread(() -> Toast.makeText(this, "No recorded data found.", Toast.LENGTH_SHORT).show());
+        }
+    }
+
+    private boolean playSegmentWithMediaPlayerOld(AudioTaskExecutor.AudioTask task, File recordedFile, LatencyTracer.Trace trace) throws InterruptedException
+    {
+        Uri fileAsUri = null;
+        try {
+            // The voice call stream goes to the SCO link when a headset is connected
+            int exportSampleRate = isHeadsetConnected() ? scoSampleRate : getRecordingSampleRate();
+            fileAsUri = exportRecordingToMediaStore(recordedFile, replayGain, exportSampleRate, trace);
+        } catch (IOException e) {
+            Log.e(TAG, "Exception: " + e);
+            e.printStackTrace();
+            return false;
+        }
+
+        MediaPlayer mediaPlayer = new MediaPlayer();
+        try {
+            mediaPlayer.setDataSource(this, fileAsUri);
+            mediaPlayer.setAudioStreamType(AudioManager.STREAM_VOICE_CALL);
+            long prepareStart = System.nanoTime();
+            mediaPlayer.prepare();
+            trace.span("MediaPlayer prepare", prepareStart);
+        } catch (Exception e) {
+            e.printStackTrace();
+            mediaPlayer.release();
+            return false;
         }
+        return playAndWait(task, mediaPlayer, trace);
     }
 
     private boolean isHeadsetConnected() {
@@ -629,65 +1177,66 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /*
-        TODO: find why sometimes the
-    */
-    private void playPcmFileWithAudioTrack(boolean manualGain) {
-        byte[] audioData = null;
-        File fileToPlay = new File(getFilename());
-        if(fileToPlay.exists())
-        {
-            try {
-                audioData = FileUtils.readFileToByteArray(fileToPlay);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        }
-        else
-        {
-            Toast.makeText(this, "No recorded data found.", Toast.LENGTH_SHORT).show();
+        Play [startMs, endMs) of the recording (silences removed by the VAD included), endMs <= 0 plays until the end.
+        Runs on the playback task thread, cancelling the task stops the playback.
+     */
+    private void playPcmFileWithAudioTrack(AudioTaskExecutor.AudioTask task, LatencyTracer.Trace trace, boolean manualGain, long startMs, long endMs) throws InterruptedException {
+        trace.span("Task start", trace.getBeginNanos());
+        long indexStart = System.nanoTime();
+        TimeIndex.Range range = null;
+        try {
+            TimeIndex timeIndex = TimeIndex.read(getSessionDirectory(), channelNumber);
+            if(timeIndex != null)
+                range = timeIndex.getRange(startMs, endMs);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read session index: " + e);
         }
-
-        if(audioData == null)
+        if(range == null)
         {
-            Toast.makeText(this, "Error while playing pcm file : audioData == null", Toast.LENGTH_LONG).show();
+            runOnUiThread(() -> Toast.makeText(this, "No recorded data found.", Toast.LENGTH_SHORT).show());
             return;
         }
-
-        if (isHeadsetConnected()) {
-            startBluetoothSCOAudio(true);
-            routeAudioToHeadset(true);
+        trace.span("Session index read", indexStart);
+
+        // Play at the rate the session was recorded at, or at the SCO rate when routed to the headset
+        int trackSampleRate = getRecordingSampleRate();
+        ScoLinkManager.Lease scoLease = acquireScoLink("AudioTrack", trace);
+        if (scoLease != null) {
+            routeAudioToHeadset(trace);
+            trackSampleRate = scoSampleRate;
         }
+        try {
+            playRangeWithAudioTrack(task, trace, range, manualGain, trackSampleRate);
+        } finally {
+            if (scoLease != null)
+                scoLease.release();
+        }
+    }
 
-        AudioAttributes audioAttributes = new AudioAttributes.Builder()
-                .setUsage(AudioAttributes.USAGE_MEDIA)
-                .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
-                .build();
-
-        AudioFormat format = new AudioFormat.Builder()
-                .setSampleRate(sampleRate)
-                .setEncoding(audioFormat)
-                .setChannelMask(channelOutConfig)
-                .build();
+    private void playRangeWithAudioTrack(AudioTaskExecutor.AudioTask task, LatencyTracer.Trace trace, TimeIndex.Range range, boolean manualGain, int trackSampleRate) {
+        List<File> filesToPlay = range.files;
+        int recordingSampleRate = getRecordingSampleRate();
 
-        int bufferSize = AudioTrack.getMinBufferSize(sampleRate, channelOutConfig, audioFormat);
-        AudioTrack audioTrack = new AudioTrack(
-                audioAttributes,
-                format,
-                bufferSize,
-                AudioTrack.MODE_STREAM,
-                AudioManager.AUDIO_SESSION_ID_GENERATE
-        );
+        // Prepared ahead of time when possible, created here otherwise
+        long createStart = System.nanoTime();
+        int bufferSize = AudioTrack.getMinBufferSize(trackSampleRate, channelOutConfig, audioFormat);
+        AudioTrack audioTrack = trackEndpoints.acquire(getTrackEndpointKey(trackSampleRate));
+        trace.span("AudioTrack create", createStart);
+        if(audioTrack == null)
+        {
+            Log.e(TAG, "UNSUPPORTED Output Parameter, track instance NOT created");
+            return;
+        }
 
         // We'll use the loudness enhancer to change gain
-        if(manualGain)
-            audioData = MediaFileUtils.applyGain(audioData, audioData.length, replayGain);
-        else
+        LoudnessEnhancer loudnessEnhancer = null;
+        if(manualGain == false)
         {
             // Setup LoudnessEnhancer
             int audioSessionId = audioTrack.getAudioSessionId();
 
             // Create and configure LoudnessEnhancer
-            LoudnessEnhancer loudnessEnhancer = new LoudnessEnhancer(audioSessionId);
+            loudnessEnhancer = new LoudnessEnhancer(audioSessionId);
             loudnessEnhancer.setTargetGain((int)(replayGain * 1000.0f)); // Set the target gain in millibels
             loudnessEnhancer.setEnabled(true);
         }
@@ -695,15 +1244,103 @@ public class MainActivity extends AppCompatActivity {
         // Set audiotrack volume to max
         audioTrack.setVolume(1.0f);
 
-        // Play
-        audioTrack.play();
-        audioTrack.write(audioData, 0, audioData.length);
-        audioTrack.stop();
-        audioTrack.release();
+        // Play, the file is streamed block by block and gain is applied per block when manualGain is set
+        PcmStreamPlayer player = new PcmStreamPlayer(audioTrack, filesToPlay, getRecordingDataOffset(), manualGain ? replayGain : 1.0f,
+                Math.max(bufferSize, PcmStreamPlayer.DEFAULT_BLOCK_SIZE), PcmStreamPlayer.DEFAULT_BLOCK_COUNT);
+        player.setSampleRates(recordingSampleRate, trackSampleRate, channelNumber);
+        try {
+            // Put back the silences removed while recording
+            player.setSilenceIndex(SilenceIndex.read(getSessionDirectory()));
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read silence index: " + e);
+        }
+        player.setRange(range);
+        currentPlayer = player;
+        task.setCancelHook(player::stop);
+        try {
+            player.play();
+        } finally {
+            task.setCancelHook(null);
+            currentPlayer = null;
+            // The effect stays on the audio session otherwise, the track is reused by the next playback
+            if(loudnessEnhancer != null)
+                loudnessEnhancer.release();
+            trackEndpoints.recycle(audioTrack);
+            // play() returns at the end of the playback, the trace ends when AudioTrack.play() returned
+            if(player.getStartNanos() != 0)
+                trace.finish(player.getStartNanos());
+        }
+    }
+
+    private static long parseSecondsToMs(String seconds, long defaultMs)
+    {
+        try {
+            return Math.round(Double.parseDouble(seconds.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            return defaultMs;
+        }
+    }
+
+    private void pauseOrResumePlayback()
+    {
+        PcmStreamPlayer player = currentPlayer;
+        if(player == null)
+            return;
+        if(player.isPaused())
+            player.resume();
+        else
+            player.pause();
+    }
+
+    private void stopPlayback()
+    {
+        audioTasks.cancelPlayback();
+    }
+
+    // Time to first audio report of this session, written next to the recording
+    private void exportLatencyReport()
+    {
+        String report = latencyTracer.getReport(Build.MANUFACTURER + " " + Build.MODEL + ", Android " + Build.VERSION.RELEASE);
+        Log.d(TAG, report);
+        File reportFile = new File(getSessionDirectory(), "latency_report.txt");
+        try (FileWriter writer = new FileWriter(reportFile)) {
+            writer.write(report);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write latency report: " + e);
+            runOnUiThread(() -> Toast.makeText(this, "Could not write latency report.", Toast.LENGTH_SHORT).show());
+            return;
+        }
+        runOnUiThread(() -> Toast.makeText(this, "Latency report written to " + reportFile.getPath(), Toast.LENGTH_LONG).show());
+    }
+
+    // Lossless copy of each segment in the MediaStore, named after the segment file
+    private void exportRecordingToFlac(AudioTaskExecutor.AudioTask task)
+    {
+        List<File> segments = getRecordingSegments();
+        if(segments.isEmpty())
+        {
+            runOnUiThread(() -> Toast.makeText(this, "No recorded data found.", Toast.LENGTH_SHORT).show());
+            return;
+        }
 
-        if (audioManager.isBluetoothScoOn()) {
-            startBluetoothSCOAudio(false);
-        } // To check if BT Headset is available to connect SCO and record via BT
+        int recordingSampleRate = getRecordingSampleRate();
+        int exported = 0;
+        for(File segment : segments)
+        {
+            if(task.isCancelled())
+                break;
+            String displayName = segment.getName().replaceFirst("\\.[^.]*$", "") + ".flac";
+            SegmentedRecordingStore.Segment entry = getSegmentEntry(segment);
+            long streamOffset = entry != null ? entry.byteOffset : 0;
+            try {
+                MediaFileUtils.encodePCMtoFlacThenTransferFileToMediaStore(this, segment, getRecordingDataOffset(), displayName, recordingSampleRate, channelNumber, bitDepth, getSegmentSilences(entry), streamOffset);
+                exported++;
+            } catch (IOException e) {
+                Log.e(TAG, "FLAC export of " + segment.getName() + " failed: " + e);
+            }
+        }
+        int exportedCount = exported;
+        runOnUiThread(() -> Toast.makeText(this, "Exported " + exportedCount + "/" + segments.size() + " segments to FLAC.", Toast.LENGTH_SHORT).show());
     }
 
     private void checkIfZebraDeviceToGrantAllPermissions()
@@ -844,90 +1481,66 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private void activateMaximumAudioProfile()
+    // The profile session is created on first use: the EMDK classes are only available on Zebra devices
+    private EMDKUtils getProfileSession()
     {
-        if(emdkUtils == null) {
+        if(emdkUtils == null)
             emdkUtils = new EMDKUtils(this);
-            emdkUtils.activateVolumeProfile("MAXIMUM", new EMDKUtils.IResultCallbacks() {
-                @Override
-                public void onSuccess(String message, String resultXML) {
-                    Toast.makeText(MainActivity.this, "Profile applied with success", Toast.LENGTH_LONG).show();
-                    emdkUtils = null;
-                }
+        return emdkUtils;
+    }
 
-                @Override
-                public void onError(String message, String resultXML) {
-                    Toast.makeText(MainActivity.this, "Error applying profile.\nCheck logcat.", Toast.LENGTH_LONG).show();
-                    emdkUtils = null;
-                }
+    // Profile callbacks run on the profile thread, the success toast shows the time since the tap
+    private EMDKUtils.IResultCallbacks profileToastCallbacks(final String successMessage, final String errorMessage)
+    {
+        final long startTime = System.nanoTime();
+        return new EMDKUtils.IResultCallbacks() {
+            @Override
+            public void onSuccess(String message, String resultXML) {
+                long elapsedMs = (System.nanoTime() - startTime) / 1000000;
+                runOnUiThread(() -> Toast.makeText(MainActivity.this, successMessage + " in " + elapsedMs + " ms", Toast.LENGTH_LONG).show());
+            }
 
-                @Override
-                public void onDebugStatus(String message) {
+            @Override
+            public void onError(String message, String resultXML) {
+                runOnUiThread(() -> Toast.makeText(MainActivity.this, errorMessage, Toast.LENGTH_LONG).show());
+            }
 
-                }
-            });
-        }
-        else
-        {
-            Toast.makeText(MainActivity.this, "Please wait.\nProfileManager is already running.", Toast.LENGTH_SHORT).show();
-        }
+            @Override
+            public void onDebugStatus(String message) {
+
+            }
+        };
     }
 
-    private void createMaximumAudioProfile()
+    private void activateMaximumAudioProfile()
     {
-        if(emdkUtils == null) {
-            emdkUtils = new EMDKUtils(this);
-            emdkUtils.createAudioVolUIProfileToMAXIMUM("MAXIMUM", new EMDKUtils.IResultCallbacks() {
-                @Override
-                public void onSuccess(String message, String resultXML) {
-                    Toast.makeText(MainActivity.this, "Profile created with success", Toast.LENGTH_LONG).show();
-                    emdkUtils = null;
-                }
+        getProfileSession().activateVolumeProfile("MAXIMUM",
+                profileToastCallbacks("Profile applied with success", "Error applying profile.\nCheck logcat."));
+    }
 
-                @Override
-                public void onError(String message, String resultXML) {
-                    Toast.makeText(MainActivity.this, "Error creating profile.\nCheck logcat.", Toast.LENGTH_LONG).show();
-                    emdkUtils = null;
-                }
+    private void createMaximumAudioProfile()
+    {
+        getProfileSession().createAudioVolUIProfileToMAXIMUM("MAXIMUM",
+                profileToastCallbacks("Profile created with success", "Error creating profile.\nCheck logcat."));
+    }
 
-                @Override
-                public void onDebugStatus(String message) {
+    // Same result as create, activate then adjust, in one profile submission
+    private void applyMaximumVolumeSetup()
+    {
+        getProfileSession().applyMaximumVolumeSetup("MAXIMUM",
+                profileToastCallbacks("Volume setup applied with success", "Error applying volume setup.\nCheck logcat."));
+    }
 
-                }
-            });
-        }
-        else
-        {
-            Toast.makeText(MainActivity.this, "Please wait.\nProfileManager is already running.", Toast.LENGTH_SHORT).show();
-        }
+    // Only the MAXIMUM levels that differ from the device state are submitted
+    private void updateMaximumVolumeLevels()
+    {
+        getProfileSession().updateUIProfileLevels("MAXIMUM", AudioVolUIProfileBuilder.MAXIMUM_STREAM_LEVELS,
+                profileToastCallbacks("Volume levels updated with success", "Error updating volume levels.\nCheck logcat."));
     }
 
     private void adjustVolumeToCurrentPreset()
     {
-        if(emdkUtils == null) {
-            emdkUtils = new EMDKUtils(this);
-            emdkUtils.adjustVolumeToCurrentPreset(new EMDKUtils.IResultCallbacks() {
-                @Override
-                public void onSuccess(String message, String resultXML) {
-                    Toast.makeText(MainActivity.this, "Volume adjusted with success", Toast.LENGTH_LONG).show();
-                    emdkUtils = null;
-                }
-
-                @Override
-                public void onError(String message, String resultXML) {
-                    Toast.makeText(MainActivity.this, "Error adjusting volume.\nCheck logcat.", Toast.LENGTH_LONG).show();
-                    emdkUtils = null;
-                }
-
-                @Override
-                public void onDebugStatus(String message) {
-
-                }
-            });
-        }
-        else
-        {
-            Toast.makeText(MainActivity.this, "Please wait.\nProfileManager is already running.", Toast.LENGTH_SHORT).show();
-        }
+        getProfileSession().adjustVolumeToCurrentPreset(
+                profileToastCallbacks("Volume adjusted with success", "Error adjusting volume.\nCheck logcat."));
     }
 }
@@ -0,0 +1,148 @@
+package com.zebra.hsdemo;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+    Memory mapped access to the samples of a 16 bits PCM recording (headerless PCM or PCM WAV).
+    The data is mapped window by window with FileChannel.map, the samples are handed out as little
+    endian views of the current window: nothing is copied on the Java heap and the page cache does
+    the buffering, so the file size is not limited by the heap or by 32 bits array indexes.
+    A window stays mapped until the next one is needed, the mappings are released by the GC.
+    Compressed recordings can't be mapped, read them with a PcmFileReader.
+ */
+public class MappedPcmReader implements Closeable {
+
+    // Small enough to find room in the address space of 32 bits devices
+    public static final int DEFAULT_WINDOW_SIZE = 4 * 1024 * 1024;
+
+    private final FileInputStream mInput;
+    private final FileChannel mChannel;
+    private final long mDataOffset;
+    private final long mDataSize;
+    private final int mWindowSize;
+
+    private MappedByteBuffer mWindow = null;
+    // Position of the mapped window and of the next sequential read, in bytes from the first sample
+    private long mWindowStart = 0;
+    private long mPosition = 0;
+
+    /*
+        Map dataSize bytes of channel from dataOffset (clamped to the file size). The channel stays owned
+        by the caller when input is null. windowSize is rounded down to whole samples.
+     */
+    MappedPcmReader(FileInputStream input, FileChannel channel, long dataOffset, long dataSize, int windowSize) throws IOException {
+        mInput = input;
+        mChannel = channel;
+        mDataOffset = dataOffset;
+        mDataSize = Math.max(0, Math.min(dataSize, channel.size() - dataOffset));
+        mWindowSize = Math.max(2, windowSize & ~1);
+    }
+
+    /*
+        Open a PCM recording. rawDataOffset is the position of the first sample when the file is not
+        a WAV file, it is ignored for WAV files. Throws an IOException for compressed WAV files.
+     */
+    public static MappedPcmReader open(File file, long rawDataOffset) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel channel = input.getChannel();
+            WavHeader header = WavHeader.read(channel);
+            if (header == null)
+                return new MappedPcmReader(input, channel, rawDataOffset, Long.MAX_VALUE, DEFAULT_WINDOW_SIZE);
+            if (!header.isPcm() || header.bitsPerSample != 16)
+                throw new IOException("Only 16 bits PCM recordings can be mapped: " + file.getPath());
+            return new MappedPcmReader(input, channel, header.dataOffset, header.dataSize, DEFAULT_WINDOW_SIZE);
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    // Size of the sample data in bytes
+    public long getDataSize() {
+        return mDataSize;
+    }
+
+    public long getSampleCount() {
+        return mDataSize / 2;
+    }
+
+    // Position of the next sequential read in bytes from the first sample
+    public long getPosition() {
+        return mPosition;
+    }
+
+    public void setPosition(long position) {
+        mPosition = Math.max(0, Math.min(position, mDataSize));
+    }
+
+    /*
+        Read only little endian view of up to maxBytes bytes from the current position, which is moved
+        behind them. The view never spans two windows so it can be shorter than requested, null at the end of the data.
+     */
+    public ByteBuffer nextBytes(int maxBytes) throws IOException {
+        ByteBuffer bytes = getBytes(mPosition, maxBytes);
+        if (bytes != null)
+            mPosition += bytes.remaining();
+        return bytes;
+    }
+
+    // Same as nextBytes() for whole samples
+    public ShortBuffer nextSamples(int maxSamples) throws IOException {
+        ByteBuffer bytes = getBytes(mPosition, maxSamples * 2);
+        if (bytes == null || bytes.remaining() < 2)
+            return null;
+        ShortBuffer samples = bytes.asShortBuffer();
+        mPosition += samples.remaining() * 2L;
+        return samples;
+    }
+
+    /*
+        Random access: read only little endian view of up to count samples from firstSample, the sequential
+        position is not changed. Can return fewer samples at a window boundary, null past the end of the data.
+     */
+    public ShortBuffer getSamples(long firstSample, int count) throws IOException {
+        ByteBuffer bytes = getBytes(firstSample * 2, count * 2);
+        if (bytes == null || bytes.remaining() < 2)
+            return null;
+        return bytes.asShortBuffer();
+    }
+
+    private ByteBuffer getBytes(long position, int maxBytes) throws IOException {
+        if (position < 0 || position >= mDataSize || maxBytes <= 0)
+            return null;
+        mapWindow(position);
+        int start = (int) (position - mWindowStart);
+        int length = Math.min(maxBytes, mWindow.capacity() - start);
+        ByteBuffer view = mWindow.duplicate();
+        view.position(start);
+        view.limit(start + length);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Windows are aligned on multiples of the window size so a sample never spans two of them
+    private void mapWindow(long position) throws IOException {
+        if (mWindow != null && position >= mWindowStart && position < mWindowStart + mWindow.capacity())
+            return;
+        long windowStart = position - position % mWindowSize;
+        long size = Math.min(mWindowSize, mDataSize - windowStart);
+        mWindow = null;
+        mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, mDataOffset + windowStart, size);
+        mWindowStart = windowStart;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWindow = null;
+        if (mInput != null)
+            mInput.close();
+    }
+}
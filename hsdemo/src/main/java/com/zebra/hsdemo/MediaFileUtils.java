@@ -7,151 +7,206 @@ import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Environment;
+import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
+import android.util.Log;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collections;
+import java.util.List;
 
 public class MediaFileUtils {
 
-    public static Uri encodePCMtoWavThenTransferFileToMediaStore(Context context, File sourceFile, int sampleRate, int channels, int bitDepth, float gain) throws IOException {
-        // Convert PCM to WAV
-        File wavFile = new File(context.getExternalFilesDir(Environment.DIRECTORY_MUSIC), "converted_sound_file.wav");
-        if(wavFile.exists())
-            wavFile.delete();
+    private final static String TAG = "MediaFileUtils";
 
-        convertPcmToWav(sourceFile, wavFile, sampleRate, channels, bitDepth, gain);
+    public static final String CONVERTED_FILE_NAME = "converted_sound_file.wav";
+    public static final String CONVERTED_FLAC_FILE_NAME = "converted_sound_file.flac";
 
-        // Insert the WAV file into the MediaStore
-        return insertFileIntoMediaStore(context, wavFile);
-    }
+    // Size of the chunks used when copying an existing file into the MediaStore
+    private static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
 
-    private static void convertPcmToWav(File pcmFile, File wavFile, int sampleRate, int channels, int bitDepth, float gain) throws IOException {
-        byte[] pcmData = new byte[(int) pcmFile.length()];
-        try (FileInputStream fis = new FileInputStream(pcmFile)) {
-            fis.read(pcmData);
-        }
+    public static Uri encodePCMtoWavThenTransferFileToMediaStore(Context context, File sourceFile, int sampleRate, int channels, int bitDepth, float gain) throws IOException {
+        return encodePCMtoWavThenTransferFileToMediaStore(context, sourceFile, 0, sampleRate, channels, bitDepth, gain);
+    }
 
-        pcmData = applyGain(pcmData, pcmData.length, gain);
+    /*
+        dataOffset is the position of the first sample of a headerless PCM file.
+        WAV recordings are recognized by their header and decoded when they are compressed (IMA-ADPCM, G.711).
+     */
+    public static Uri encodePCMtoWavThenTransferFileToMediaStore(Context context, File sourceFile, long dataOffset, int sampleRate, int channels, int bitDepth, float gain) throws IOException {
+        return encodePCMtoWavThenTransferFileToMediaStore(context, sourceFile, dataOffset, sampleRate, sampleRate, channels, bitDepth, gain);
+    }
 
-        try (FileOutputStream fos = new FileOutputStream(wavFile)) {
-            // Write WAV header
-            writeWavHeader(fos, pcmData.length, sampleRate, channels, bitDepth);
-            // Write PCM data
-            fos.write(pcmData);
-        }
+    // Same as above, the samples are converted from sampleRate to exportSampleRate with a PolyphaseResampler
+    public static Uri encodePCMtoWavThenTransferFileToMediaStore(Context context, File sourceFile, long dataOffset, int sampleRate, int exportSampleRate, int channels, int bitDepth, float gain) throws IOException {
+        return encodePCMtoWavThenTransferFileToMediaStore(context, sourceFile, dataOffset, sampleRate, exportSampleRate, channels, bitDepth, gain, LatencyTracer.Trace.NONE);
     }
 
-    private static void writeWavHeader(FileOutputStream fos, int pcmDataLength, int sampleRate, int channels, int bitDepth) throws IOException {
-        int byteRate = sampleRate * channels * bitDepth / 8;
-        int blockAlign = channels * bitDepth / 8;
-        int dataSize = pcmDataLength;
-        int chunkSize = 36 + dataSize;
-
-        fos.write(new byte[] {
-                'R', 'I', 'F', 'F', // ChunkID
-                (byte) (chunkSize & 0xff), (byte) ((chunkSize >> 8) & 0xff), (byte) ((chunkSize >> 16) & 0xff), (byte) ((chunkSize >> 24) & 0xff), // ChunkSize
-                'W', 'A', 'V', 'E', // Format
-                'f', 'm', 't', ' ', // Subchunk1ID
-                16, 0, 0, 0, // Subchunk1Size
-                1, 0, // AudioFormat (PCM)
-                (byte) channels, 0, // NumChannels
-                (byte) (sampleRate & 0xff), (byte) ((sampleRate >> 8) & 0xff), (byte) ((sampleRate >> 16) & 0xff), (byte) ((sampleRate >> 24) & 0xff), // SampleRate
-                (byte) (byteRate & 0xff), (byte) ((byteRate >> 8) & 0xff), (byte) ((byteRate >> 16) & 0xff), (byte) ((byteRate >> 24) & 0xff), // ByteRate
-                (byte) blockAlign, 0, // BlockAlign
-                (byte) bitDepth, 0, // BitsPerSample
-                'd', 'a', 't', 'a', // Subchunk2ID
-                (byte) (dataSize & 0xff), (byte) ((dataSize >> 8) & 0xff), (byte) ((dataSize >> 16) & 0xff), (byte) ((dataSize >> 24) & 0xff) // Subchunk2Size
-        });
+    // Same as above, the MediaStore insert, the WAV conversion and the publication are spans of the trace
+    public static Uri encodePCMtoWavThenTransferFileToMediaStore(Context context, File sourceFile, long dataOffset, int sampleRate, int exportSampleRate, int channels, int bitDepth, float gain, LatencyTracer.Trace trace) throws IOException {
+        return encodePCMtoWavThenTransferFileToMediaStore(context, sourceFile, dataOffset, sampleRate, exportSampleRate, channels, bitDepth, gain, Collections.<SilenceIndex.Marker>emptyList(), 0, trace);
     }
 
-    private static Uri insertFileIntoMediaStore(Context context, File file) {
+    /*
+        Same as above, the silences removed from the source by the voice activity detection are put back
+        before the conversion; streamOffset is the position of the source in the session PCM stream.
+     */
+    public static Uri encodePCMtoWavThenTransferFileToMediaStore(Context context, File sourceFile, long dataOffset, int sampleRate, int exportSampleRate, int channels, int bitDepth, float gain, List<SilenceIndex.Marker> silences, long streamOffset, LatencyTracer.Trace trace) throws IOException {
         ContentResolver contentResolver = context.getContentResolver();
-        Uri externalContentUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-
-        // Check if a file with the same name already exists and delete it
-        String selection = MediaStore.MediaColumns.DISPLAY_NAME + "=?";
-        String[] selectionArgs = new String[]{file.getName()};
-        Cursor cursor = contentResolver.query(externalContentUri, null, selection, selectionArgs, null);
-
-        if (cursor != null && cursor.moveToFirst()) {
-            int id = cursor.getInt(cursor.getColumnIndexOrThrow(MediaStore.MediaColumns._ID));
-            Uri existingFileUri = ContentUris.withAppendedId(externalContentUri, id);
-            contentResolver.delete(existingFileUri, null, null);
-            cursor.close();
+        long insertStart = System.nanoTime();
+        Uri fileUri = createMediaStoreEntry(context, CONVERTED_FILE_NAME, "audio/wav");
+        if(fileUri == null)
+            throw new IOException("Could not create MediaStore entry for " + CONVERTED_FILE_NAME);
+        trace.span("MediaStore insert", insertStart);
+
+        // Encode the PCM data straight into the MediaStore file, no temporary WAV file is written
+        try (ParcelFileDescriptor pfd = contentResolver.openFileDescriptor(fileUri, "rw");
+             PcmFileReader reader = PcmFileReader.open(sourceFile, dataOffset);
+             FileOutputStream out = new FileOutputStream(pfd.getFileDescriptor())) {
+            ReadableByteChannel in = silences.isEmpty() ? reader : new SilenceRestoringChannel(reader, silences, streamOffset);
+            if (exportSampleRate != sampleRate)
+                in = new ResamplingChannel(in, sampleRate, exportSampleRate, channels);
+            long conversionStart = System.nanoTime();
+            WavEncoder.Result result = WavEncoder.encode(in, out.getChannel(), exportSampleRate, channels, bitDepth, gain, WavEncoder.DEFAULT_BLOCK_SIZE);
+            trace.span("WAV conversion", conversionStart);
+            Log.d(TAG, "PCM to WAV conversion into MediaStore: " + result);
+        } catch (IOException e) {
+            contentResolver.delete(fileUri, null, null);
+            throw e;
         }
 
-        // Insert the new file
-        ContentValues values = new ContentValues();
-        values.put(MediaStore.MediaColumns.DISPLAY_NAME, file.getName());
-        values.put(MediaStore.MediaColumns.MIME_TYPE, "audio/wav");
-        values.put(MediaStore.MediaColumns.RELATIVE_PATH, Environment.DIRECTORY_MUSIC + "/MyMediaFiles");
+        long publishStart = System.nanoTime();
+        publishMediaStoreEntry(context, fileUri);
+        trace.span("MediaStore publish", publishStart);
+        return fileUri;
+    }
 
-        Uri fileUri = contentResolver.insert(externalContentUri, values);
+    /*
+        Lossless export: the recording (headerless PCM or any WAV recording format) is encoded to FLAC
+        straight into the MediaStore under displayName.
+     */
+    public static Uri encodePCMtoFlacThenTransferFileToMediaStore(Context context, File sourceFile, long dataOffset, String displayName, int sampleRate, int channels, int bitDepth) throws IOException {
+        return encodePCMtoFlacThenTransferFileToMediaStore(context, sourceFile, dataOffset, displayName, sampleRate, channels, bitDepth, Collections.<SilenceIndex.Marker>emptyList(), 0);
+    }
 
-        try (OutputStream out = contentResolver.openOutputStream(fileUri)) {
-            FileInputStream in = new FileInputStream(file);
-            byte[] buffer = new byte[1024];
-            int length;
-            while ((length = in.read(buffer)) > 0) {
-                out.write(buffer, 0, length);
-            }
+    // Same as above, the silences removed by the voice activity detection are put back, see encodePCMtoWavThenTransferFileToMediaStore()
+    public static Uri encodePCMtoFlacThenTransferFileToMediaStore(Context context, File sourceFile, long dataOffset, String displayName, int sampleRate, int channels, int bitDepth, List<SilenceIndex.Marker> silences, long streamOffset) throws IOException {
+        ContentResolver contentResolver = context.getContentResolver();
+        Uri fileUri = createMediaStoreEntry(context, displayName, "audio/flac");
+        if(fileUri == null)
+            throw new IOException("Could not create MediaStore entry for " + displayName);
+
+        try (ParcelFileDescriptor pfd = contentResolver.openFileDescriptor(fileUri, "rw");
+             PcmFileReader reader = PcmFileReader.open(sourceFile, dataOffset);
+             FileOutputStream out = new FileOutputStream(pfd.getFileDescriptor())) {
+            ReadableByteChannel in = silences.isEmpty() ? reader : new SilenceRestoringChannel(reader, silences, streamOffset);
+            WavEncoder.Result result = FlacEncoder.encode(in, out.getChannel(), sampleRate, channels, bitDepth, 1.0f, FlacEncoder.DEFAULT_BLOCK_SIZE);
+            Log.d(TAG, "PCM to FLAC conversion into MediaStore: " + result + ", FLAC size: " + out.getChannel().size());
         } catch (IOException e) {
-            e.printStackTrace();
+            contentResolver.delete(fileUri, null, null);
+            throw e;
         }
 
+        publishMediaStoreEntry(context, fileUri);
         return fileUri;
     }
 
-
-    public static byte[] applyGain(byte[] buffer, int read, float gain) {
-        for (int i = 0; i < read; i += 2) {
-            short sample = (short) ((buffer[i] & 0xFF) | (buffer[i + 1] << 8));
-            sample = (short) Math.min(Math.max(sample * gain, Short.MIN_VALUE), Short.MAX_VALUE);
-            buffer[i] = (byte) (sample & 0xFF);
-            buffer[i + 1] = (byte) ((sample >> 8) & 0xFF);
+    /*
+        Peak normalize the recording to targetDb (dBFS) while encoding it into the MediaStore.
+        statistics can be the PeakStatistics recorded during the capture, otherwise the peak is found with a streaming scan.
+     */
+    public static Uri encodeNormalizedPCMtoWavThenTransferFileToMediaStore(Context context, File sourceFile, long dataOffset, PeakStatistics statistics, float targetDb, int sampleRate, int channels, int bitDepth) throws IOException {
+        if(statistics == null) {
+            try (PcmFileReader in = PcmFileReader.open(sourceFile, dataOffset)) {
+                statistics = PcmNormalizer.scanPeak(in);
+            }
         }
-        return buffer;
+        float gain = PcmNormalizer.computeGain(statistics.getPeak(), targetDb);
+        Log.d(TAG, "Normalizing peak " + statistics.getPeakDbfs() + " dBFS to " + targetDb + " dBFS, gain: " + gain);
+        return encodePCMtoWavThenTransferFileToMediaStore(context, sourceFile, dataOffset, sampleRate, channels, bitDepth, gain);
     }
 
-    public static byte[] normalizeAndAdjustPcmGain(byte[] pcmData, float targetDb) {
-        // Step 1: Find the maximum amplitude in the PCM data
-        float maxAmplitude = 0;
-        for (int i = 0; i < pcmData.length; i += 2) {
-            short sample = (short) ((pcmData[i] & 0xFF) | (pcmData[i + 1] << 8));
-            maxAmplitude = Math.max(maxAmplitude, Math.abs(sample));
+    public static Uri insertFileIntoMediaStore(Context context, File file) throws IOException {
+        return insertFileIntoMediaStore(context, file, LatencyTracer.Trace.NONE);
+    }
+
+    // Same as above, the MediaStore insert, the copy and the publication are spans of the trace
+    public static Uri insertFileIntoMediaStore(Context context, File file, LatencyTracer.Trace trace) throws IOException {
+        ContentResolver contentResolver = context.getContentResolver();
+        long insertStart = System.nanoTime();
+        Uri fileUri = createMediaStoreEntry(context, file.getName(), "audio/wav");
+        if(fileUri == null)
+            throw new IOException("Could not create MediaStore entry for " + file.getName());
+        trace.span("MediaStore insert", insertStart);
+
+        // Let the kernel copy the file in large chunks instead of going through a Java buffer
+        try (ParcelFileDescriptor pfd = contentResolver.openFileDescriptor(fileUri, "w");
+             FileInputStream in = new FileInputStream(file);
+             FileOutputStream out = new FileOutputStream(pfd.getFileDescriptor())) {
+            FileChannel inChannel = in.getChannel();
+            FileChannel outChannel = out.getChannel();
+            long size = inChannel.size();
+            long position = 0;
+            long copyStart = System.nanoTime();
+            while (position < size) {
+                position += inChannel.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, size - position), outChannel);
+            }
+            trace.span("MediaStore copy", copyStart);
+        } catch (IOException e) {
+            contentResolver.delete(fileUri, null, null);
+            throw e;
         }
 
-        // Step 2: Calculate the normalization factor
-        float normalizationFactor = 32767 / maxAmplitude;
+        long publishStart = System.nanoTime();
+        publishMediaStoreEntry(context, fileUri);
+        trace.span("MediaStore publish", publishStart);
+        return fileUri;
+    }
+
+    private static Uri createMediaStoreEntry(Context context, String displayName, String mimeType) {
+        ContentResolver contentResolver = context.getContentResolver();
+        Uri externalContentUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
 
-        // Step 3: Normalize the PCM data
-        for (int i = 0; i < pcmData.length; i += 2) {
-            short sample = (short) ((pcmData[i] & 0xFF) | (pcmData[i + 1] << 8));
-            sample = (short) (sample * normalizationFactor);
-            pcmData[i] = (byte) (sample & 0xFF);
-            pcmData[i + 1] = (byte) ((sample >> 8) & 0xFF);
+        // Check if a file with the same name already exists and delete it
+        String selection = MediaStore.MediaColumns.DISPLAY_NAME + "=?";
+        String[] selectionArgs = new String[]{displayName};
+        try (Cursor cursor = contentResolver.query(externalContentUri, null, selection, selectionArgs, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                int id = cursor.getInt(cursor.getColumnIndexOrThrow(MediaStore.MediaColumns._ID));
+                Uri existingFileUri = ContentUris.withAppendedId(externalContentUri, id);
+                contentResolver.delete(existingFileUri, null, null);
+            }
         }
 
-        // Step 4: Calculate current dB level after normalization
-        float currentDb = 20 * (float) Math.log10(maxAmplitude / 32767);
+        // Insert the new file, kept pending until its content has been written
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.MediaColumns.DISPLAY_NAME, displayName);
+        values.put(MediaStore.MediaColumns.MIME_TYPE, mimeType);
+        values.put(MediaStore.MediaColumns.RELATIVE_PATH, Environment.DIRECTORY_MUSIC + "/MyMediaFiles");
+        values.put(MediaStore.MediaColumns.IS_PENDING, 1);
 
-        // Step 5: Calculate gain factor to reach target dB
-        float gainFactor = (float) Math.pow(10, (targetDb - currentDb) / 20);
+        return contentResolver.insert(externalContentUri, values);
+    }
 
-        // Step 6: Apply gain factor and clip
-        for (int i = 0; i < pcmData.length; i += 2) {
-            short sample = (short) ((pcmData[i] & 0xFF) | (pcmData[i + 1] << 8));
-            sample = (short) (sample * gainFactor);
-            if (sample > 32767) sample = 32767;
-            if (sample < -32768) sample = -32768;
-            pcmData[i] = (byte) (sample & 0xFF);
-            pcmData[i + 1] = (byte) ((sample >> 8) & 0xFF);
-        }
-        return pcmData;
+    private static void publishMediaStoreEntry(Context context, Uri fileUri) {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.MediaColumns.IS_PENDING, 0);
+        context.getContentResolver().update(fileUri, values, null, null);
     }
 
 
+    public static byte[] applyGain(byte[] buffer, int read, float gain) {
+        // Fixed point kernel, see PcmGain
+        PcmGain.applyGainQ15(buffer, 0, read, PcmGain.toQ15(gain));
+        return buffer;
+    }
+
+    public static byte[] normalizeAndAdjustPcmGain(byte[] pcmData, float targetDb) {
+        // Bring the peak to targetDb (dBFS) with one scan and one gain pass, silent data is left untouched
+        return PcmNormalizer.normalize(pcmData, pcmData.length, targetDb);
+    }
 }
@@ -0,0 +1,192 @@
+package com.zebra.hsdemo;
+
+/*
+    Finds the parm-error and characteristic-error entries of a ProfileManager result XML.
+    The result is scanned in place: an entry is stored as the offsets of its attribute values in the
+    result string, the strings are only created when an error is reported. Parsing a result without
+    errors allocates nothing, the offset tables grow only when a result has more errors than before.
+    Attribute values are unescaped on demand (predefined XML entities only).
+    Not thread safe, one parser per thread.
+ */
+public class MxResultParser {
+
+    private static final String PARM_ERROR = "<parm-error";
+    private static final String CHARACTERISTIC_ERROR = "<characteristic-error";
+
+    private String mXml = "";
+    private int mErrorCount = 0;
+    private boolean[] mParmErrors = new boolean[4];
+    // Start and end offsets of the name (parm-error) or type (characteristic-error) attribute, -1 when missing
+    private int[] mNameRanges = new int[8];
+    // Start and end offsets of the desc attribute, -1 when missing
+    private int[] mDescriptionRanges = new int[8];
+
+    // Returns the number of errors found in the result
+    public int parse(String xml) {
+        mXml = xml;
+        mErrorCount = 0;
+        int position = 0;
+        while ((position = xml.indexOf('<', position)) >= 0) {
+            boolean parmError = xml.startsWith(PARM_ERROR, position) && isTagNameEnd(xml, position + PARM_ERROR.length());
+            boolean characteristicError = !parmError && xml.startsWith(CHARACTERISTIC_ERROR, position)
+                    && isTagNameEnd(xml, position + CHARACTERISTIC_ERROR.length());
+            if (!parmError && !characteristicError) {
+                position++;
+                continue;
+            }
+            int tagEnd = findTagEnd(xml, position);
+            ensureCapacity(mErrorCount + 1);
+            mParmErrors[mErrorCount] = parmError;
+            findAttribute(xml, position, tagEnd, parmError ? "name" : "type", mNameRanges, mErrorCount * 2);
+            findAttribute(xml, position, tagEnd, "desc", mDescriptionRanges, mErrorCount * 2);
+            mErrorCount++;
+            position = tagEnd;
+        }
+        return mErrorCount;
+    }
+
+    public int getErrorCount() {
+        return mErrorCount;
+    }
+
+    public boolean isParmError(int error) {
+        return mParmErrors[error];
+    }
+
+    // Name of the parameter of a parm-error, type of a characteristic-error, "" when missing
+    public String getName(int error) {
+        return getValue(mNameRanges, error);
+    }
+
+    public String getDescription(int error) {
+        return getValue(mDescriptionRanges, error);
+    }
+
+    // Appends all the errors, one per line
+    public StringBuilder appendErrors(StringBuilder out) {
+        for (int i = 0; i < mErrorCount; i++) {
+            out.append(mParmErrors[i] ? "Profile processing error.\tParamName:" : "Profile processing error.\tType:");
+            appendValue(out, mNameRanges, i);
+            out.append("\tDescription:");
+            appendValue(out, mDescriptionRanges, i);
+            out.append('\n');
+        }
+        return out;
+    }
+
+    private String getValue(int[] ranges, int error) {
+        int start = ranges[error * 2];
+        int end = ranges[error * 2 + 1];
+        if (start < 0)
+            return "";
+        int entity = mXml.indexOf('&', start);
+        if (entity < 0 || entity >= end)
+            return mXml.substring(start, end);
+        return appendValue(new StringBuilder(end - start), ranges, error).toString();
+    }
+
+    private StringBuilder appendValue(StringBuilder out, int[] ranges, int error) {
+        int start = ranges[error * 2];
+        int end = ranges[error * 2 + 1];
+        for (int i = start; i >= 0 && i < end; i++) {
+            char c = mXml.charAt(i);
+            if (c == '&') {
+                int entityEnd = mXml.indexOf(';', i);
+                if (entityEnd > 0 && entityEnd < end) {
+                    char entity = unescape(mXml, i + 1, entityEnd);
+                    if (entity != 0) {
+                        out.append(entity);
+                        i = entityEnd;
+                        continue;
+                    }
+                }
+            }
+            out.append(c);
+        }
+        return out;
+    }
+
+    private static char unescape(String xml, int start, int end) {
+        if (xml.startsWith("lt", start) && end - start == 2)
+            return '<';
+        if (xml.startsWith("gt", start) && end - start == 2)
+            return '>';
+        if (xml.startsWith("amp", start) && end - start == 3)
+            return '&';
+        if (xml.startsWith("quot", start) && end - start == 4)
+            return '"';
+        if (xml.startsWith("apos", start) && end - start == 4)
+            return '\'';
+        return 0;
+    }
+
+    private static boolean isTagNameEnd(String xml, int position) {
+        if (position >= xml.length())
+            return false;
+        char c = xml.charAt(position);
+        return c == '>' || c == '/' || Character.isWhitespace(c);
+    }
+
+    // Offset of the '>' closing the tag (quoted values may contain '>'), the end of the string when missing
+    static int findTagEnd(String xml, int position) {
+        char quote = 0;
+        for (int i = position; i < xml.length(); i++) {
+            char c = xml.charAt(i);
+            if (quote != 0) {
+                if (c == quote)
+                    quote = 0;
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i;
+            }
+        }
+        return xml.length();
+    }
+
+    static void findAttribute(String xml, int tagStart, int tagEnd, String name, int[] ranges, int index) {
+        ranges[index] = -1;
+        ranges[index + 1] = -1;
+        int position = tagStart;
+        while ((position = xml.indexOf(name, position)) >= 0 && position < tagEnd) {
+            int next = position + name.length();
+            // The attribute name must be preceded by whitespace and followed by '='
+            if (Character.isWhitespace(xml.charAt(position - 1))) {
+                while (next < tagEnd && Character.isWhitespace(xml.charAt(next))) {
+                    next++;
+                }
+                if (next < tagEnd && xml.charAt(next) == '=') {
+                    next++;
+                    while (next < tagEnd && Character.isWhitespace(xml.charAt(next))) {
+                        next++;
+                    }
+                    if (next < tagEnd) {
+                        char quote = xml.charAt(next);
+                        int valueEnd = xml.indexOf(quote, next + 1);
+                        if ((quote == '"' || quote == '\'') && valueEnd >= 0) {
+                            ranges[index] = next + 1;
+                            ranges[index + 1] = valueEnd;
+                            return;
+                        }
+                    }
+                }
+            }
+            position = next;
+        }
+    }
+
+    private void ensureCapacity(int errors) {
+        if (errors <= mParmErrors.length)
+            return;
+        int capacity = Math.max(errors, mParmErrors.length * 2);
+        boolean[] parmErrors = new boolean[capacity];
+        System.arraycopy(mParmErrors, 0, parmErrors, 0, mErrorCount);
+        mParmErrors = parmErrors;
+        int[] nameRanges = new int[capacity * 2];
+        System.arraycopy(mNameRanges, 0, nameRanges, 0, mErrorCount * 2);
+        mNameRanges = nameRanges;
+        int[] descriptionRanges = new int[capacity * 2];
+        System.arraycopy(mDescriptionRanges, 0, descriptionRanges, 0, mErrorCount * 2);
+        mDescriptionRanges = descriptionRanges;
+    }
+}
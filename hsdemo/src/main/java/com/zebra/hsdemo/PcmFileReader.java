@@ -0,0 +1,198 @@
+package com.zebra.hsdemo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/*
+    Reads the samples of a recording as 16 bits little endian PCM, whatever its format.
+    WAV files are recognized by their header: PCM data is read as is, IMA-ADPCM and G.711 data
+    is decoded block by block while it is read. Other files are read as raw PCM.
+    PCM data is read from a MappedPcmReader, use getMappedReader() to work on the samples in place.
+    Can be used as the input of WavEncoder, PcmNormalizer or the playback prefetch.
+    seek() moves to any sample without decoding the data before it.
+ */
+public class PcmFileReader implements ReadableByteChannel {
+
+    // Encoded bytes decoded at once for G.711
+    private static final int G711_CHUNK_SIZE = 4096;
+
+    private final FileInputStream mInput;
+    private final FileChannel mChannel;
+    private final WavHeader mHeader;
+    private final RecordingFormat mFormat;
+
+    private final long mDataOffset;
+    private final long mDataSize;
+    private final long mTotalSamples;
+    private long mRemainingBytes;
+    private long mRemainingSamples;
+
+    // PCM formats only
+    private final MappedPcmReader mMapped;
+
+    // Compressed formats only
+    private final byte[] mEncoded;
+    private final ByteBuffer mEncodedBuffer;
+    private final byte[] mDecoded;
+    private int mDecodedPosition = 0;
+    private int mDecodedLimit = 0;
+
+    private PcmFileReader(FileInputStream input, WavHeader header, long dataOffset) throws IOException {
+        mInput = input;
+        mChannel = input.getChannel();
+        mHeader = header;
+        mFormat = header != null ? header.getRecordingFormat() : RecordingFormat.PCM_16BIT;
+        if (mFormat == null)
+            throw new IOException("Unsupported WAV format tag " + header.formatTag);
+        mChannel.position(dataOffset);
+        mDataOffset = dataOffset;
+        mDataSize = header != null ? header.dataSize : Math.max(0, mChannel.size() - dataOffset);
+        mRemainingBytes = mDataSize;
+
+        if (mFormat == RecordingFormat.IMA_ADPCM) {
+            if (header.channels != 1 || header.blockAlign <= ImaAdpcm.BLOCK_HEADER_SIZE)
+                throw new IOException("Unsupported IMA-ADPCM layout");
+            int samplesPerBlock = header.samplesPerBlock > 0 ? header.samplesPerBlock : ImaAdpcm.getSamplesPerBlock(header.blockAlign, 1);
+            mEncoded = new byte[header.blockAlign];
+            mDecoded = new byte[samplesPerBlock * 2];
+        } else if (mFormat.isCompressed()) {
+            mEncoded = new byte[G711_CHUNK_SIZE];
+            mDecoded = new byte[G711_CHUNK_SIZE * 2];
+        } else {
+            mEncoded = null;
+            mDecoded = null;
+        }
+        mMapped = mDecoded == null ? new MappedPcmReader(null, mChannel, dataOffset, mRemainingBytes, MappedPcmReader.DEFAULT_WINDOW_SIZE) : null;
+        mEncodedBuffer = mEncoded != null ? ByteBuffer.wrap(mEncoded) : null;
+        // Without fact chunk the sample count is only bounded by the data
+        mTotalSamples = header != null && header.sampleFrames >= 0 ? header.sampleFrames * header.channels : Long.MAX_VALUE;
+        mRemainingSamples = mTotalSamples;
+    }
+
+    /*
+        Open a recording. rawDataOffset is the position of the first sample when the file is not
+        a WAV file (headerless PCM), it is ignored for WAV files.
+     */
+    public static PcmFileReader open(File file, long rawDataOffset) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            WavHeader header = WavHeader.read(input.getChannel());
+            return new PcmFileReader(input, header, header != null ? header.dataOffset : rawDataOffset);
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    // Null for headerless PCM files
+    public WavHeader getHeader() {
+        return mHeader;
+    }
+
+    public RecordingFormat getFormat() {
+        return mFormat;
+    }
+
+    /*
+        Mapped samples of a PCM recording, null for compressed recordings.
+        It shares the read position of this channel.
+     */
+    public MappedPcmReader getMappedReader() {
+        return mMapped;
+    }
+
+    /*
+        Move to pcmPosition bytes of decoded PCM from the first sample. PCM and G.711 data is addressed
+        directly; for IMA-ADPCM only the block holding the position is decoded and its first samples dropped.
+     */
+    public void seek(long pcmPosition) throws IOException {
+        long sample = Math.max(0, pcmPosition) / 2;
+        if (mMapped != null) {
+            mMapped.setPosition(sample * 2);
+            return;
+        }
+        long skippedSamples = 0;
+        long encodedPosition = sample;
+        if (mFormat == RecordingFormat.IMA_ADPCM) {
+            int samplesPerBlock = mDecoded.length / 2;
+            long block = sample / samplesPerBlock;
+            skippedSamples = sample - block * samplesPerBlock;
+            encodedPosition = block * mEncoded.length;
+        }
+        encodedPosition = Math.min(encodedPosition, mDataSize);
+        mChannel.position(mDataOffset + encodedPosition);
+        mRemainingBytes = mDataSize - encodedPosition;
+        mRemainingSamples = mTotalSamples == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(0, mTotalSamples - (sample - skippedSamples));
+        mDecodedPosition = 0;
+        mDecodedLimit = 0;
+        if (skippedSamples > 0 && decodeNext())
+            mDecodedPosition = (int) Math.min(mDecodedLimit, skippedSamples * 2);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining())
+            return 0;
+        if (mDecoded == null)
+            return readPcm(dst);
+
+        if (mDecodedPosition == mDecodedLimit && !decodeNext())
+            return -1;
+        int length = Math.min(dst.remaining(), mDecodedLimit - mDecodedPosition);
+        dst.put(mDecoded, mDecodedPosition, length);
+        mDecodedPosition += length;
+        return length;
+    }
+
+    // A single copy from the mapped window, no system call
+    private int readPcm(ByteBuffer dst) throws IOException {
+        ByteBuffer bytes = mMapped.nextBytes(dst.remaining());
+        if (bytes == null)
+            return -1;
+        int length = bytes.remaining();
+        dst.put(bytes);
+        return length;
+    }
+
+    // Decode the next block or chunk, returns false at the end of the data
+    private boolean decodeNext() throws IOException {
+        if (mRemainingBytes <= 0 || mRemainingSamples <= 0)
+            return false;
+        mEncodedBuffer.clear();
+        mEncodedBuffer.limit((int) Math.min(mEncoded.length, mRemainingBytes));
+        while (mEncodedBuffer.hasRemaining()) {
+            if (mChannel.read(mEncodedBuffer) < 0)
+                break;
+        }
+        int length = mEncodedBuffer.position();
+        mRemainingBytes = length < mEncodedBuffer.limit() ? 0 : mRemainingBytes - length;
+
+        int samples;
+        if (mFormat == RecordingFormat.IMA_ADPCM) {
+            samples = ImaAdpcm.decodeBlock(mEncoded, 0, length, mDecoded, 0, (int) Math.min(mDecoded.length / 2, mRemainingSamples));
+        } else {
+            samples = (int) Math.min(length, mRemainingSamples);
+            G711.decode(mFormat == RecordingFormat.A_LAW, mEncoded, 0, mDecoded, 0, samples);
+        }
+        if (samples <= 0)
+            return false;
+        mRemainingSamples -= samples;
+        mDecodedPosition = 0;
+        mDecodedLimit = samples * 2;
+        return true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mChannel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+}
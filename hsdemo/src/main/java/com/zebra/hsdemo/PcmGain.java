@@ -0,0 +1,89 @@
+package com.zebra.hsdemo;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/*
+    Gain kernels for 16 bits PCM samples.
+    The gain is converted once to a Q15 fixed point value, each sample is then scaled with an
+    integer multiply, truncated toward zero and saturated to the 16 bits range like the original
+    float kernel. The result can differ from the float kernel by 1 LSB: the gain is rounded to the
+    nearest 1/32768, which moves products close to an integer across it (e.g. gain 1.1 and sample
+    -29789 give -32768 instead of -32767). Unity and zero gains are exact, a unity gain leaves the
+    samples untouched and skips the loop entirely. None of the kernels allocate.
+ */
+public class PcmGain {
+
+    public static final int Q15_SHIFT = 15;
+    public static final int UNITY_Q15 = 1 << Q15_SHIFT;
+
+    public static int toQ15(float gain) {
+        if(gain <= 0)
+            return 0;
+        // Largest gain that keeps the sample * gain product inside a long (far above any UI value)
+        return (int) Math.min(Math.round((double) gain * UNITY_Q15), Integer.MAX_VALUE);
+    }
+
+    // Scale a single sample: truncation toward zero then saturation
+    private static short scale(int sample, int gainQ15) {
+        long product = (long) sample * gainQ15;
+        long scaled = product >= 0 ? (product >> Q15_SHIFT) : -((-product) >> Q15_SHIFT);
+        if (scaled > Short.MAX_VALUE)
+            return Short.MAX_VALUE;
+        if (scaled < Short.MIN_VALUE)
+            return Short.MIN_VALUE;
+        return (short) scaled;
+    }
+
+    public static void applyGain(short[] samples, int offset, int count, float gain) {
+        applyGainQ15(samples, offset, count, toQ15(gain));
+    }
+
+    public static void applyGainQ15(short[] samples, int offset, int count, int gainQ15) {
+        if (gainQ15 == UNITY_Q15)
+            return;
+        int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            samples[i] = scale(samples[i], gainQ15);
+        }
+    }
+
+    // Process the samples between position and limit, position is left unchanged
+    public static void applyGainQ15(ShortBuffer samples, int gainQ15) {
+        if (gainQ15 == UNITY_Q15)
+            return;
+        if (samples.hasArray()) {
+            applyGainQ15(samples.array(), samples.arrayOffset() + samples.position(), samples.remaining(), gainQ15);
+            return;
+        }
+        int end = samples.limit();
+        for (int i = samples.position(); i < end; i++) {
+            samples.put(i, scale(samples.get(i), gainQ15));
+        }
+    }
+
+    /*
+        Process the bytes between position and limit of a buffer holding 16 bits samples in the buffer byte order
+        (direct buffers filled by AudioRecord use the native order), position is left unchanged.
+     */
+    public static void applyGainQ15(ByteBuffer buffer, int gainQ15) {
+        if (gainQ15 == UNITY_Q15)
+            return;
+        int end = buffer.limit() - 1;
+        for (int i = buffer.position(); i < end; i += 2) {
+            buffer.putShort(i, scale(buffer.getShort(i), gainQ15));
+        }
+    }
+
+    // Process little endian samples stored in a byte array
+    public static void applyGainQ15(byte[] buffer, int offset, int length, int gainQ15) {
+        if (gainQ15 == UNITY_Q15)
+            return;
+        int end = offset + length - 1;
+        for (int i = offset; i < end; i += 2) {
+            short sample = scale((short) ((buffer[i] & 0xFF) | (buffer[i + 1] << 8)), gainQ15);
+            buffer[i] = (byte) sample;
+            buffer[i + 1] = (byte) (sample >> 8);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.zebra.hsdemo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/*
+    Two-phase peak normalization of 16 bits PCM streams.
+    Phase one finds the peak: it is either provided by the PeakStatistics recorded while capturing,
+    or computed with a streaming scan. Phase two is a single streaming gain pass that brings the
+    peak to the target level. Memory usage does not depend on the stream length.
+ */
+public class PcmNormalizer {
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    /*
+        Gain that brings the peak to targetDb (dBFS).
+        Silent input can't be normalized and returns a unity gain.
+     */
+    public static float computeGain(int peak, float targetDb) {
+        if (peak <= 0)
+            return 1.0f;
+        return (float) (Math.pow(10, targetDb / 20.0) * 32767.0 / peak);
+    }
+
+    // Phase one when no statistics were recorded: streaming scan of the channel from its current position
+    public static PeakStatistics scanPeak(ReadableByteChannel in) throws IOException {
+        MappedPcmReader mapped = in instanceof PcmFileReader ? ((PcmFileReader) in).getMappedReader() : null;
+        if (mapped != null)
+            return scanPeak(mapped);
+        PeakStatistics statistics = new PeakStatistics();
+        ByteBuffer block = ByteBuffer.allocate(DEFAULT_BLOCK_SIZE);
+        while (in.read(block) >= 0) {
+            // Only scan full blocks so samples are never split between two reads
+            if (block.hasRemaining())
+                continue;
+            statistics.update(block.array(), 0, block.position());
+            block.clear();
+        }
+        statistics.update(block.array(), 0, block.position());
+        return statistics;
+    }
+
+    // Scan of the mapped samples from the reader position, nothing is copied
+    public static PeakStatistics scanPeak(MappedPcmReader in) throws IOException {
+        PeakStatistics statistics = new PeakStatistics();
+        ShortBuffer samples;
+        while ((samples = in.nextSamples(MappedPcmReader.DEFAULT_WINDOW_SIZE / 2)) != null) {
+            statistics.update(samples);
+        }
+        return statistics;
+    }
+
+    /*
+        Normalize the PCM data of the in channel (from its current position) into a WAV stream written in the out channel.
+        When statistics is null, the peak is computed by a streaming scan first.
+     */
+    public static WavEncoder.Result normalizeToWav(FileChannel in, FileChannel out, PeakStatistics statistics, float targetDb, int sampleRate, int channels, int bitDepth) throws IOException {
+        if (statistics == null) {
+            long dataPosition = in.position();
+            statistics = scanPeak(in);
+            in.position(dataPosition);
+        }
+        float gain = computeGain(statistics.getPeak(), targetDb);
+        return WavEncoder.encode(in, out, sampleRate, channels, bitDepth, gain, DEFAULT_BLOCK_SIZE);
+    }
+
+    // In memory variant: one scan and one gain pass over the array
+    public static byte[] normalize(byte[] pcmData, int length, float targetDb) {
+        PeakStatistics statistics = new PeakStatistics();
+        statistics.update(pcmData, 0, length);
+        PcmGain.applyGainQ15(pcmData, 0, length, PcmGain.toQ15(computeGain(statistics.getPeak(), targetDb)));
+        return pcmData;
+    }
+}
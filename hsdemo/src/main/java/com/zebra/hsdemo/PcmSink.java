@@ -0,0 +1,19 @@
+package com.zebra.hsdemo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/*
+    Destination of the captured PCM samples (16 bits little endian).
+ */
+public interface PcmSink extends Closeable {
+
+    void write(byte[] data, int offset, int length) throws IOException;
+
+    // Write the bytes between position and limit, the buffer position is moved to its limit
+    void write(ByteBuffer data) throws IOException;
+
+    // Number of PCM bytes written so far
+    long getDataSize();
+}
@@ -0,0 +1,362 @@
+package com.zebra.hsdemo;
+
+import android.media.AudioTrack;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+    Streaming playback of PCM files into a MODE_STREAM AudioTrack.
+    A prefetch thread reads the files (e.g. the segments of a session) one after the other, block
+    by block, into an AudioBlockRing and applies the gain. Compressed WAV recordings are decoded
+    by the prefetch thread (see PcmFileReader), PCM recordings are copied from their memory
+    mapping (see MappedPcmReader) straight into the ring blocks. The playing thread feeds the track with
+    the prefetched blocks. Only the ring blocks are kept in memory and the first block is played
+    as soon as it has been read.
+    Recordings made at another rate than the track are converted by a PolyphaseResampler.
+    When a SilenceIndex is set, the silences removed by the voice activity detection are played
+    back as zero blocks at their original position.
+    A range of the recording can be played instead of the whole files (see TimeIndex.getRange).
+    The playback can be paused, resumed and stopped from any thread. A file that cannot be read
+    ends the playback once the blocks read before it have been played.
+ */
+public class PcmStreamPlayer {
+
+    private final static String TAG = "PcmStreamPlayer";
+
+    public static final int DEFAULT_BLOCK_SIZE = 16 * 1024;
+    public static final int DEFAULT_BLOCK_COUNT = 8;
+
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final AudioTrack mAudioTrack;
+    private final List<File> mFiles;
+    private final long mDataOffset;
+    private final int mGainQ15;
+    private final AudioBlockRing mRing;
+
+    private volatile boolean mStopped = false;
+    // Set when play() returned, the track then belongs to the caller again (recycled or released)
+    private boolean mFinished = false;
+    // Guards the track calls of the controlling thread against the end of play()
+    private final Object mTrackLock = new Object();
+    private volatile boolean mPaused = false;
+    private volatile boolean mPrefetchDone = false;
+    private volatile Thread mPlayingThread = null;
+    // System.nanoTime() when the track was started, 0 before
+    private volatile long mStartNanos = 0;
+    private Thread mPrefetchThread = null;
+
+    // Silences to restore, used by the prefetch thread only
+    private List<SilenceIndex.Marker> mSilences = Collections.emptyList();
+    private int mNextSilence = 0;
+    private long mStreamPosition = 0;
+    // Silence source, as large as the largest block filled by prefetchSilence()
+    private byte[] mZeros;
+
+    // Range playback: offset in the first file, silence to play first and timeline bytes left to play
+    private long mFirstFileOffset = 0;
+    private long mLeadingSilence = 0;
+    private long mRemaining = Long.MAX_VALUE;
+
+    // Sample rate conversion from the recording rate to the track rate, null when they are the same
+    private PolyphaseResampler mResampler = null;
+    private ByteBuffer mSourceBlock = null;
+
+    /*
+        dataOffset is the position of the first sample in headerless PCM files, WAV headers are parsed.
+        gain is applied on the samples, use 1.0f when the gain is handled by an audio effect.
+     */
+    public PcmStreamPlayer(AudioTrack audioTrack, File file, long dataOffset, float gain, int blockSize, int blockCount) {
+        this(audioTrack, Collections.singletonList(file), dataOffset, gain, blockSize, blockCount);
+    }
+
+    // Play several files without gap, dataOffset applies to each file
+    public PcmStreamPlayer(AudioTrack audioTrack, List<File> files, long dataOffset, float gain, int blockSize, int blockCount) {
+        mAudioTrack = audioTrack;
+        mFiles = files;
+        mDataOffset = dataOffset;
+        mGainQ15 = PcmGain.toQ15(gain);
+        // Keep blocks aligned on samples
+        mRing = new AudioBlockRing(blockCount, blockSize & ~1);
+        mZeros = new byte[mRing.getBlockSize()];
+    }
+
+    // Must be called before play(), offsets are relative to the beginning of the first file
+    public void setSilenceIndex(SilenceIndex silenceIndex) {
+        mSilences = silenceIndex != null ? silenceIndex.getMarkers() : Collections.<SilenceIndex.Marker>emptyList();
+    }
+
+    /*
+        Must be called before play(), after setSilenceIndex(): play only a range of the recording.
+        The files given to the constructor must be range.files.
+     */
+    public void setRange(TimeIndex.Range range) {
+        mFirstFileOffset = range.firstFileOffset;
+        mStreamPosition = range.streamPosition;
+        mNextSilence = range.nextSilence;
+        mLeadingSilence = range.leadingSilence;
+        mRemaining = range.length;
+    }
+
+    /*
+        Must be called before play() when the files were recorded at another rate than the track rate.
+        The silence index offsets stay in recording rate bytes.
+     */
+    public void setSampleRates(int recordingSampleRate, int trackSampleRate, int channels) {
+        if (recordingSampleRate == trackSampleRate) {
+            mResampler = null;
+            mSourceBlock = null;
+            return;
+        }
+        mResampler = new PolyphaseResampler(recordingSampleRate, trackSampleRate, channels);
+        int frameSize = channels * 2;
+        int sourceFrames = mResampler.getMaxInputFrames(mRing.getBlockSize() / frameSize);
+        mSourceBlock = ByteBuffer.allocateDirect(sourceFrames * frameSize).order(ByteOrder.nativeOrder());
+        // Down sampling reads more source bytes than a ring block holds
+        if (mSourceBlock.capacity() > mZeros.length)
+            mZeros = new byte[mSourceBlock.capacity()];
+    }
+
+    /*
+        Play the files, blocks until the end of the last file is reached or stop() is called.
+        The track is stopped but not released. pause(), resume() and stop() called from another
+        thread do not touch the track once play() returned.
+     */
+    public void play() {
+        try {
+            mPlayingThread = Thread.currentThread();
+            mPrefetchThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+                    prefetchFiles();
+                }
+            }, "AudioPrefetch Thread");
+            mPrefetchThread.start();
+
+            synchronized (mTrackLock) {
+                if (!mPaused) {
+                    mAudioTrack.play();
+                    mStartNanos = System.nanoTime();
+                }
+            }
+            playLoop();
+        } finally {
+            mStopped = true;
+            LockSupport.unpark(mPrefetchThread);
+            joinQuietly(mPrefetchThread);
+            mPlayingThread = null;
+            synchronized (mTrackLock) {
+                mAudioTrack.stop();
+                mFinished = true;
+            }
+        }
+    }
+
+    public void pause() {
+        synchronized (mTrackLock) {
+            if (mFinished)
+                return;
+            mPaused = true;
+            // A pending blocking write waits until the track is resumed, the next blocks wait in playLoop
+            mAudioTrack.pause();
+        }
+    }
+
+    public void resume() {
+        synchronized (mTrackLock) {
+            if (mFinished)
+                return;
+            mPaused = false;
+            if (!mStopped)
+                mAudioTrack.play();
+        }
+        LockSupport.unpark(mPlayingThread);
+    }
+
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    public void stop() {
+        mStopped = true;
+        synchronized (mTrackLock) {
+            if (mFinished)
+                return;
+            // Discard the queued audio so a blocked write returns immediately
+            mAudioTrack.pause();
+            mAudioTrack.flush();
+        }
+        LockSupport.unpark(mPlayingThread);
+    }
+
+    public boolean isStopped() {
+        return mStopped;
+    }
+
+    // System.nanoTime() when AudioTrack.play() returned in play(), 0 when the track was not started
+    public long getStartNanos() {
+        return mStartNanos;
+    }
+
+    private void prefetchFiles() {
+        try {
+            prefetchSilence(mLeadingSilence);
+            long fileOffset = mFirstFileOffset;
+            for (File file : mFiles) {
+                if (mStopped || mRemaining <= 0)
+                    break;
+                try (PcmFileReader reader = PcmFileReader.open(file, mDataOffset)) {
+                    reader.seek(fileOffset);
+                    fileOffset = 0;
+                    prefetchChannel(reader);
+                } catch (IOException e) {
+                    // Skipping the rest of the file would play the next silences at the wrong position,
+                    // end the playback after the blocks already prefetched
+                    Log.e(TAG, "Error while reading " + file.getPath() + ", playback aborted: " + e);
+                    return;
+                }
+            }
+            // Silence removed at the end of the recording
+            while (!mStopped && mRemaining > 0 && mNextSilence < mSilences.size()) {
+                prefetchSilence(mSilences.get(mNextSilence++).length);
+            }
+        } finally {
+            mPrefetchDone = true;
+            LockSupport.unpark(mPlayingThread);
+        }
+    }
+
+    private void prefetchChannel(ReadableByteChannel channel) throws IOException {
+        while (!mStopped && mRemaining > 0) {
+            long nextSilence = Long.MAX_VALUE;
+            while (mNextSilence < mSilences.size()) {
+                SilenceIndex.Marker marker = mSilences.get(mNextSilence);
+                if (marker.byteOffset > mStreamPosition) {
+                    nextSilence = marker.byteOffset;
+                    break;
+                }
+                mNextSilence++;
+                prefetchSilence(marker.length);
+            }
+            if (mRemaining <= 0)
+                break;
+
+            ByteBuffer block = claimBlock();
+            if (block == null)
+                break;
+            // Without resampling the samples are read straight into the ring block
+            ByteBuffer source = mResampler != null ? mSourceBlock : block;
+            source.clear();
+            // Fill a whole block unless the end of file, the next silence or the end of the range is reached
+            long available = Math.min(nextSilence - mStreamPosition, mRemaining);
+            if (available < source.remaining())
+                source.limit((int) available);
+            int read;
+            do {
+                read = channel.read(source);
+            } while (read >= 0 && source.hasRemaining());
+            source.flip();
+            int length = source.remaining() & ~1;
+            if (length == 0)
+                break;
+            source.limit(length);
+            mStreamPosition += length;
+            mRemaining -= length;
+            publishBlock(block, source);
+            if (read < 0)
+                break;
+        }
+    }
+
+    private void prefetchSilence(long length) {
+        length = Math.min(length, mRemaining);
+        while (length > 0) {
+            ByteBuffer block = claimBlock();
+            if (block == null)
+                return;
+            // Silence goes through the resampler too so the filter history stays continuous
+            ByteBuffer source = mResampler != null ? mSourceBlock : block;
+            source.clear();
+            int size = (int) Math.min(length, source.remaining()) & ~1;
+            if (size == 0)
+                return;
+            source.put(mZeros, 0, size);
+            source.flip();
+            publishBlock(block, source);
+            length -= size;
+            mRemaining -= size;
+        }
+    }
+
+    // Resample the source into the block when needed, apply the gain and hand the block to the playing thread
+    private void publishBlock(ByteBuffer block, ByteBuffer source) {
+        if (source != block) {
+            mResampler.process(source, block);
+            block.flip();
+        }
+        PcmGain.applyGainQ15(block, mGainQ15);
+        mRing.publish();
+        LockSupport.unpark(mPlayingThread);
+    }
+
+    // Waits for a free block, returns null when the playback is stopped
+    private ByteBuffer claimBlock() {
+        while (!mStopped) {
+            ByteBuffer block = mRing.claim();
+            if (block != null)
+                return block;
+            // Read ahead is full, wait for the player to consume a block
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+        return null;
+    }
+
+    private void playLoop() {
+        while (!mStopped) {
+            if (mPaused) {
+                LockSupport.parkNanos(this, PARK_NANOS);
+                continue;
+            }
+            ByteBuffer block = mRing.peek();
+            if (block == null) {
+                if (mPrefetchDone && mRing.isEmpty())
+                    break;
+                LockSupport.parkNanos(this, PARK_NANOS);
+                continue;
+            }
+            while (block.hasRemaining() && !mStopped) {
+                int written = mAudioTrack.write(block, block.remaining(), AudioTrack.WRITE_BLOCKING);
+                if (written < 0) {
+                    Log.e(TAG, "AudioTrack write error: " + written);
+                    mStopped = true;
+                    break;
+                }
+                if (written == 0 && mPaused)
+                    LockSupport.parkNanos(this, PARK_NANOS);
+            }
+            mRing.release();
+            LockSupport.unpark(mPrefetchThread);
+        }
+    }
+
+    private static void joinQuietly(Thread thread) {
+        if (thread == null)
+            return;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package com.zebra.hsdemo;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Multi-resolution waveform peaks of a recording session, stored in peaks.dat next to the segments.
+    Each level splits the session timeline (silences removed by the voice activity detection included)
+    in buckets of a fixed number of samples and keeps their min, max and RMS values. The pyramid is
+    built incrementally by the capture thread (see Builder); when the sidecar is missing or does not
+    match the session anymore (timeline length or modification time of the segments), load() rebuilds
+    it from the segments.
+    Readers only load the bucket ranges they draw: an hour of audio at the coarsest level is a few KB.
+ */
+public class PeakPyramid {
+
+    public static final String FILE_NAME = "peaks.dat";
+
+    // Samples per bucket of each level, each one a multiple of the previous one
+    public static final int[] DEFAULT_LEVELS = {256, 4096, 65536};
+
+    private static final int MAGIC = 0x4853504B; // "HSPK"
+    // Version 2 adds the modification time of the source files
+    private static final int VERSION = 2;
+    // min, max and RMS, 16 bits each
+    private static final int BUCKET_SIZE = 6;
+
+    private final File mFile;
+    private final int mSampleRate;
+    private final int mChannels;
+    private final long mSourceBytes;
+    private final int[] mSamplesPerBucket;
+    private final int[] mBucketCounts;
+    private final long[] mLevelOffsets;
+
+    private PeakPyramid(File file, int sampleRate, int channels, long sourceBytes, int[] samplesPerBucket, int[] bucketCounts, long[] levelOffsets) {
+        mFile = file;
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mSourceBytes = sourceBytes;
+        mSamplesPerBucket = samplesPerBucket;
+        mBucketCounts = bucketCounts;
+        mLevelOffsets = levelOffsets;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+
+    // Size of the PCM timeline the peaks were computed on
+    public long getSourceBytes() {
+        return mSourceBytes;
+    }
+
+    public int getLevelCount() {
+        return mSamplesPerBucket.length;
+    }
+
+    public int getSamplesPerBucket(int level) {
+        return mSamplesPerBucket[level];
+    }
+
+    public int getBucketCount(int level) {
+        return mBucketCounts[level];
+    }
+
+    // Coarsest level that still has at least one bucket per pixel when samplesPerPixel samples are drawn in a pixel
+    public int selectLevel(long samplesPerPixel) {
+        int level = 0;
+        for (int i = 1; i < mSamplesPerBucket.length; i++) {
+            if (mSamplesPerBucket[i] <= samplesPerPixel)
+                level = i;
+        }
+        return level;
+    }
+
+    /*
+        Read count buckets of a level from firstBucket, only this range of the sidecar is read.
+        Returns the number of buckets read (fewer at the end of the level).
+     */
+    public int readBuckets(int level, int firstBucket, int count, short[] min, short[] max, short[] rms) throws IOException {
+        count = Math.max(0, Math.min(count, mBucketCounts[level] - firstBucket));
+        if (count == 0)
+            return 0;
+        ByteBuffer buffer = ByteBuffer.allocate(count * BUCKET_SIZE);
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "r")) {
+            FileChannel channel = file.getChannel();
+            long position = mLevelOffsets[level] + (long) firstBucket * BUCKET_SIZE;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if (read < 0)
+                    throw new IOException("Truncated peak file " + mFile.getPath());
+            }
+        }
+        buffer.flip();
+        for (int i = 0; i < count; i++) {
+            min[i] = buffer.getShort();
+            max[i] = buffer.getShort();
+            rms[i] = buffer.getShort();
+        }
+        return count;
+    }
+
+    /*
+        Min and max of each column of a pixels wide overview of the whole timeline, read from the
+        coarsest level that still has a bucket per column.
+     */
+    public void readOverview(int pixels, short[] min, short[] max) throws IOException {
+        long samplesPerPixel = Math.max(1, mSourceBytes / 2 / Math.max(1, pixels));
+        int level = selectLevel(samplesPerPixel);
+        int count = mBucketCounts[level];
+        short[] bucketMin = new short[count];
+        short[] bucketMax = new short[count];
+        short[] bucketRms = new short[count];
+        readBuckets(level, 0, count, bucketMin, bucketMax, bucketRms);
+        for (int pixel = 0; pixel < pixels; pixel++) {
+            int first = (int) ((long) pixel * count / pixels);
+            int last = Math.max(first + 1, (int) ((long) (pixel + 1) * count / pixels));
+            short columnMin = 0;
+            short columnMax = 0;
+            for (int i = first; i < last && i < count; i++) {
+                columnMin = (short) Math.min(columnMin, bucketMin[i]);
+                columnMax = (short) Math.max(columnMax, bucketMax[i]);
+            }
+            min[pixel] = columnMin;
+            max[pixel] = columnMax;
+        }
+    }
+
+    /*
+        Open the peaks of a session, returns null when there is no sidecar or when it was not computed
+        on a timeline of sourceBytes bytes from files last modified at sourceModified (the recording changed).
+     */
+    public static PeakPyramid read(File directory, long sourceBytes, long sourceModified) throws IOException {
+        File file = new File(directory, FILE_NAME);
+        if (!file.exists())
+            return null;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return null;
+            int sampleRate = in.readInt();
+            int channels = in.readInt();
+            long storedSourceBytes = in.readLong();
+            if (storedSourceBytes != sourceBytes || in.readLong() != sourceModified)
+                return null;
+            int levelCount = in.readInt();
+            if (levelCount <= 0 || levelCount > 16)
+                return null;
+            int[] samplesPerBucket = new int[levelCount];
+            int[] bucketCounts = new int[levelCount];
+            for (int i = 0; i < levelCount; i++) {
+                samplesPerBucket[i] = in.readInt();
+                bucketCounts[i] = in.readInt();
+            }
+            long[] levelOffsets = new long[levelCount];
+            long offset = in.getFilePointer();
+            for (int i = 0; i < levelCount; i++) {
+                levelOffsets[i] = offset;
+                offset += (long) bucketCounts[i] * BUCKET_SIZE;
+            }
+            if (offset != in.length())
+                return null;
+            return new PeakPyramid(file, sampleRate, channels, storedSourceBytes, samplesPerBucket, bucketCounts, levelOffsets);
+        }
+    }
+
+    /*
+        Peaks of the session recorded in directory, rebuilt from the segments when the sidecar is missing
+        or out of date. rawDataOffset is the position of the first sample in headerless segments.
+        Returns null when there is no session.
+     */
+    public static PeakPyramid load(File directory, long rawDataOffset, int channels) throws IOException {
+        List<SegmentedRecordingStore.Segment> segments = SegmentedRecordingStore.readIndex(directory);
+        if (segments.isEmpty())
+            return null;
+        SilenceIndex silenceIndex = SilenceIndex.read(directory);
+        long sourceBytes = silenceIndex.getTotalSilenceBytes();
+        for (SegmentedRecordingStore.Segment segment : segments) {
+            sourceBytes += segment.dataSize;
+        }
+        long sourceModified = getSourceModified(directory, segments);
+        PeakPyramid pyramid = read(directory, sourceBytes, sourceModified);
+        if (pyramid != null)
+            return pyramid;
+
+        Builder builder = new Builder(SegmentedRecordingStore.readSampleRate(directory), channels, DEFAULT_LEVELS);
+        rebuild(builder, segments, rawDataOffset, silenceIndex.getMarkers());
+        builder.write(directory);
+        return read(directory, builder.getSourceBytes(), sourceModified);
+    }
+
+    // Latest modification time of the segments and of the silence index, a new recording of the same length differs
+    private static long getSourceModified(File directory, List<SegmentedRecordingStore.Segment> segments) {
+        long modified = new File(directory, SilenceIndex.FILE_NAME).lastModified();
+        for (SegmentedRecordingStore.Segment segment : segments) {
+            modified = Math.max(modified, segment.file.lastModified());
+        }
+        return modified;
+    }
+
+    // Same walk as the playback: segments one after the other with the removed silences put back
+    private static void rebuild(Builder builder, List<SegmentedRecordingStore.Segment> segments, long rawDataOffset, List<SilenceIndex.Marker> silences) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(PcmNormalizer.DEFAULT_BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        int nextSilence = 0;
+        long streamPosition = 0;
+        for (SegmentedRecordingStore.Segment segment : segments) {
+            try (PcmFileReader reader = PcmFileReader.open(segment.file, rawDataOffset)) {
+                while (true) {
+                    while (nextSilence < silences.size() && silences.get(nextSilence).byteOffset <= streamPosition) {
+                        builder.updateSilence(silences.get(nextSilence++).length);
+                    }
+                    long toNextSilence = nextSilence < silences.size() ? silences.get(nextSilence).byteOffset - streamPosition : Long.MAX_VALUE;
+                    block.clear();
+                    if (toNextSilence < block.capacity())
+                        block.limit((int) toNextSilence);
+                    int read;
+                    do {
+                        read = reader.read(block);
+                    } while (read >= 0 && block.hasRemaining());
+                    block.flip();
+                    block.limit(block.limit() & ~1);
+                    streamPosition += block.remaining();
+                    builder.update(block);
+                    if (read < 0)
+                        break;
+                }
+            }
+        }
+        while (nextSilence < silences.size()) {
+            builder.updateSilence(silences.get(nextSilence++).length);
+        }
+    }
+
+    /*
+        Computes the pyramid block by block, e.g. from the capture thread. Only the finest level looks
+        at the samples, the other levels aggregate the buckets of the level below. The buckets are kept
+        in memory (6 bytes per 256 samples with the default levels) until write() is called.
+     */
+    public static class Builder
+    {
+        private final int mSampleRate;
+        private final int mChannels;
+        private final Level[] mLevels;
+        private long mSourceBytes = 0;
+
+        private static class Level
+        {
+            final int samplesPerBucket;
+            short[] min = new short[256];
+            short[] max = new short[256];
+            short[] rms = new short[256];
+            int count = 0;
+
+            // Bucket being filled
+            int currentMin = Integer.MAX_VALUE;
+            int currentMax = Integer.MIN_VALUE;
+            double currentSumSquares = 0;
+            long currentSamples = 0;
+
+            Level(int samplesPerBucket)
+            {
+                this.samplesPerBucket = samplesPerBucket;
+            }
+
+            void add(int bucketMin, int bucketMax, double sumSquares, long samples)
+            {
+                currentMin = Math.min(currentMin, bucketMin);
+                currentMax = Math.max(currentMax, bucketMax);
+                currentSumSquares += sumSquares;
+                currentSamples += samples;
+            }
+
+            void appendCurrent()
+            {
+                if (count == min.length) {
+                    min = Arrays.copyOf(min, count * 2);
+                    max = Arrays.copyOf(max, count * 2);
+                    rms = Arrays.copyOf(rms, count * 2);
+                }
+                min[count] = (short) currentMin;
+                max[count] = (short) currentMax;
+                rms[count] = (short) Math.min(Short.MAX_VALUE, Math.round(Math.sqrt(currentSumSquares / currentSamples)));
+                count++;
+                currentMin = Integer.MAX_VALUE;
+                currentMax = Integer.MIN_VALUE;
+                currentSumSquares = 0;
+                currentSamples = 0;
+            }
+        }
+
+        public Builder(int sampleRate, int channels, int[] levels)
+        {
+            mSampleRate = sampleRate;
+            mChannels = channels;
+            mLevels = new Level[levels.length];
+            for (int i = 0; i < levels.length; i++) {
+                if (levels[i] <= 0 || (i > 0 && levels[i] % levels[i - 1] != 0))
+                    throw new IllegalArgumentException("Each level must be a multiple of the previous one");
+                mLevels[i] = new Level(levels[i]);
+            }
+        }
+
+        public long getSourceBytes()
+        {
+            return mSourceBytes;
+        }
+
+        // Samples between position and limit in the buffer byte order, position is left unchanged
+        public void update(ByteBuffer block)
+        {
+            Level level = mLevels[0];
+            int end = block.limit() - 1;
+            int min = level.currentMin;
+            int max = level.currentMax;
+            double sumSquares = level.currentSumSquares;
+            long samples = level.currentSamples;
+            for (int i = block.position(); i < end; i += 2) {
+                int sample = block.getShort(i);
+                if (sample < min)
+                    min = sample;
+                if (sample > max)
+                    max = sample;
+                sumSquares += sample * sample;
+                if (++samples == level.samplesPerBucket) {
+                    level.currentMin = min;
+                    level.currentMax = max;
+                    level.currentSumSquares = sumSquares;
+                    level.currentSamples = samples;
+                    completeBucket(0);
+                    min = Integer.MAX_VALUE;
+                    max = Integer.MIN_VALUE;
+                    sumSquares = 0;
+                    samples = 0;
+                }
+            }
+            level.currentMin = min;
+            level.currentMax = max;
+            level.currentSumSquares = sumSquares;
+            level.currentSamples = samples;
+            mSourceBytes += (block.remaining() & ~1);
+        }
+
+        // Silence removed by the voice activity detection, bucket by bucket instead of sample by sample
+        public void updateSilence(long bytes)
+        {
+            Level level = mLevels[0];
+            long samples = bytes / 2;
+            while (samples > 0) {
+                long length = Math.min(samples, level.samplesPerBucket - level.currentSamples);
+                level.add(0, 0, 0, length);
+                samples -= length;
+                if (level.currentSamples == level.samplesPerBucket)
+                    completeBucket(0);
+            }
+            mSourceBytes += bytes & ~1;
+        }
+
+        private void completeBucket(int index)
+        {
+            Level level = mLevels[index];
+            if (index + 1 < mLevels.length) {
+                Level next = mLevels[index + 1];
+                next.add(level.currentMin, level.currentMax, level.currentSumSquares, level.currentSamples);
+                level.appendCurrent();
+                if (next.currentSamples == next.samplesPerBucket)
+                    completeBucket(index + 1);
+            } else {
+                level.appendCurrent();
+            }
+        }
+
+        /*
+            Close the partial buckets and write the sidecar in directory (through a temporary file, a reader
+            never sees a partial file). Ends the build, the builder can't be updated afterwards.
+            The segments must be closed, their modification time is stored with the peaks.
+         */
+        public void write(File directory) throws IOException
+        {
+            long sourceModified = getSourceModified(directory, SegmentedRecordingStore.readIndex(directory));
+            for (int i = 0; i < mLevels.length; i++) {
+                Level level = mLevels[i];
+                if (level.currentSamples == 0)
+                    continue;
+                if (i + 1 < mLevels.length)
+                    mLevels[i + 1].add(level.currentMin, level.currentMax, level.currentSumSquares, level.currentSamples);
+                level.appendCurrent();
+            }
+
+            File file = new File(directory, FILE_NAME);
+            File tempFile = new File(directory, FILE_NAME + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(mSampleRate);
+                out.writeInt(mChannels);
+                out.writeLong(mSourceBytes);
+                out.writeLong(sourceModified);
+                out.writeInt(mLevels.length);
+                for (Level level : mLevels) {
+                    out.writeInt(level.samplesPerBucket);
+                    out.writeInt(level.count);
+                }
+                for (Level level : mLevels) {
+                    for (int i = 0; i < level.count; i++) {
+                        out.writeShort(level.min[i]);
+                        out.writeShort(level.max[i]);
+                        out.writeShort(level.rms[i]);
+                    }
+                }
+            }
+            if (!tempFile.renameTo(file))
+                throw new IOException("Could not write " + file.getPath());
+        }
+    }
+}
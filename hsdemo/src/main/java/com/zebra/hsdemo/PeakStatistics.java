@@ -0,0 +1,83 @@
+package com.zebra.hsdemo;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/*
+    Running peak statistics of a 16 bits PCM stream.
+    Updated block by block (e.g. by the capture thread) so the peak of a recording is known
+    without reading it again.
+ */
+public class PeakStatistics {
+
+    private int mPeak = 0;
+    private long mSampleCount = 0;
+
+    public void reset() {
+        mPeak = 0;
+        mSampleCount = 0;
+    }
+
+    // Scan the bytes between position and limit using the buffer byte order, position is left unchanged
+    public void update(ByteBuffer buffer) {
+        int peak = mPeak;
+        int end = buffer.limit() - 1;
+        int start = buffer.position();
+        for (int i = start; i < end; i += 2) {
+            int sample = buffer.getShort(i);
+            int amplitude = sample < 0 ? -sample : sample;
+            if (amplitude > peak)
+                peak = amplitude;
+        }
+        mPeak = peak;
+        mSampleCount += (end + 1 - start) / 2;
+    }
+
+    // Scan the samples between position and limit (e.g. a MappedPcmReader window), position is left unchanged
+    public void update(ShortBuffer samples) {
+        int peak = mPeak;
+        int end = samples.limit();
+        for (int i = samples.position(); i < end; i++) {
+            int sample = samples.get(i);
+            int amplitude = sample < 0 ? -sample : sample;
+            if (amplitude > peak)
+                peak = amplitude;
+        }
+        mPeak = peak;
+        mSampleCount += samples.remaining();
+    }
+
+    // Scan little endian samples stored in a byte array
+    public void update(byte[] buffer, int offset, int length) {
+        int peak = mPeak;
+        int end = offset + length - 1;
+        for (int i = offset; i < end; i += 2) {
+            int sample = (short) ((buffer[i] & 0xFF) | (buffer[i + 1] << 8));
+            int amplitude = sample < 0 ? -sample : sample;
+            if (amplitude > peak)
+                peak = amplitude;
+        }
+        mPeak = peak;
+        mSampleCount += length / 2;
+    }
+
+    // Largest absolute sample value (0 to 32768)
+    public int getPeak() {
+        return mPeak;
+    }
+
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    public boolean isSilent() {
+        return mPeak == 0;
+    }
+
+    // Peak level relative to full scale, -Infinity for silence
+    public float getPeakDbfs() {
+        if (mPeak == 0)
+            return Float.NEGATIVE_INFINITY;
+        return 20 * (float) Math.log10(mPeak / 32767.0);
+    }
+}
@@ -0,0 +1,229 @@
+package com.zebra.hsdemo;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+    Streaming polyphase sample rate converter for 16 bits PCM.
+    The conversion ratio is reduced to L/M (e.g. 8000 -> 44000 is 11/2). A windowed sinc low pass
+    filter is designed for the upsampled rate and split in L phases of TAPS_PER_PHASE coefficients,
+    each output sample is one dot product with the phase matching its position. When decimating,
+    the filter is lengthened by the decimation ratio to keep the same transition band. The filter tables
+    only depend on the rate pair, they are built once and shared by all the resamplers.
+    The input history is kept between calls so blocks can be of any size; once the work buffer has
+    grown to the block size, process() does not allocate.
+ */
+public class PolyphaseResampler {
+
+    // Taps per phase when interpolating, multiplied by the decimation ratio when decimating
+    public static final int TAPS_PER_PHASE = 24;
+
+    // Kaiser window, about 80 dB of stop band attenuation
+    private static final double KAISER_BETA = 8.0;
+    // Pass band edge relative to the lowest Nyquist frequency, leaves room for the transition band
+    private static final double CUTOFF_RATIO = 0.9;
+
+    private static final ConcurrentHashMap<Long, FilterTable> sFilterTables = new ConcurrentHashMap<>();
+
+    // Polyphase decomposition of the low pass filter for one rate pair
+    static class FilterTable
+    {
+        final int upFactor;
+        final int downFactor;
+        final int tapsPerPhase;
+        // phases[p][k] applies to the input sample k samples before the current one
+        final float[][] phases;
+
+        FilterTable(int upFactor, int downFactor, float[][] phases)
+        {
+            this.upFactor = upFactor;
+            this.downFactor = downFactor;
+            this.tapsPerPhase = phases[0].length;
+            this.phases = phases;
+        }
+    }
+
+    private final int mInputRate;
+    private final int mOutputRate;
+    private final int mChannels;
+    private final FilterTable mTable;
+    private final int mHistory;
+
+    // Per channel input samples: history followed by the current block
+    private float[][] mBuffer;
+    // Position of the next output sample in 1/L input samples, relative to the first sample of the current block
+    private long mTime = 0;
+
+    public PolyphaseResampler(int inputRate, int outputRate, int channels) {
+        if (inputRate <= 0 || outputRate <= 0 || channels <= 0)
+            throw new IllegalArgumentException("Invalid resampler configuration " + inputRate + " -> " + outputRate);
+        mInputRate = inputRate;
+        mOutputRate = outputRate;
+        mChannels = channels;
+        mTable = inputRate == outputRate ? null : getFilterTable(inputRate, outputRate);
+        mHistory = mTable != null ? mTable.tapsPerPhase - 1 : 0;
+        mBuffer = new float[channels][mHistory + 1024];
+    }
+
+    public int getInputRate() {
+        return mInputRate;
+    }
+
+    public int getOutputRate() {
+        return mOutputRate;
+    }
+
+    // Largest number of frames produced from inputFrames frames
+    public int getMaxOutputFrames(int inputFrames) {
+        if (mTable == null)
+            return inputFrames;
+        return (int) (((long) inputFrames * mTable.upFactor + mTable.downFactor - 1) / mTable.downFactor) + 1;
+    }
+
+    // Largest number of input frames that can't produce more than outputFrames frames
+    public int getMaxInputFrames(int outputFrames) {
+        if (mTable == null)
+            return outputFrames;
+        return (int) Math.max(1, ((long) outputFrames - 2) * mTable.downFactor / mTable.upFactor);
+    }
+
+    // Forget the history, e.g. after a seek
+    public void reset() {
+        mTime = 0;
+        for (float[] buffer : mBuffer) {
+            Arrays.fill(buffer, 0, mHistory, 0f);
+        }
+    }
+
+    /*
+        Resample the frames between position and limit of in into out (both in their buffer byte order).
+        The in position is moved to its limit and out must have room for getMaxOutputFrames() frames.
+        Returns the number of frames written.
+     */
+    public int process(ByteBuffer in, ByteBuffer out) {
+        int frameSize = 2 * mChannels;
+        int frames = in.remaining() / frameSize;
+        if (out.remaining() < getMaxOutputFrames(frames) * frameSize)
+            throw new IllegalArgumentException("Output buffer too small");
+
+        if (mTable == null) {
+            int limit = in.limit();
+            in.limit(in.position() + frames * frameSize);
+            out.put(in);
+            in.limit(limit);
+            in.position(limit);
+            return frames;
+        }
+
+        if (mBuffer[0].length < mHistory + frames) {
+            for (int c = 0; c < mChannels; c++) {
+                float[] buffer = new float[mHistory + frames];
+                System.arraycopy(mBuffer[c], 0, buffer, 0, mHistory);
+                mBuffer[c] = buffer;
+            }
+        }
+        for (int f = 0; f < frames; f++) {
+            for (int c = 0; c < mChannels; c++) {
+                mBuffer[c][mHistory + f] = in.getShort();
+            }
+        }
+        in.position(in.limit());
+
+        int upFactor = mTable.upFactor;
+        int downFactor = mTable.downFactor;
+        float[][] phases = mTable.phases;
+        int taps = mTable.tapsPerPhase;
+        int produced = 0;
+        long time = mTime;
+        long end = (long) frames * upFactor;
+        while (time < end) {
+            int index = (int) (time / upFactor);
+            float[] coefficients = phases[(int) (time - (long) index * upFactor)];
+            int base = mHistory + index;
+            for (int c = 0; c < mChannels; c++) {
+                float[] x = mBuffer[c];
+                float accumulator = 0;
+                for (int k = 0; k < taps; k++) {
+                    accumulator += coefficients[k] * x[base - k];
+                }
+                out.putShort(saturate(accumulator));
+            }
+            time += downFactor;
+            produced++;
+        }
+        mTime = time - end;
+
+        // Keep the last samples as history of the next block
+        for (int c = 0; c < mChannels; c++) {
+            System.arraycopy(mBuffer[c], frames, mBuffer[c], 0, mHistory);
+        }
+        return produced;
+    }
+
+    private static short saturate(float value) {
+        int sample = Math.round(value);
+        if (sample > Short.MAX_VALUE)
+            return Short.MAX_VALUE;
+        if (sample < Short.MIN_VALUE)
+            return Short.MIN_VALUE;
+        return (short) sample;
+    }
+
+    // Cached per rate pair, the first call for a pair designs the filter
+    static FilterTable getFilterTable(int inputRate, int outputRate) {
+        Long key = ((long) inputRate << 32) | outputRate;
+        FilterTable table = sFilterTables.get(key);
+        if (table == null) {
+            table = createFilterTable(inputRate, outputRate);
+            FilterTable previous = sFilterTables.putIfAbsent(key, table);
+            if (previous != null)
+                table = previous;
+        }
+        return table;
+    }
+
+    private static FilterTable createFilterTable(int inputRate, int outputRate) {
+        int gcd = gcd(inputRate, outputRate);
+        int upFactor = outputRate / gcd;
+        int downFactor = inputRate / gcd;
+        int tapsPerPhase = TAPS_PER_PHASE * Math.max(1, (downFactor + upFactor - 1) / upFactor);
+        int length = upFactor * tapsPerPhase;
+
+        // Cut-off in cycles per upsampled sample, below the Nyquist frequency of the lowest rate
+        double cutoff = CUTOFF_RATIO * 0.5 / Math.max(upFactor, downFactor);
+        double center = (length - 1) / 2.0;
+        double besselBeta = besselI0(KAISER_BETA);
+        float[][] phases = new float[upFactor][tapsPerPhase];
+        for (int i = 0; i < length; i++) {
+            double t = i - center;
+            double sinc = t == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * t) / (Math.PI * t);
+            double ratio = t / (center + 1);
+            double window = besselI0(KAISER_BETA * Math.sqrt(Math.max(0, 1 - ratio * ratio))) / besselBeta;
+            // The gain of L compensates the zeros inserted by the upsampling
+            phases[i % upFactor][i / upFactor] = (float) (upFactor * sinc * window);
+        }
+        return new FilterTable(upFactor, downFactor, phases);
+    }
+
+    private static double besselI0(double x) {
+        double sum = 1;
+        double term = 1;
+        for (int k = 1; k < 32; k++) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+            if (term < sum * 1e-12)
+                break;
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
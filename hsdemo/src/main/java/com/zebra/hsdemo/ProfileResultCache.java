@@ -0,0 +1,73 @@
+package com.zebra.hsdemo;
+
+/*
+    Remembers the last profile applied with success, so applying the same profile again completes
+    without a ProfileManager round trip.
+    The entry is the 64 bits FNV-1a hash of the profile XML and a signature of the device volume state
+    read right after the profile was applied. A lookup is a hit when the hash matches and the device
+    still reports the same state: a volume or ringer mode change made on the device since then
+    invalidates the entry. Applying another profile replaces the entry, it can undo what the previous
+    profile did. invalidate() drops the entry when the profile state may have changed elsewhere
+    (e.g. another application applied a profile while this one was in background).
+ */
+public class ProfileResultCache {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // Current device state, compared with the state saved with the entry
+    public interface DeviceState
+    {
+        long getSignature();
+    }
+
+    private final DeviceState mDeviceState;
+    private boolean mValid = false;
+    private long mProfileHash;
+    private long mStateSignature;
+    private int mHits = 0;
+    private int mMisses = 0;
+
+    public ProfileResultCache(DeviceState deviceState) {
+        mDeviceState = deviceState;
+    }
+
+    public static long hash(CharSequence content) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    // True when this profile was the last one applied and the device state did not change since
+    public synchronized boolean isApplied(long profileHash) {
+        boolean hit = mValid && mProfileHash == profileHash && mStateSignature == mDeviceState.getSignature();
+        if (hit)
+            mHits++;
+        else
+            mMisses++;
+        return hit;
+    }
+
+    // Called after the profile was applied with success
+    public synchronized void onApplied(long profileHash) {
+        mProfileHash = profileHash;
+        mStateSignature = mDeviceState.getSignature();
+        mValid = true;
+    }
+
+    public synchronized void invalidate() {
+        mValid = false;
+    }
+
+    public synchronized int getHits() {
+        return mHits;
+    }
+
+    public synchronized int getMisses() {
+        return mMisses;
+    }
+}
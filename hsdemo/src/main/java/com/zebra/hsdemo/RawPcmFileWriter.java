@@ -0,0 +1,46 @@
+package com.zebra.hsdemo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+    Writes headerless PCM samples to a file.
+ */
+public class RawPcmFileWriter implements PcmSink {
+
+    private final FileOutputStream mOutputStream;
+    private final FileChannel mChannel;
+    private long mDataSize = 0;
+
+    public RawPcmFileWriter(File file) throws IOException {
+        mOutputStream = new FileOutputStream(file);
+        mChannel = mOutputStream.getChannel();
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        mOutputStream.write(data, offset, length);
+        mDataSize += length;
+    }
+
+    @Override
+    public void write(ByteBuffer data) throws IOException {
+        mDataSize += data.remaining();
+        while (data.hasRemaining()) {
+            mChannel.write(data);
+        }
+    }
+
+    @Override
+    public long getDataSize() {
+        return mDataSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mOutputStream.close();
+    }
+}
@@ -0,0 +1,45 @@
+package com.zebra.hsdemo;
+
+/*
+    Sample encoding of the recorded files.
+    PCM_16BIT is what AudioRecord delivers, the other formats are compressed by the capture
+    writer and stored in a WAV container with the matching format tag.
+ */
+public enum RecordingFormat {
+    PCM_16BIT(1, 16),
+    // 4 bits per sample, 4:1
+    IMA_ADPCM(0x11, 4),
+    // 8 bits per sample, 2:1
+    MU_LAW(7, 8),
+    A_LAW(6, 8);
+
+    private final int mFormatTag;
+    private final int mBitsPerSample;
+
+    RecordingFormat(int formatTag, int bitsPerSample) {
+        mFormatTag = formatTag;
+        mBitsPerSample = bitsPerSample;
+    }
+
+    // WAVE format tag of the fmt chunk
+    public int getFormatTag() {
+        return mFormatTag;
+    }
+
+    public int getBitsPerSample() {
+        return mBitsPerSample;
+    }
+
+    public boolean isCompressed() {
+        return this != PCM_16BIT;
+    }
+
+    // Returns null for unknown tags
+    public static RecordingFormat fromFormatTag(int formatTag) {
+        for (RecordingFormat format : values()) {
+            if (format.mFormatTag == formatTag)
+                return format;
+        }
+        return null;
+    }
+}
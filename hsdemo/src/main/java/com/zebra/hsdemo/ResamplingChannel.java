@@ -0,0 +1,76 @@
+package com.zebra.hsdemo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+/*
+    16 bits little endian PCM channel converted to another sample rate on the fly.
+    Used to export a recording at another rate than it was recorded at (e.g. the 8/16 kHz SCO rates).
+ */
+public class ResamplingChannel implements ReadableByteChannel {
+
+    private static final int SOURCE_BLOCK_FRAMES = 4096;
+
+    private final ReadableByteChannel mSource;
+    private final PolyphaseResampler mResampler;
+    private final ByteBuffer mSourceBlock;
+    private final ByteBuffer mOutputBlock;
+    private boolean mEndOfSource = false;
+
+    public ResamplingChannel(ReadableByteChannel source, int sourceRate, int outputRate, int channels) {
+        mSource = source;
+        mResampler = new PolyphaseResampler(sourceRate, outputRate, channels);
+        int frameSize = channels * 2;
+        mSourceBlock = ByteBuffer.allocate(SOURCE_BLOCK_FRAMES * frameSize).order(ByteOrder.LITTLE_ENDIAN);
+        mSourceBlock.flip();
+        mOutputBlock = ByteBuffer.allocate(mResampler.getMaxOutputFrames(SOURCE_BLOCK_FRAMES) * frameSize).order(ByteOrder.LITTLE_ENDIAN);
+        mOutputBlock.flip();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        while (!mOutputBlock.hasRemaining()) {
+            if (mEndOfSource)
+                return -1;
+            fillOutput();
+        }
+        int length = Math.min(dst.remaining(), mOutputBlock.remaining());
+        int limit = mOutputBlock.limit();
+        mOutputBlock.limit(mOutputBlock.position() + length);
+        dst.put(mOutputBlock);
+        mOutputBlock.limit(limit);
+        return length;
+    }
+
+    private void fillOutput() throws IOException {
+        // Keep a trailing partial frame for the next read
+        mSourceBlock.compact();
+        while (mSourceBlock.hasRemaining()) {
+            if (mSource.read(mSourceBlock) < 0) {
+                mEndOfSource = true;
+                break;
+            }
+        }
+        mSourceBlock.flip();
+        int frameSize = mSourceBlock.capacity() / SOURCE_BLOCK_FRAMES;
+        int whole = mSourceBlock.remaining() - mSourceBlock.remaining() % frameSize;
+        int limit = mSourceBlock.limit();
+        mSourceBlock.limit(mSourceBlock.position() + whole);
+        mOutputBlock.clear();
+        mResampler.process(mSourceBlock, mOutputBlock);
+        mOutputBlock.flip();
+        mSourceBlock.limit(limit);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mSource.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSource.close();
+    }
+}
@@ -0,0 +1,313 @@
+package com.zebra.hsdemo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Bluetooth SCO link shared by the recording and the playbacks.
+    The first lease brings the link up, it then stays up while leases are held and for an idle timeout
+    after the last one is released, so back to back actions do not pay the SCO setup again.
+    A lease taken while the link is connecting becomes ready when SCO_AUDIO_STATE_CONNECTED is reported
+    (onScoAudioStateChanged()) or when the setup times out, the audio then goes to the default route.
+    Releasing a lease before it is ready cancels it, its listener is not called.
+    The AudioManager and the main thread Handler are behind interfaces so the state machine runs on a
+    JVM with a simulated AudioManager and scheduler. Listeners are called without the lock held, on the
+    thread that made the lease ready (the acquiring thread when the link is already up).
+ */
+public class ScoLinkManager {
+
+    // Values of AudioManager.SCO_AUDIO_STATE_*
+    public static final int SCO_AUDIO_STATE_ERROR = -1;
+    public static final int SCO_AUDIO_STATE_DISCONNECTED = 0;
+    public static final int SCO_AUDIO_STATE_CONNECTED = 1;
+    public static final int SCO_AUDIO_STATE_CONNECTING = 2;
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 10000;
+    public static final long DEFAULT_SETUP_TIMEOUT_MS = 4000;
+
+    public enum State { IDLE, CONNECTING, CONNECTED }
+
+    // The AudioManager calls driving the link
+    public interface ScoAudio
+    {
+        void startBluetoothSco();
+        void stopBluetoothSco();
+        void setBluetoothScoOn(boolean on);
+    }
+
+    // Delayed actions, a Handler on the main thread
+    public interface Scheduler
+    {
+        void postDelayed(Runnable action, long delayMs);
+        void removeCallbacks(Runnable action);
+    }
+
+    public interface ReadyListener
+    {
+        void onLinkReady(Lease lease);
+    }
+
+    public class Lease
+    {
+        private final ReadyListener mListener;
+        private final long mAcquireNanos = System.nanoTime();
+        private volatile long mReadyNanos = 0;
+        private volatile boolean mConnected = false;
+        private boolean mReleased = false;
+
+        private Lease(ReadyListener listener)
+        {
+            mListener = listener;
+        }
+
+        // The link was up when the lease became ready
+        public boolean isConnected()
+        {
+            return mConnected;
+        }
+
+        // Time from acquire() to ready, 0 when the link was already up
+        public long getSetupMs()
+        {
+            long readyNanos = mReadyNanos;
+            return readyNanos == 0 ? 0 : (readyNanos - mAcquireNanos) / 1000000;
+        }
+
+        // Not ready yet and not released
+        public boolean isPending()
+        {
+            synchronized (ScoLinkManager.this) {
+                return mWaitingLeases.contains(this);
+            }
+        }
+
+        public void release()
+        {
+            ScoLinkManager.this.release(this);
+        }
+    }
+
+    private final ScoAudio mScoAudio;
+    private final Scheduler mScheduler;
+    private volatile long mIdleTimeoutMs;
+    private final long mSetupTimeoutMs;
+
+    private State mState = State.IDLE;
+    private boolean mShutdown = false;
+    // A CONNECTING state was reported since the link was started
+    private boolean mConnectingReported = false;
+    private long mSetupStartNanos = 0;
+    private final List<Lease> mLeases = new ArrayList<>();
+    private final List<Lease> mWaitingLeases = new ArrayList<>();
+
+    private int mSetupCount = 0;
+    private int mFailedSetupCount = 0;
+    private int mReuseCount = 0;
+    private long mLastSetupMs = 0;
+
+    private final Runnable mIdleRelease = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ScoLinkManager.this) {
+                if (!mLeases.isEmpty() || mState == State.IDLE)
+                    return;
+                disconnect();
+            }
+        }
+    };
+
+    private final Runnable mSetupTimeout = new Runnable() {
+        @Override
+        public void run() {
+            List<Lease> failedLeases;
+            synchronized (ScoLinkManager.this) {
+                if (mState != State.CONNECTING)
+                    return;
+                mFailedSetupCount++;
+                disconnect();
+                failedLeases = takeWaitingLeases(false);
+            }
+            notifyReady(failedLeases);
+        }
+    };
+
+    public ScoLinkManager(ScoAudio scoAudio, Scheduler scheduler, long idleTimeoutMs, long setupTimeoutMs) {
+        mScoAudio = scoAudio;
+        mScheduler = scheduler;
+        mIdleTimeoutMs = idleTimeoutMs;
+        mSetupTimeoutMs = setupTimeoutMs;
+    }
+
+    // Applies to the next idle period
+    public void setIdleTimeoutMs(long idleTimeoutMs) {
+        mIdleTimeoutMs = idleTimeoutMs;
+    }
+
+    public synchronized State getState() {
+        return mState;
+    }
+
+    // Brings the link up if needed, the listener is called when the lease is ready
+    public Lease acquire(ReadyListener listener) {
+        Lease lease = new Lease(listener);
+        boolean ready;
+        synchronized (this) {
+            if (mShutdown) {
+                lease.mReleased = true;
+                ready = true;
+            } else {
+                mScheduler.removeCallbacks(mIdleRelease);
+                mLeases.add(lease);
+                ready = mState == State.CONNECTED;
+                if (ready) {
+                    mReuseCount++;
+                    lease.mConnected = true;
+                } else {
+                    mWaitingLeases.add(lease);
+                    if (mState == State.IDLE)
+                        connect();
+                }
+            }
+        }
+        if (ready) {
+            List<Lease> leases = new ArrayList<>(1);
+            leases.add(lease);
+            notifyReady(leases);
+        }
+        return lease;
+    }
+
+    // Same as acquire() and waits for the lease to be ready, to be called on a worker thread
+    public Lease acquireAndWait() throws InterruptedException {
+        final CountDownLatch ready = new CountDownLatch(1);
+        Lease lease = acquire(new ReadyListener() {
+            @Override
+            public void onLinkReady(Lease lease) {
+                ready.countDown();
+            }
+        });
+        // The setup timeout runs on the scheduler, do not wait forever when it is stalled
+        if (!ready.await(mSetupTimeoutMs + 1000, TimeUnit.MILLISECONDS))
+            lease.mReadyNanos = System.nanoTime();
+        return lease;
+    }
+
+    // Called with the EXTRA_SCO_AUDIO_STATE of each ACTION_SCO_AUDIO_STATE_UPDATED broadcast
+    public void onScoAudioStateChanged(int scoAudioState) {
+        List<Lease> readyLeases = null;
+        synchronized (this) {
+            switch (scoAudioState) {
+                case SCO_AUDIO_STATE_CONNECTING:
+                    if (mState == State.CONNECTING)
+                        mConnectingReported = true;
+                    break;
+                case SCO_AUDIO_STATE_CONNECTED:
+                    if (mState != State.CONNECTING)
+                        break;
+                    mScheduler.removeCallbacks(mSetupTimeout);
+                    mScoAudio.setBluetoothScoOn(true);
+                    mState = State.CONNECTED;
+                    mSetupCount++;
+                    mLastSetupMs = (System.nanoTime() - mSetupStartNanos) / 1000000;
+                    readyLeases = takeWaitingLeases(true);
+                    // Every lease was released while connecting
+                    if (mLeases.isEmpty())
+                        mScheduler.postDelayed(mIdleRelease, mIdleTimeoutMs);
+                    break;
+                case SCO_AUDIO_STATE_DISCONNECTED:
+                case SCO_AUDIO_STATE_ERROR:
+                    if (mState == State.CONNECTING) {
+                        // The last state is reported when the receiver registers, wait for the outcome of this setup
+                        if (!mConnectingReported)
+                            break;
+                        mFailedSetupCount++;
+                        disconnect();
+                        readyLeases = takeWaitingLeases(false);
+                    } else if (mState == State.CONNECTED) {
+                        // Link lost (headset off or out of range), the next lease brings it up again
+                        mScheduler.removeCallbacks(mIdleRelease);
+                        mScoAudio.setBluetoothScoOn(false);
+                        mState = State.IDLE;
+                    }
+                    break;
+            }
+        }
+        if (readyLeases != null)
+            notifyReady(readyLeases);
+    }
+
+    // Takes the link down now, the waiting leases become ready (not connected)
+    public void shutdown() {
+        List<Lease> readyLeases;
+        synchronized (this) {
+            mShutdown = true;
+            mScheduler.removeCallbacks(mIdleRelease);
+            if (mState != State.IDLE)
+                disconnect();
+            readyLeases = takeWaitingLeases(false);
+            mLeases.clear();
+        }
+        notifyReady(readyLeases);
+    }
+
+    public synchronized long getLastSetupMs() {
+        return mLastSetupMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SCO link " + mState + ": " + mSetupCount + " setups (last " + mLastSetupMs + " ms), "
+                + mFailedSetupCount + " failed, " + mReuseCount + " reuses";
+    }
+
+    private void release(Lease lease) {
+        synchronized (this) {
+            if (lease.mReleased)
+                return;
+            lease.mReleased = true;
+            mLeases.remove(lease);
+            mWaitingLeases.remove(lease);
+            if (mLeases.isEmpty() && mState != State.IDLE && !mShutdown)
+                mScheduler.postDelayed(mIdleRelease, mIdleTimeoutMs);
+        }
+    }
+
+    // Called with the lock held
+    private void connect() {
+        mState = State.CONNECTING;
+        mConnectingReported = false;
+        mSetupStartNanos = System.nanoTime();
+        mScoAudio.startBluetoothSco();
+        mScheduler.postDelayed(mSetupTimeout, mSetupTimeoutMs);
+    }
+
+    // Called with the lock held
+    private void disconnect() {
+        mScheduler.removeCallbacks(mSetupTimeout);
+        mScheduler.removeCallbacks(mIdleRelease);
+        mScoAudio.setBluetoothScoOn(false);
+        mScoAudio.stopBluetoothSco();
+        mState = State.IDLE;
+    }
+
+    // Called with the lock held
+    private List<Lease> takeWaitingLeases(boolean connected) {
+        List<Lease> leases = new ArrayList<>(mWaitingLeases);
+        mWaitingLeases.clear();
+        long now = System.nanoTime();
+        for (Lease lease : leases) {
+            lease.mConnected = connected;
+            lease.mReadyNanos = now;
+        }
+        return leases;
+    }
+
+    private static void notifyReady(List<Lease> leases) {
+        for (Lease lease : leases) {
+            if (lease.mListener != null)
+                lease.mListener.onLinkReady(lease);
+        }
+    }
+}
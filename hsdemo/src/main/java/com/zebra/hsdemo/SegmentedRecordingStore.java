@@ -0,0 +1,265 @@
+package com.zebra.hsdemo;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+    Recording session split into segments.
+    The capture is written into the current segment file (WAV, compressed WAV or raw PCM) until it reaches the
+    configured duration or size, then the store rolls to a new segment. A compact binary index
+    (index.dat) keeps the start time and the byte offset of each finished segment in the session
+    stream. Finished segments are never modified again and can be read, played or exported while
+    the recording continues.
+ */
+public class SegmentedRecordingStore implements PcmSink {
+
+    public static final String INDEX_FILE_NAME = "index.dat";
+
+    private static final int INDEX_MAGIC = 0x48534958; // "HSIX"
+    // Version 2 adds the recording format tag
+    private static final int INDEX_VERSION = 2;
+
+    // A finished segment of the session
+    public static class Segment
+    {
+        public final int index;
+        public final File file;
+        // Wall clock time when the segment was opened
+        public final long startTimeMillis;
+        // Offset of the first sample of the segment in the whole session PCM stream
+        public final long byteOffset;
+        // Number of PCM bytes in the segment (header excluded, before compression)
+        public final long dataSize;
+
+        Segment(int index, File file, long startTimeMillis, long byteOffset, long dataSize)
+        {
+            this.index = index;
+            this.file = file;
+            this.startTimeMillis = startTimeMillis;
+            this.byteOffset = byteOffset;
+            this.dataSize = dataSize;
+        }
+    }
+
+    private final File mDirectory;
+    private final int mSampleRate;
+    private final int mChannels;
+    private final int mBitDepth;
+    private final boolean mWav;
+    private final RecordingFormat mFormat;
+    private final long mMaxSegmentBytes;
+
+    private final List<Segment> mFinishedSegments = new CopyOnWriteArrayList<>();
+    private final DataOutputStream mIndexStream;
+
+    // Null once closed, or when a segment could not be closed or opened (the next writes then fail)
+    private PcmSink mCurrentSink = null;
+    private int mCurrentIndex = 0;
+    private long mCurrentStartTimeMillis = 0;
+    private long mCurrentByteOffset = 0;
+    private long mDataSize = 0;
+
+    /*
+        Create a new session in directory, previous segments found in it are deleted.
+        A segment is closed when it reaches maxSegmentDurationMs or maxSegmentBytes, 0 disables the limit.
+     */
+    public SegmentedRecordingStore(File directory, int sampleRate, int channels, int bitDepth, boolean wav, long maxSegmentDurationMs, long maxSegmentBytes) throws IOException {
+        this(directory, sampleRate, channels, bitDepth, wav, RecordingFormat.PCM_16BIT, maxSegmentDurationMs, maxSegmentBytes);
+    }
+
+    // Compressed formats are always stored in WAV segments, the limits apply to the PCM data before compression
+    public SegmentedRecordingStore(File directory, int sampleRate, int channels, int bitDepth, boolean wav, RecordingFormat format, long maxSegmentDurationMs, long maxSegmentBytes) throws IOException {
+        mDirectory = directory;
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mBitDepth = bitDepth;
+        mFormat = format;
+        mWav = wav || format.isCompressed();
+
+        int frameSize = channels * bitDepth / 8;
+        long maxBytes = Long.MAX_VALUE;
+        if (maxSegmentDurationMs > 0)
+            maxBytes = maxSegmentDurationMs * sampleRate / 1000 * frameSize;
+        if (maxSegmentBytes > 0)
+            maxBytes = Math.min(maxBytes, maxSegmentBytes);
+        // WAV sizes are stored on 32 bits
+        if (mWav)
+            maxBytes = Math.min(maxBytes, 0xFFFFFFFFL - WavEncoder.WAV_HEADER_SIZE);
+        mMaxSegmentBytes = Math.max(frameSize, maxBytes - (maxBytes % frameSize));
+
+        deleteSession(directory);
+        if (!directory.mkdirs() && !directory.isDirectory())
+            throw new IOException("Could not create session directory " + directory.getPath());
+
+        mIndexStream = new DataOutputStream(new FileOutputStream(new File(directory, INDEX_FILE_NAME)));
+        mIndexStream.writeInt(INDEX_MAGIC);
+        mIndexStream.writeInt(INDEX_VERSION);
+        mIndexStream.writeInt(sampleRate);
+        mIndexStream.writeInt(channels);
+        mIndexStream.writeInt(bitDepth);
+        mIndexStream.writeBoolean(mWav);
+        mIndexStream.writeInt(format.getFormatTag());
+        mIndexStream.flush();
+
+        openSegment();
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        write(ByteBuffer.wrap(data, offset, length));
+    }
+
+    @Override
+    public void write(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            if (mCurrentSink == null)
+                throw new IOException("No open segment in " + mDirectory.getPath() + " (closed or segment " + mCurrentIndex + " failed)");
+            long room = mMaxSegmentBytes - mCurrentSink.getDataSize();
+            if (room <= 0) {
+                rollSegment();
+                continue;
+            }
+            int length = (int) Math.min(room, data.remaining());
+            int limit = data.limit();
+            data.limit(data.position() + length);
+            try {
+                mCurrentSink.write(data);
+            } finally {
+                data.limit(limit);
+            }
+            mDataSize += length;
+        }
+    }
+
+    @Override
+    public long getDataSize() {
+        return mDataSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (mCurrentSink != null)
+                closeSegment();
+        } finally {
+            mIndexStream.close();
+        }
+    }
+
+    // Snapshot of the finished segments, safe to use from any thread while recording
+    public List<Segment> getFinishedSegments() {
+        return Collections.unmodifiableList(new ArrayList<>(mFinishedSegments));
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    // On failure no segment is open, the store only accepts close() afterwards
+    private void rollSegment() throws IOException {
+        closeSegment();
+        mCurrentIndex++;
+        openSegment();
+    }
+
+    private void openSegment() throws IOException {
+        File file = getSegmentFile(mDirectory, mCurrentIndex, mWav);
+        if (mFormat.isCompressed())
+            mCurrentSink = new CompressedWavFileWriter(file, mSampleRate, mChannels, mFormat);
+        else
+            mCurrentSink = mWav ? new WavFileWriter(file, mSampleRate, mChannels, mBitDepth) : new RawPcmFileWriter(file);
+        mCurrentStartTimeMillis = System.currentTimeMillis();
+        mCurrentByteOffset = mDataSize;
+    }
+
+    private void closeSegment() throws IOException {
+        PcmSink sink = mCurrentSink;
+        mCurrentSink = null;
+        sink.close();
+
+        Segment segment = new Segment(mCurrentIndex, getSegmentFile(mDirectory, mCurrentIndex, mWav), mCurrentStartTimeMillis, mCurrentByteOffset, sink.getDataSize());
+        mIndexStream.writeInt(segment.index);
+        mIndexStream.writeLong(segment.startTimeMillis);
+        mIndexStream.writeLong(segment.byteOffset);
+        mIndexStream.writeLong(segment.dataSize);
+        mIndexStream.flush();
+        mFinishedSegments.add(segment);
+    }
+
+    private static File getSegmentFile(File directory, int index, boolean wav) {
+        return new File(directory, String.format(Locale.US, "segment_%05d.%s", index, wav ? "wav" : "pcm"));
+    }
+
+    // Read the finished segments of a session from its index, returns an empty list if there is no session
+    public static List<Segment> readIndex(File directory) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        File indexFile = new File(directory, INDEX_FILE_NAME);
+        if (!indexFile.exists())
+            return segments;
+
+        try (DataInputStream in = new DataInputStream(new FileInputStream(indexFile))) {
+            int version = in.readInt() == INDEX_MAGIC ? in.readInt() : -1;
+            if (version < 1 || version > INDEX_VERSION)
+                throw new IOException("Invalid session index " + indexFile.getPath());
+            in.readInt(); // sample rate
+            in.readInt(); // channels
+            in.readInt(); // bit depth
+            boolean wav = in.readBoolean();
+            if (version >= 2)
+                in.readInt(); // format tag, the segment files carry it in their header
+            while (true) {
+                int index;
+                try {
+                    index = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                long startTimeMillis = in.readLong();
+                long byteOffset = in.readLong();
+                long dataSize = in.readLong();
+                segments.add(new Segment(index, getSegmentFile(directory, index, wav), startTimeMillis, byteOffset, dataSize));
+            }
+        } catch (EOFException e) {
+            // Last record partially written, keep the complete ones
+        }
+        return segments;
+    }
+
+    // Sample rate the session was recorded at, 0 if there is no session
+    public static int readSampleRate(File directory) throws IOException {
+        File indexFile = new File(directory, INDEX_FILE_NAME);
+        if (!indexFile.exists())
+            return 0;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(indexFile))) {
+            int version = in.readInt() == INDEX_MAGIC ? in.readInt() : -1;
+            if (version < 1 || version > INDEX_VERSION)
+                throw new IOException("Invalid session index " + indexFile.getPath());
+            return in.readInt();
+        }
+    }
+
+    public static void deleteSession(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            if (file.getName().equals(INDEX_FILE_NAME) || file.getName().equals(SilenceIndex.FILE_NAME) || file.getName().equals(PeakPyramid.FILE_NAME) || file.getName().startsWith("segment_"))
+                file.delete();
+        }
+    }
+}
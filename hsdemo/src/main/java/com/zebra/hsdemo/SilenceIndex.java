@@ -0,0 +1,120 @@
+package com.zebra.hsdemo;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Silences removed from a recording session by the voice activity detection.
+    Each marker gives the position in the stored PCM stream (session offset, like
+    SegmentedRecordingStore.Segment.byteOffset) where the silence was removed and its length in
+    PCM bytes, so playback can put it back. The markers are appended to silence.dat while recording.
+ */
+public class SilenceIndex {
+
+    public static final String FILE_NAME = "silence.dat";
+
+    private static final int MAGIC = 0x48535349; // "HSSI"
+    private static final int VERSION = 1;
+
+    public static class Marker
+    {
+        // Position in the stored PCM stream
+        public final long byteOffset;
+        // Length of the removed silence in PCM bytes
+        public final long length;
+
+        Marker(long byteOffset, long length)
+        {
+            this.byteOffset = byteOffset;
+            this.length = length;
+        }
+    }
+
+    private final List<Marker> mMarkers;
+
+    private SilenceIndex(List<Marker> markers) {
+        mMarkers = markers;
+    }
+
+    // Markers sorted by offset
+    public List<Marker> getMarkers() {
+        return mMarkers;
+    }
+
+    // Markers with an offset in [fromOffset, toOffset), e.g. the silences removed from one segment
+    public List<Marker> getMarkers(long fromOffset, long toOffset) {
+        List<Marker> markers = new ArrayList<>();
+        for (Marker marker : mMarkers) {
+            if (marker.byteOffset >= fromOffset && marker.byteOffset < toOffset)
+                markers.add(marker);
+        }
+        return markers;
+    }
+
+    public long getTotalSilenceBytes() {
+        long total = 0;
+        for (Marker marker : mMarkers) {
+            total += marker.length;
+        }
+        return total;
+    }
+
+    // Returns an empty index when the session has none
+    public static SilenceIndex read(File directory) throws IOException {
+        List<Marker> markers = new ArrayList<>();
+        File file = new File(directory, FILE_NAME);
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                    throw new IOException("Invalid silence index " + file.getPath());
+                while (true) {
+                    long byteOffset;
+                    try {
+                        byteOffset = in.readLong();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    markers.add(new Marker(byteOffset, in.readLong()));
+                }
+            } catch (EOFException e) {
+                // Last record partially written, keep the complete ones
+            }
+        }
+        return new SilenceIndex(Collections.unmodifiableList(markers));
+    }
+
+    // Appends the markers while recording
+    public static class Writer implements Closeable
+    {
+        private final DataOutputStream mStream;
+
+        public Writer(File directory) throws IOException
+        {
+            mStream = new DataOutputStream(new FileOutputStream(new File(directory, FILE_NAME)));
+            mStream.writeInt(MAGIC);
+            mStream.writeInt(VERSION);
+            mStream.flush();
+        }
+
+        public void add(long byteOffset, long length) throws IOException
+        {
+            mStream.writeLong(byteOffset);
+            mStream.writeLong(length);
+            mStream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mStream.close();
+        }
+    }
+}
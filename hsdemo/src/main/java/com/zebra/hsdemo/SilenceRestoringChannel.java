@@ -0,0 +1,80 @@
+package com.zebra.hsdemo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+
+/*
+    PCM channel with the silences removed by the voice activity detection put back, so an exported
+    recording keeps its original timing. The source starts at streamOffset in the session PCM stream
+    (SegmentedRecordingStore.Segment.byteOffset); each marker is inserted as zero samples before the
+    byte at its offset, the markers not reached when the source ends are appended (trailing silence).
+    Pass the markers of the source only, see SilenceIndex.getMarkers(long, long).
+ */
+public class SilenceRestoringChannel implements ReadableByteChannel {
+
+    private static final byte[] ZEROS = new byte[4096];
+
+    private final ReadableByteChannel mSource;
+    private final List<SilenceIndex.Marker> mSilences;
+    private int mNextSilence = 0;
+    // Position of the next source byte in the session PCM stream
+    private long mStreamPosition;
+    // Zero bytes still to return before the next source byte
+    private long mPendingSilence = 0;
+    private boolean mEndOfSource = false;
+
+    public SilenceRestoringChannel(ReadableByteChannel source, List<SilenceIndex.Marker> silences, long streamOffset) {
+        mSource = source;
+        mSilences = silences;
+        mStreamPosition = streamOffset;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining())
+            return 0;
+        while (mPendingSilence == 0 && mNextSilence < mSilences.size()
+                && (mEndOfSource || mSilences.get(mNextSilence).byteOffset <= mStreamPosition)) {
+            mPendingSilence = mSilences.get(mNextSilence++).length;
+        }
+        if (mPendingSilence > 0)
+            return putSilence(dst);
+        if (mEndOfSource)
+            return -1;
+
+        // Stop at the next silence
+        int limit = dst.limit();
+        if (mNextSilence < mSilences.size()) {
+            long available = mSilences.get(mNextSilence).byteOffset - mStreamPosition;
+            if (available < dst.remaining())
+                dst.limit(dst.position() + (int) available);
+        }
+        int read = mSource.read(dst);
+        dst.limit(limit);
+        if (read < 0) {
+            mEndOfSource = true;
+            return read(dst);
+        }
+        mStreamPosition += read;
+        return read;
+    }
+
+    private int putSilence(ByteBuffer dst) {
+        int length = (int) Math.min(dst.remaining(), Math.min(mPendingSilence, ZEROS.length));
+        dst.put(ZEROS, 0, length);
+        mPendingSilence -= length;
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mSource.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSource.close();
+    }
+}
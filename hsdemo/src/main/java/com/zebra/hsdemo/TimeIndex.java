@@ -0,0 +1,143 @@
+package com.zebra.hsdemo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Time to sample index of a recording session.
+    A time is first converted to a position in the session timeline (rate, channels and 16 bits samples),
+    then to a position in the stored PCM stream by removing the silences skipped by the voice activity
+    detection before it, and finally to a segment and a PCM offset in that segment. Both lookups are
+    binary searches on tables built from index.dat and silence.dat. PcmFileReader.seek() turns the PCM
+    offset into a file position for every recording format, so nothing before the range is decoded.
+ */
+public class TimeIndex {
+
+    // Where a range starts and how long it is, see PcmStreamPlayer.setRange()
+    public static class Range
+    {
+        // Segments from the one holding the start of the range
+        public final List<File> files;
+        // PCM offset of the start in the first file
+        public final long firstFileOffset;
+        // Position of the start in the stored PCM stream (silence markers offsets)
+        public final long streamPosition;
+        // Index of the first silence marker after the start
+        public final int nextSilence;
+        // Remaining silence to play first when the range starts inside a removed silence
+        public final long leadingSilence;
+        // Length of the range in timeline bytes (silences included)
+        public final long length;
+
+        Range(List<File> files, long firstFileOffset, long streamPosition, int nextSilence, long leadingSilence, long length)
+        {
+            this.files = files;
+            this.firstFileOffset = firstFileOffset;
+            this.streamPosition = streamPosition;
+            this.nextSilence = nextSilence;
+            this.leadingSilence = leadingSilence;
+            this.length = length;
+        }
+    }
+
+    private final int mSampleRate;
+    private final int mFrameSize;
+    private final List<SegmentedRecordingStore.Segment> mSegments;
+    private final long[] mSegmentOffsets;
+    private final List<SilenceIndex.Marker> mSilences;
+    // Timeline position of each silence
+    private final long[] mSilenceStarts;
+    private final long mTimelineSize;
+
+    public TimeIndex(int sampleRate, int channels, List<SegmentedRecordingStore.Segment> segments, List<SilenceIndex.Marker> silences) {
+        mSampleRate = sampleRate;
+        mFrameSize = channels * 2;
+        mSegments = segments;
+        mSilences = silences;
+
+        mSegmentOffsets = new long[segments.size()];
+        long storedSize = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            mSegmentOffsets[i] = segments.get(i).byteOffset;
+            storedSize = Math.max(storedSize, segments.get(i).byteOffset + segments.get(i).dataSize);
+        }
+        mSilenceStarts = new long[silences.size()];
+        long removed = 0;
+        for (int i = 0; i < silences.size(); i++) {
+            mSilenceStarts[i] = silences.get(i).byteOffset + removed;
+            removed += silences.get(i).length;
+        }
+        mTimelineSize = storedSize + removed;
+    }
+
+    // Index of the session recorded in directory (mono or multi-channel 16 bits PCM), null when there is no session
+    public static TimeIndex read(File directory, int channels) throws IOException {
+        List<SegmentedRecordingStore.Segment> segments = SegmentedRecordingStore.readIndex(directory);
+        if (segments.isEmpty())
+            return null;
+        int sampleRate = SegmentedRecordingStore.readSampleRate(directory);
+        return new TimeIndex(sampleRate, channels, segments, SilenceIndex.read(directory).getMarkers());
+    }
+
+    public long getDurationMs() {
+        return mTimelineSize / mFrameSize * 1000 / mSampleRate;
+    }
+
+    // Timeline position of a time, aligned on frames and clamped to the recording
+    public long timeToByte(long timeMs) {
+        long frame = Math.max(0, timeMs) * mSampleRate / 1000;
+        return Math.min(frame * mFrameSize, mTimelineSize - mTimelineSize % mFrameSize);
+    }
+
+    /*
+        Range [startMs, endMs) of the recording, endMs <= 0 plays until the end.
+        Returns null when the range is empty.
+     */
+    public Range getRange(long startMs, long endMs) {
+        long start = timeToByte(startMs);
+        long end = endMs <= 0 ? mTimelineSize : timeToByte(endMs);
+        if (end <= start)
+            return null;
+
+        // Last silence starting at or before the start
+        int silence = upperBound(mSilenceStarts, start) - 1;
+        long streamPosition;
+        long leadingSilence = 0;
+        if (silence < 0) {
+            streamPosition = start;
+        } else {
+            SilenceIndex.Marker marker = mSilences.get(silence);
+            long silenceEnd = mSilenceStarts[silence] + marker.length;
+            if (start < silenceEnd) {
+                streamPosition = marker.byteOffset;
+                leadingSilence = silenceEnd - start;
+            } else {
+                streamPosition = marker.byteOffset + (start - silenceEnd);
+            }
+        }
+
+        // Last segment starting at or before the stream position
+        int segment = Math.max(0, upperBound(mSegmentOffsets, streamPosition) - 1);
+        List<File> files = new ArrayList<>();
+        for (int i = segment; i < mSegments.size(); i++) {
+            files.add(mSegments.get(i).file);
+        }
+        return new Range(files, streamPosition - mSegmentOffsets[segment], streamPosition, silence + 1, leadingSilence, end - start);
+    }
+
+    // Index of the first value greater than key in a sorted array
+    private static int upperBound(long[] values, long key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] <= key)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+}
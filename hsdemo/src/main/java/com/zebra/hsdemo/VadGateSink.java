@@ -0,0 +1,138 @@
+package com.zebra.hsdemo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+    Capture sink that only persists the voiced parts of the recording.
+    Each block goes through a VoiceActivityDetector. Silent blocks are not written, the last
+    preRollMs of silence is kept in memory and written before the next voiced block so the start
+    of the utterance is not cut. Every removed silence is recorded in a SilenceIndex with the
+    stored stream position, so the original timing can be restored on playback.
+ */
+public class VadGateSink implements PcmSink {
+
+    private final PcmSink mDownstream;
+    private final VoiceActivityDetector mDetector;
+    private final SilenceIndex.Writer mIndex;
+
+    // Pre-roll ring, holds the most recent silent bytes
+    private final byte[] mPreRoll;
+    private final ByteBuffer mPreRollBuffer;
+    private int mPreRollStart = 0;
+    private int mPreRollSize = 0;
+
+    private long mDataSize = 0;
+    private long mSilentBytes = 0;
+    private long mSkippedBytes = 0;
+    private boolean mClosed = false;
+
+    public VadGateSink(PcmSink downstream, VoiceActivityDetector detector, SilenceIndex.Writer index, int sampleRate, int channels, int preRollMs) {
+        mDownstream = downstream;
+        mDetector = detector;
+        mIndex = index;
+        int frameSize = channels * 2;
+        mPreRoll = new byte[(int) ((long) preRollMs * sampleRate / 1000) * frameSize];
+        mPreRollBuffer = ByteBuffer.wrap(mPreRoll);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        write(ByteBuffer.wrap(data, offset, length).order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    @Override
+    public void write(ByteBuffer data) throws IOException {
+        int length = data.remaining();
+        mDataSize += length;
+        if (mDetector.process(data)) {
+            if (mSilentBytes > 0)
+                endSilence(data.order());
+            mDownstream.write(data);
+        } else {
+            mSilentBytes += length;
+            keepPreRoll(data);
+        }
+    }
+
+    // Record the silence that is not covered by the pre-roll and write the pre-roll
+    private void endSilence(ByteOrder order) throws IOException {
+        long skipped = mSilentBytes - mPreRollSize;
+        if (skipped > 0) {
+            mIndex.add(mDownstream.getDataSize(), skipped);
+            mSkippedBytes += skipped;
+        }
+        mPreRollBuffer.order(order);
+        int first = Math.min(mPreRollSize, mPreRoll.length - mPreRollStart);
+        writePreRoll(mPreRollStart, first);
+        writePreRoll(0, mPreRollSize - first);
+        mPreRollStart = 0;
+        mPreRollSize = 0;
+        mSilentBytes = 0;
+    }
+
+    private void writePreRoll(int offset, int length) throws IOException {
+        if (length <= 0)
+            return;
+        mPreRollBuffer.limit(offset + length);
+        mPreRollBuffer.position(offset);
+        mDownstream.write(mPreRollBuffer);
+    }
+
+    // Copy the block at the end of the ring, the oldest bytes are overwritten. The block position is moved to its limit.
+    private void keepPreRoll(ByteBuffer data) {
+        int capacity = mPreRoll.length;
+        if (capacity == 0) {
+            data.position(data.limit());
+            return;
+        }
+        // Only the last capacity bytes can stay in the ring
+        if (data.remaining() > capacity)
+            data.position(data.limit() - capacity);
+        while (data.hasRemaining()) {
+            int end = (mPreRollStart + mPreRollSize) % capacity;
+            int length = Math.min(data.remaining(), capacity - end);
+            data.get(mPreRoll, end, length);
+            int overflow = mPreRollSize + length - capacity;
+            if (overflow > 0) {
+                mPreRollStart = (mPreRollStart + overflow) % capacity;
+                mPreRollSize = capacity;
+            } else {
+                mPreRollSize += length;
+            }
+        }
+    }
+
+    // Number of PCM bytes received (voiced and silent)
+    @Override
+    public long getDataSize() {
+        return mDataSize;
+    }
+
+    // Number of PCM bytes removed from the recording
+    public long getSkippedBytes() {
+        return mSkippedBytes + (mClosed ? 0 : mSilentBytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed)
+            return;
+        mClosed = true;
+        try {
+            // A trailing silence is removed entirely, pre-roll included
+            if (mSilentBytes > 0) {
+                mIndex.add(mDownstream.getDataSize(), mSilentBytes);
+                mSkippedBytes += mSilentBytes;
+                mSilentBytes = 0;
+            }
+        } finally {
+            try {
+                mDownstream.close();
+            } finally {
+                mIndex.close();
+            }
+        }
+    }
+}
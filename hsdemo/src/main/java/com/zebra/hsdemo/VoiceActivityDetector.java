@@ -0,0 +1,101 @@
+package com.zebra.hsdemo;
+
+import java.nio.ByteBuffer;
+
+/*
+    Energy and zero-crossing rate voice activity detector for 16 bits PCM blocks.
+    A block is voiced when its energy is marginDb above the tracked noise floor, or a bit lower
+    with a high zero-crossing rate (unvoiced consonants are quiet but noisy). The decision is held
+    for hangoverMs after the last voiced block so word endings and short pauses are kept.
+    The noise floor starts at the absolute threshold, so speech in the first blocks is kept, and learns
+    a louder background slowly (more slowly still during voiced blocks).
+    One pass over the block, no allocation.
+ */
+public class VoiceActivityDetector {
+
+    public static final float DEFAULT_MARGIN_DB = 10.0f;
+
+    // Blocks below this level are never voiced, whatever the noise floor
+    private static final double ABSOLUTE_THRESHOLD_DB = -55.0;
+    private static final double MIN_NOISE_FLOOR_DB = -90.0;
+    // Zero-crossing rate (per sample) of fricatives
+    private static final double UNVOICED_ZCR = 0.25;
+    // Speed at which the noise floor follows louder background noise
+    private static final double NOISE_FLOOR_RISE = 0.02;
+    // Same during voiced blocks, a background louder than the initial floor is otherwise never learned
+    private static final double NOISE_FLOOR_VOICED_RISE = 0.002;
+
+    private final int mChannels;
+    private final double mMarginDb;
+    private final long mHangoverSamples;
+
+    private double mNoiseFloorDb = ABSOLUTE_THRESHOLD_DB;
+    private long mHangoverRemaining = 0;
+    private double mLastEnergyDb = MIN_NOISE_FLOOR_DB;
+    private double mLastZeroCrossingRate = 0;
+
+    public VoiceActivityDetector(int sampleRate, int channels, int hangoverMs, float marginDb) {
+        mChannels = channels;
+        mMarginDb = marginDb;
+        mHangoverSamples = (long) hangoverMs * sampleRate / 1000;
+    }
+
+    /*
+        Analyze the samples between position and limit (buffer byte order), the position is left unchanged.
+        Returns true when the block must be kept.
+     */
+    public boolean process(ByteBuffer block) {
+        int start = block.position();
+        int end = block.limit() - 1;
+        long energy = 0;
+        int crossings = 0;
+        int previous = 0;
+        int samples = 0;
+        for (int i = start; i < end; i += 2) {
+            int sample = block.getShort(i);
+            energy += (long) sample * sample;
+            if ((sample ^ previous) < 0)
+                crossings++;
+            previous = sample;
+            samples++;
+        }
+        if (samples == 0)
+            return mHangoverRemaining > 0;
+
+        double meanSquare = (double) energy / samples;
+        mLastEnergyDb = meanSquare > 0 ? Math.max(MIN_NOISE_FLOOR_DB, 10 * Math.log10(meanSquare / (32768.0 * 32768.0))) : MIN_NOISE_FLOOR_DB;
+        mLastZeroCrossingRate = (double) crossings / samples;
+
+        boolean voiced = mLastEnergyDb > ABSOLUTE_THRESHOLD_DB
+                && (mLastEnergyDb > mNoiseFloorDb + mMarginDb
+                    || (mLastEnergyDb > mNoiseFloorDb + mMarginDb / 2 && mLastZeroCrossingRate > UNVOICED_ZCR));
+
+        // The floor drops at once on quieter blocks and slowly rises with the background noise
+        if (mLastEnergyDb < mNoiseFloorDb)
+            mNoiseFloorDb = mLastEnergyDb;
+        else
+            mNoiseFloorDb += (mLastEnergyDb - mNoiseFloorDb) * (voiced ? NOISE_FLOOR_VOICED_RISE : NOISE_FLOOR_RISE);
+
+        if (voiced) {
+            mHangoverRemaining = mHangoverSamples;
+            return true;
+        }
+        if (mHangoverRemaining > 0) {
+            mHangoverRemaining -= samples / mChannels;
+            return true;
+        }
+        return false;
+    }
+
+    public double getLastEnergyDb() {
+        return mLastEnergyDb;
+    }
+
+    public double getLastZeroCrossingRate() {
+        return mLastZeroCrossingRate;
+    }
+
+    public double getNoiseFloorDb() {
+        return mNoiseFloorDb;
+    }
+}
@@ -0,0 +1,156 @@
+package com.zebra.hsdemo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/*
+    Streaming PCM to WAV encoder.
+    The PCM data is read in fixed size blocks, the gain is applied on each block and the block
+    is written right behind a reserved 44 bytes header. Mapped PCM recordings (see PcmFileReader)
+    are written straight from the mapped windows, they are only copied when a gain must be applied. The RIFF and data sizes are patched
+    once the last block has been written, so the memory used does not depend on the file size.
+ */
+public class WavEncoder {
+
+    public static final int WAV_HEADER_SIZE = 44;
+
+    // Size of the blocks read from the PCM file (must be a multiple of the sample size)
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    // Largest data size that can be stored in the 32 bits RIFF size fields
+    private static final long MAX_DATA_SIZE = 0xFFFFFFFFL - 36;
+
+    // Result of an encoding pass, used to report the throughput
+    public static class Result
+    {
+        public final long dataBytes;
+        public final long elapsedNanos;
+
+        Result(long dataBytes, long elapsedNanos)
+        {
+            this.dataBytes = dataBytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double getThroughputMBps()
+        {
+            if(elapsedNanos <= 0)
+                return 0;
+            return (dataBytes / (1024.0 * 1024.0)) / (elapsedNanos / 1000000000.0);
+        }
+
+        @Override
+        public String toString() {
+            return dataBytes + " bytes in " + (elapsedNanos / 1000000) + " ms (" + String.format("%.1f", getThroughputMBps()) + " MB/s)";
+        }
+    }
+
+    public static Result encode(File pcmFile, File wavFile, int sampleRate, int channels, int bitDepth, float gain) throws IOException {
+        try (FileInputStream fis = new FileInputStream(pcmFile);
+             RandomAccessFile raf = new RandomAccessFile(wavFile, "rw")) {
+            raf.setLength(0);
+            return encode(fis.getChannel(), raf.getChannel(), sampleRate, channels, bitDepth, gain, DEFAULT_BLOCK_SIZE);
+        }
+    }
+
+    /*
+        Encode the remaining content of the in channel as a WAV stream starting at the current position of the out channel.
+        in can be a PcmFileReader to re-encode a compressed recording.
+        The out channel must be seekable, the header is patched at the end of the process.
+     */
+    public static Result encode(ReadableByteChannel in, FileChannel out, int sampleRate, int channels, int bitDepth, float gain, int blockSize) throws IOException {
+        long startTime = System.nanoTime();
+        int frameSize = Math.max(1, channels * bitDepth / 8);
+        blockSize = Math.max(frameSize, blockSize - (blockSize % frameSize));
+
+        // Reserve room for the header, sizes will be filled at the end
+        long headerPosition = out.position();
+        writeFully(out, createHeader(0, sampleRate, channels, bitDepth));
+
+        MappedPcmReader mapped = in instanceof PcmFileReader ? ((PcmFileReader) in).getMappedReader() : null;
+        ByteBuffer block = ByteBuffer.allocateDirect(blockSize).order(ByteOrder.LITTLE_ENDIAN);
+        int gainQ15 = PcmGain.toQ15(gain);
+        long dataSize = 0;
+        while (true) {
+            ByteBuffer data;
+            if (mapped != null) {
+                data = mapped.nextBytes(blockSize);
+                if (data == null)
+                    break;
+                // The mapping is read only
+                if (gainQ15 != PcmGain.UNITY_Q15) {
+                    block.clear();
+                    block.put(data);
+                    block.flip();
+                    data = block;
+                }
+            } else {
+                if (readBlock(in, block) == 0)
+                    break;
+                data = block;
+            }
+            // Drop a trailing incomplete sample
+            int length = data.remaining() - (data.remaining() % frameSize);
+            if(length == 0)
+                break;
+            data.limit(data.position() + length);
+            PcmGain.applyGainQ15(data, gainQ15);
+            writeFully(out, data);
+            dataSize += length;
+        }
+
+        long endPosition = out.position();
+        out.position(headerPosition);
+        writeFully(out, createHeader(dataSize, sampleRate, channels, bitDepth));
+        out.position(endPosition);
+
+        return new Result(dataSize, System.nanoTime() - startTime);
+    }
+
+    public static ByteBuffer createHeader(long pcmDataLength, int sampleRate, int channels, int bitDepth) {
+        int byteRate = sampleRate * channels * bitDepth / 8;
+        int blockAlign = channels * bitDepth / 8;
+        int dataSize = (int) Math.min(pcmDataLength, MAX_DATA_SIZE);
+        int chunkSize = 36 + dataSize;
+
+        ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] {'R', 'I', 'F', 'F'});         // ChunkID
+        header.putInt(chunkSize);                             // ChunkSize
+        header.put(new byte[] {'W', 'A', 'V', 'E'});         // Format
+        header.put(new byte[] {'f', 'm', 't', ' '});         // Subchunk1ID
+        header.putInt(16);                                    // Subchunk1Size
+        header.putShort((short) 1);                           // AudioFormat (PCM)
+        header.putShort((short) channels);                    // NumChannels
+        header.putInt(sampleRate);                            // SampleRate
+        header.putInt(byteRate);                              // ByteRate
+        header.putShort((short) blockAlign);                  // BlockAlign
+        header.putShort((short) bitDepth);                    // BitsPerSample
+        header.put(new byte[] {'d', 'a', 't', 'a'});         // Subchunk2ID
+        header.putInt(dataSize);                              // Subchunk2Size
+        header.flip();
+        return header;
+    }
+
+    // Read until the block is full or the end of the channel is reached
+    private static int readBlock(ReadableByteChannel in, ByteBuffer block) throws IOException {
+        block.clear();
+        while (block.hasRemaining()) {
+            if (in.read(block) < 0)
+                break;
+        }
+        block.flip();
+        return block.limit();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
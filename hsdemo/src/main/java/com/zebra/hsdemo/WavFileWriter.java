@@ -0,0 +1,70 @@
+package com.zebra.hsdemo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+    Writes PCM samples into a WAV container while they are captured.
+    A 44 bytes header is reserved when the file is opened, the samples are appended behind it
+    and the RIFF and data sizes are patched when the writer is closed.
+ */
+public class WavFileWriter implements PcmSink {
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final int mSampleRate;
+    private final int mChannels;
+    private final int mBitDepth;
+    private long mDataSize = 0;
+    private boolean mClosed = false;
+
+    public WavFileWriter(File file, int sampleRate, int channels, int bitDepth) throws IOException {
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mBitDepth = bitDepth;
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        writeFully(WavEncoder.createHeader(0, sampleRate, channels, bitDepth));
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        writeFully(ByteBuffer.wrap(data, offset, length));
+        mDataSize += length;
+    }
+
+    @Override
+    public void write(ByteBuffer data) throws IOException {
+        mDataSize += data.remaining();
+        writeFully(data);
+    }
+
+    @Override
+    public long getDataSize() {
+        return mDataSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(mClosed)
+            return;
+        mClosed = true;
+        try {
+            // Patch the header with the final sizes
+            mChannel.position(0);
+            writeFully(WavEncoder.createHeader(mDataSize, mSampleRate, mChannels, mBitDepth));
+        } finally {
+            mFile.close();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+}
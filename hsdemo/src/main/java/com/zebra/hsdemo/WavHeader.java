@@ -0,0 +1,162 @@
+package com.zebra.hsdemo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/*
+    Format of a WAV file: read from the RIFF chunks of an existing file, or written for the
+    compressed formats (fmt chunk with the codec parameters, fact chunk with the sample count).
+ */
+public class WavHeader {
+
+    public static final int FORMAT_PCM = 1;
+
+    // Largest header that is read, the chunks after it are ignored
+    private static final int MAX_HEADER_SIZE = 4096;
+
+    public final int formatTag;
+    public final int channels;
+    public final int sampleRate;
+    public final int bitsPerSample;
+    public final int blockAlign;
+    // IMA-ADPCM only, 0 for the other formats
+    public final int samplesPerBlock;
+    // Number of samples per channel given by the fact chunk, -1 when there is none
+    public final long sampleFrames;
+    // Position and size of the data chunk content
+    public final long dataOffset;
+    public final long dataSize;
+
+    WavHeader(int formatTag, int channels, int sampleRate, int bitsPerSample, int blockAlign, int samplesPerBlock, long sampleFrames, long dataOffset, long dataSize)
+    {
+        this.formatTag = formatTag;
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+        this.bitsPerSample = bitsPerSample;
+        this.blockAlign = blockAlign;
+        this.samplesPerBlock = samplesPerBlock;
+        this.sampleFrames = sampleFrames;
+        this.dataOffset = dataOffset;
+        this.dataSize = dataSize;
+    }
+
+    public boolean isPcm() {
+        return formatTag == FORMAT_PCM;
+    }
+
+    // Returns null when the format tag is not one of the RecordingFormat values
+    public RecordingFormat getRecordingFormat() {
+        return RecordingFormat.fromFormatTag(formatTag);
+    }
+
+    // Returns null when the file is not a WAV file
+    public static WavHeader read(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            return read(in.getChannel());
+        }
+    }
+
+    // Parse the header at the beginning of the channel, returns null when it is not a WAV stream
+    public static WavHeader read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(MAX_HEADER_SIZE, channel.size())).order(ByteOrder.LITTLE_ENDIAN);
+        // Positional reads, the channel position is left unchanged
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) <= 0)
+                break;
+        }
+        buffer.flip();
+        if (buffer.remaining() < 12 || buffer.getInt(0) != 0x46464952 /* RIFF */ || buffer.getInt(8) != 0x45564157 /* WAVE */)
+            return null;
+
+        int formatTag = 0, channels = 0, sampleRate = 0, bitsPerSample = 0, blockAlign = 0, samplesPerBlock = 0;
+        long sampleFrames = -1;
+        int position = 12;
+        while (position + 8 <= buffer.limit()) {
+            int chunkId = buffer.getInt(position);
+            long chunkSize = buffer.getInt(position + 4) & 0xFFFFFFFFL;
+            int content = position + 8;
+            if (chunkId == 0x20746D66 /* fmt */ && content + 16 <= buffer.limit()) {
+                formatTag = buffer.getShort(content) & 0xFFFF;
+                channels = buffer.getShort(content + 2) & 0xFFFF;
+                sampleRate = buffer.getInt(content + 4);
+                blockAlign = buffer.getShort(content + 12) & 0xFFFF;
+                bitsPerSample = buffer.getShort(content + 14) & 0xFFFF;
+                if (chunkSize >= 20 && content + 20 <= buffer.limit())
+                    samplesPerBlock = buffer.getShort(content + 18) & 0xFFFF;
+            } else if (chunkId == 0x74636166 /* fact */ && content + 4 <= buffer.limit()) {
+                sampleFrames = buffer.getInt(content) & 0xFFFFFFFFL;
+            } else if (chunkId == 0x61746164 /* data */) {
+                if (formatTag == 0)
+                    return null;
+                // A recording that was not closed has a 0 size, use what is in the file
+                long available = channel.size() - content;
+                long dataSize = chunkSize == 0 || chunkSize > available ? available : chunkSize;
+                return new WavHeader(formatTag, channels, sampleRate, bitsPerSample, blockAlign, samplesPerBlock, sampleFrames, content, dataSize);
+            }
+            // Chunks are word aligned
+            position = (int) Math.min(Integer.MAX_VALUE, content + chunkSize + (chunkSize & 1));
+        }
+        return null;
+    }
+
+    public static int getHeaderSize(RecordingFormat format) {
+        if (format == RecordingFormat.PCM_16BIT)
+            return WavEncoder.WAV_HEADER_SIZE;
+        // RIFF + fmt (with the extra size field and the IMA-ADPCM samples per block) + fact + data
+        return 12 + 8 + (format == RecordingFormat.IMA_ADPCM ? 20 : 18) + 12 + 8;
+    }
+
+    /*
+        Header of a compressed recording.
+        dataSize is the size of the encoded data, sampleFrames the number of samples per channel.
+        An odd dataSize is followed by a pad byte, counted in the RIFF size.
+     */
+    public static ByteBuffer createHeader(RecordingFormat format, int sampleRate, int channels, long dataSize, long sampleFrames) {
+        if (format == RecordingFormat.PCM_16BIT)
+            return WavEncoder.createHeader(dataSize, sampleRate, channels, 16);
+
+        int headerSize = getHeaderSize(format);
+        int data = (int) Math.min(dataSize, 0xFFFFFFFFL - headerSize);
+        int blockAlign;
+        int byteRate;
+        int samplesPerBlock = 0;
+        if (format == RecordingFormat.IMA_ADPCM) {
+            blockAlign = ImaAdpcm.getBlockAlign(sampleRate, channels);
+            samplesPerBlock = ImaAdpcm.getSamplesPerBlock(blockAlign, channels);
+            byteRate = (int) ((long) sampleRate * blockAlign / samplesPerBlock);
+        } else {
+            blockAlign = channels;
+            byteRate = sampleRate * channels;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] {'R', 'I', 'F', 'F'});
+        header.putInt(headerSize - 8 + data + (data & 1));
+        header.put(new byte[] {'W', 'A', 'V', 'E'});
+        header.put(new byte[] {'f', 'm', 't', ' '});
+        header.putInt(format == RecordingFormat.IMA_ADPCM ? 20 : 18);
+        header.putShort((short) format.getFormatTag());
+        header.putShort((short) channels);
+        header.putInt(sampleRate);
+        header.putInt(byteRate);
+        header.putShort((short) blockAlign);
+        header.putShort((short) format.getBitsPerSample());
+        if (format == RecordingFormat.IMA_ADPCM) {
+            header.putShort((short) 2);                       // Extra format bytes
+            header.putShort((short) samplesPerBlock);
+        } else {
+            header.putShort((short) 0);
+        }
+        header.put(new byte[] {'f', 'a', 'c', 't'});
+        header.putInt(4);
+        header.putInt((int) Math.min(sampleFrames, 0xFFFFFFFFL));
+        header.put(new byte[] {'d', 'a', 't', 'a'});
+        header.putInt(data);
+        header.flip();
+        return header;
+    }
+}
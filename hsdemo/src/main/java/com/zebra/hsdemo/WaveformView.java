@@ -0,0 +1,68 @@
+package com.zebra.hsdemo;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/*
+    Overview of a recording drawn from its PeakPyramid: one vertical line per column between the
+    min and max samples of the column. The columns are computed off the UI thread (see setColumns).
+ */
+public class WaveformView extends View {
+
+    private final Paint mPaint = new Paint();
+    private short[] mMin = new short[0];
+    private short[] mMax = new short[0];
+    private float[] mLines = new float[0];
+
+    public WaveformView(Context context) {
+        this(context, null);
+    }
+
+    public WaveformView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mPaint.setColor(Color.rgb(0x33, 0x66, 0xCC));
+        mPaint.setStrokeWidth(1f);
+    }
+
+    // Column count that matches the current width, one column per pixel
+    public int getColumnCount() {
+        return Math.max(1, getWidth());
+    }
+
+    // Must be called on the UI thread, the arrays are kept (not copied)
+    public void setColumns(short[] min, short[] max) {
+        mMin = min;
+        mMax = max;
+        if (mLines.length != min.length * 4)
+            mLines = new float[min.length * 4];
+        invalidate();
+    }
+
+    public void clear() {
+        setColumns(new short[0], new short[0]);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        int columns = mMin.length;
+        if (columns == 0)
+            return;
+        float middle = getHeight() / 2f;
+        float scale = middle / 32768f;
+        float step = (float) getWidth() / columns;
+        for (int i = 0; i < columns; i++) {
+            float x = i * step;
+            mLines[4 * i] = x;
+            mLines[4 * i + 1] = middle - mMax[i] * scale;
+            mLines[4 * i + 2] = x;
+            // Keep at least one pixel so silence shows as a line
+            mLines[4 * i + 3] = Math.max(middle - mMin[i] * scale, mLines[4 * i + 1] + 1);
+        }
+        canvas.drawLines(mLines, mPaint);
+    }
+}
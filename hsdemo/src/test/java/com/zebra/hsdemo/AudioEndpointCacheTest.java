@@ -0,0 +1,206 @@
+package com.zebra.hsdemo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * AudioEndpointCache with fake endpoints, checks when they are reused, rebuilt and released.
+ */
+public class AudioEndpointCacheTest {
+
+    private static final AudioEndpointCache.Key MONO_8K = new AudioEndpointCache.Key(8000, 16, 2);
+    private static final AudioEndpointCache.Key MONO_16K = new AudioEndpointCache.Key(16000, 16, 2);
+    private static final AudioEndpointCache.Key STEREO_16K = new AudioEndpointCache.Key(16000, 12, 2);
+
+    private static class FakeEndpoint {
+        final AudioEndpointCache.Key key;
+        int resets = 0;
+        boolean released = false;
+
+        FakeEndpoint(AudioEndpointCache.Key key) {
+            this.key = key;
+        }
+    }
+
+    // Records the endpoints it creates and releases
+    private static class FakeFactory implements AudioEndpointCache.Factory<FakeEndpoint> {
+        final List<FakeEndpoint> created = new ArrayList<>();
+        final List<FakeEndpoint> released = new ArrayList<>();
+        boolean failing = false;
+
+        @Override
+        public FakeEndpoint create(AudioEndpointCache.Key key) {
+            if (failing)
+                return null;
+            FakeEndpoint endpoint = new FakeEndpoint(key);
+            created.add(endpoint);
+            return endpoint;
+        }
+
+        @Override
+        public void reset(FakeEndpoint endpoint) {
+            endpoint.resets++;
+        }
+
+        @Override
+        public void release(FakeEndpoint endpoint) {
+            assertFalse("released twice", endpoint.released);
+            endpoint.released = true;
+            released.add(endpoint);
+        }
+    }
+
+    private FakeFactory factory;
+    private AudioEndpointCache<FakeEndpoint> cache;
+
+    @Before
+    public void setUp() {
+        factory = new FakeFactory();
+        cache = new AudioEndpointCache<>(factory, AudioEndpointCache.DEFAULT_MAX_IDLE);
+    }
+
+    @Test
+    public void recycledEndpointIsReusedForTheSameFormat() {
+        FakeEndpoint first = cache.acquire(MONO_16K);
+        cache.recycle(first);
+        FakeEndpoint second = cache.acquire(MONO_16K);
+
+        assertSame(first, second);
+        assertEquals(1, factory.created.size());
+        assertEquals(1, second.resets);
+        assertTrue(factory.released.isEmpty());
+    }
+
+    @Test
+    public void preparedEndpointIsHandedOut() {
+        cache.prepare(MONO_16K);
+        cache.prepare(MONO_16K);
+        assertEquals(1, factory.created.size());
+        assertEquals(1, cache.getIdleCount());
+
+        FakeEndpoint endpoint = cache.acquire(MONO_16K);
+
+        assertSame(factory.created.get(0), endpoint);
+        assertEquals(0, cache.getIdleCount());
+    }
+
+    @Test
+    public void otherFormatCreatesANewEndpoint() {
+        cache.recycle(cache.acquire(MONO_16K));
+
+        FakeEndpoint sco = cache.acquire(MONO_8K);
+        FakeEndpoint stereo = cache.acquire(STEREO_16K);
+
+        assertEquals(MONO_8K, sco.key);
+        assertEquals(STEREO_16K, stereo.key);
+        assertEquals(3, factory.created.size());
+        // The idle endpoint of the first format is kept
+        assertEquals(1, cache.getIdleCount());
+    }
+
+    @Test
+    public void routeChangeReleasesIdleEndpoints() {
+        FakeEndpoint idle = cache.acquire(MONO_16K);
+        cache.recycle(idle);
+
+        cache.onRouteChanged();
+
+        assertTrue(idle.released);
+        assertEquals(0, cache.getIdleCount());
+        FakeEndpoint rebuilt = cache.acquire(MONO_16K);
+        assertNotSame(idle, rebuilt);
+        assertEquals(2, factory.created.size());
+    }
+
+    @Test
+    public void endpointInUseDuringRouteChangeIsReleasedWhenRecycled() {
+        FakeEndpoint playing = cache.acquire(MONO_16K);
+
+        cache.onRouteChanged();
+        assertFalse(playing.released);
+
+        cache.recycle(playing);
+        assertTrue(playing.released);
+        assertEquals(0, cache.getIdleCount());
+
+        // Endpoints created on the new route are reused again
+        FakeEndpoint next = cache.acquire(MONO_16K);
+        cache.recycle(next);
+        assertSame(next, cache.acquire(MONO_16K));
+    }
+
+    @Test
+    public void leastRecentlyUsedEndpointIsEvicted() {
+        FakeEndpoint a = cache.acquire(MONO_8K);
+        FakeEndpoint b = cache.acquire(MONO_16K);
+        FakeEndpoint c = cache.acquire(STEREO_16K);
+        cache.recycle(a);
+        cache.recycle(b);
+        cache.recycle(c);
+
+        assertEquals(AudioEndpointCache.DEFAULT_MAX_IDLE, cache.getIdleCount());
+        assertTrue(a.released);
+        assertFalse(b.released);
+        assertFalse(c.released);
+    }
+
+    @Test
+    public void secondEndpointOfTheSameFormatIsReleased() {
+        FakeEndpoint first = cache.acquire(MONO_16K);
+        FakeEndpoint second = cache.acquire(MONO_16K);
+        cache.recycle(first);
+        cache.recycle(second);
+
+        assertEquals(1, cache.getIdleCount());
+        assertFalse(first.released);
+        assertTrue(second.released);
+    }
+
+    @Test
+    public void releaseIdleKeepsEndpointsInUse() {
+        FakeEndpoint idle = cache.acquire(MONO_8K);
+        FakeEndpoint playing = cache.acquire(MONO_16K);
+        cache.recycle(idle);
+
+        cache.releaseIdle();
+
+        assertTrue(idle.released);
+        assertFalse(playing.released);
+        // Still reusable, this was not a route change
+        cache.recycle(playing);
+        assertFalse(playing.released);
+        assertEquals(1, cache.getIdleCount());
+    }
+
+    @Test
+    public void closeReleasesEverything() {
+        FakeEndpoint idle = cache.acquire(MONO_8K);
+        FakeEndpoint playing = cache.acquire(MONO_16K);
+        cache.recycle(idle);
+
+        cache.close();
+        assertTrue(idle.released);
+        assertFalse(playing.released);
+
+        cache.recycle(playing);
+        assertTrue(playing.released);
+        cache.prepare(MONO_16K);
+        assertEquals(0, cache.getIdleCount());
+        assertEquals(2, factory.released.size());
+    }
+
+    @Test
+    public void failedCreationIsReported() {
+        factory.failing = true;
+
+        assertNull(cache.acquire(MONO_16K));
+        cache.prepare(MONO_16K);
+
+        assertEquals(0, cache.getIdleCount());
+    }
+}
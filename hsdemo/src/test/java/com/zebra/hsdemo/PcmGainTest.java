@@ -0,0 +1,121 @@
+package com.zebra.hsdemo;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Q15 gain kernels against the float kernel they replaced, over every sample value and the gains of the UI seekbars.
+ */
+public class PcmGainTest {
+
+    // Seekbar progress 10..350, gain = progress / 10
+    private static final int MIN_PROGRESS = 10;
+    private static final int MAX_PROGRESS = 350;
+
+    private static final int SAMPLE_COUNT = 1 << 16;
+
+    // The float kernel of MediaFileUtils.applyGain() before the Q15 kernels
+    private static short legacyScale(short sample, float gain) {
+        return (short) Math.min(Math.max(sample * gain, Short.MIN_VALUE), Short.MAX_VALUE);
+    }
+
+    private static short[] allSamples() {
+        short[] samples = new short[SAMPLE_COUNT];
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            samples[i] = (short) (i + Short.MIN_VALUE);
+        }
+        return samples;
+    }
+
+    private static float[] gains() {
+        float[] gains = new float[MAX_PROGRESS - MIN_PROGRESS + 2];
+        gains[0] = 0.0f;
+        for (int progress = MIN_PROGRESS; progress <= MAX_PROGRESS; progress++) {
+            gains[progress - MIN_PROGRESS + 1] = progress / 10.0f;
+        }
+        return gains;
+    }
+
+    private interface Kernel {
+        short[] apply(short[] samples, float gain);
+    }
+
+    private static void checkAgainstLegacy(String name, Kernel kernel) {
+        short[] input = allSamples();
+        for (float gain : gains()) {
+            short[] output = kernel.apply(input.clone(), gain);
+            int tolerance = gain == 0.0f || gain == 1.0f ? 0 : 1;
+            for (int i = 0; i < SAMPLE_COUNT; i++) {
+                int expected = legacyScale(input[i], gain);
+                int difference = Math.abs(output[i] - expected);
+                if (difference > tolerance)
+                    fail(name + ": gain " + gain + ", sample " + input[i] + " gives " + output[i] + " instead of " + expected);
+            }
+        }
+    }
+
+    @Test
+    public void shortArrayKernelMatchesFloatKernel() {
+        checkAgainstLegacy("short[]", (samples, gain) -> {
+            PcmGain.applyGain(samples, 0, samples.length, gain);
+            return samples;
+        });
+    }
+
+    @Test
+    public void shortBufferKernelMatchesFloatKernel() {
+        // Direct buffer, the kernel then does not go through the array
+        checkAgainstLegacy("ShortBuffer", (samples, gain) -> {
+            ShortBuffer buffer = ByteBuffer.allocateDirect(samples.length * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+            buffer.put(samples);
+            buffer.flip();
+            PcmGain.applyGainQ15(buffer, PcmGain.toQ15(gain));
+            assertEquals(0, buffer.position());
+            buffer.get(samples);
+            return samples;
+        });
+    }
+
+    @Test
+    public void nativeOrderByteBufferKernelMatchesFloatKernel() {
+        checkAgainstLegacy("ByteBuffer", (samples, gain) -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(samples.length * 2).order(ByteOrder.nativeOrder());
+            buffer.asShortBuffer().put(samples);
+            PcmGain.applyGainQ15(buffer, PcmGain.toQ15(gain));
+            assertEquals(0, buffer.position());
+            buffer.asShortBuffer().get(samples);
+            return samples;
+        });
+    }
+
+    @Test
+    public void littleEndianByteArrayKernelMatchesFloatKernel() {
+        checkAgainstLegacy("byte[]", (samples, gain) -> {
+            byte[] bytes = new byte[samples.length * 2];
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(samples);
+            PcmGain.applyGainQ15(bytes, 0, bytes.length, PcmGain.toQ15(gain));
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+            return samples;
+        });
+    }
+
+    @Test
+    public void unityGainKeepsTheSamples() {
+        assertEquals(PcmGain.UNITY_Q15, PcmGain.toQ15(1.0f));
+        short[] samples = allSamples();
+        PcmGain.applyGain(samples, 0, samples.length, 1.0f);
+        assertArrayEquals(allSamples(), samples);
+    }
+
+    @Test
+    public void gainIsSaturated() {
+        short[] samples = {Short.MAX_VALUE, Short.MIN_VALUE, 1000, -1000};
+        PcmGain.applyGain(samples, 0, samples.length, 35.0f);
+        assertArrayEquals(new short[] {Short.MAX_VALUE, Short.MIN_VALUE, Short.MAX_VALUE, Short.MIN_VALUE}, samples);
+    }
+}
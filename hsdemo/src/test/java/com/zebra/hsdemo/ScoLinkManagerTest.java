@@ -0,0 +1,261 @@
+package com.zebra.hsdemo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ScoLinkManager driven by a simulated AudioManager and a manual clock scheduler.
+ */
+public class ScoLinkManagerTest {
+
+    private static final long IDLE_TIMEOUT_MS = 10000;
+    private static final long SETUP_TIMEOUT_MS = 4000;
+
+    // Records the AudioManager calls
+    private static class FakeScoAudio implements ScoLinkManager.ScoAudio {
+        int starts = 0;
+        int stops = 0;
+        boolean scoOn = false;
+
+        @Override
+        public void startBluetoothSco() {
+            starts++;
+        }
+
+        @Override
+        public void stopBluetoothSco() {
+            stops++;
+        }
+
+        @Override
+        public void setBluetoothScoOn(boolean on) {
+            scoOn = on;
+        }
+    }
+
+    // Runs the delayed actions when the manual clock is advanced past their time
+    private static class FakeScheduler implements ScoLinkManager.Scheduler {
+        private final List<Runnable> mActions = new ArrayList<>();
+        private final List<Long> mTimes = new ArrayList<>();
+        long now = 0;
+
+        @Override
+        public void postDelayed(Runnable action, long delayMs) {
+            mActions.add(action);
+            mTimes.add(now + delayMs);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable action) {
+            for (int i = mActions.size() - 1; i >= 0; i--) {
+                if (mActions.get(i) == action) {
+                    mActions.remove(i);
+                    mTimes.remove(i);
+                }
+            }
+        }
+
+        void advance(long ms) {
+            now += ms;
+            boolean ran = true;
+            while (ran) {
+                ran = false;
+                for (int i = 0; i < mActions.size(); i++) {
+                    if (mTimes.get(i) <= now) {
+                        Runnable action = mActions.remove(i);
+                        mTimes.remove(i);
+                        action.run();
+                        ran = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        int pending() {
+            return mActions.size();
+        }
+    }
+
+    // Collects the leases made ready
+    private static class Readiness implements ScoLinkManager.ReadyListener {
+        final List<ScoLinkManager.Lease> ready = new ArrayList<>();
+
+        @Override
+        public void onLinkReady(ScoLinkManager.Lease lease) {
+            ready.add(lease);
+        }
+    }
+
+    private FakeScoAudio scoAudio;
+    private FakeScheduler scheduler;
+    private ScoLinkManager link;
+
+    @Before
+    public void setUp() {
+        scoAudio = new FakeScoAudio();
+        scheduler = new FakeScheduler();
+        link = new ScoLinkManager(scoAudio, scheduler, IDLE_TIMEOUT_MS, SETUP_TIMEOUT_MS);
+    }
+
+    private void connect() {
+        link.onScoAudioStateChanged(ScoLinkManager.SCO_AUDIO_STATE_CONNECTING);
+        link.onScoAudioStateChanged(ScoLinkManager.SCO_AUDIO_STATE_CONNECTED);
+    }
+
+    @Test
+    public void leaseWaitsForConnectedState() {
+        Readiness recording = new Readiness();
+        ScoLinkManager.Lease lease = link.acquire(recording);
+
+        assertEquals(1, scoAudio.starts);
+        assertEquals(ScoLinkManager.State.CONNECTING, link.getState());
+        assertTrue(lease.isPending());
+        assertTrue(recording.ready.isEmpty());
+
+        connect();
+
+        assertEquals(ScoLinkManager.State.CONNECTED, link.getState());
+        assertTrue(scoAudio.scoOn);
+        assertEquals(1, recording.ready.size());
+        assertTrue(lease.isConnected());
+        assertFalse(lease.isPending());
+    }
+
+    @Test
+    public void linkStaysWarmFromRecordingToPlayback() {
+        Readiness recording = new Readiness();
+        ScoLinkManager.Lease recordingLease = link.acquire(recording);
+        connect();
+        recordingLease.release();
+
+        // Playback started before the idle timeout
+        scheduler.advance(IDLE_TIMEOUT_MS - 1);
+        assertEquals(ScoLinkManager.State.CONNECTED, link.getState());
+        Readiness playback = new Readiness();
+        ScoLinkManager.Lease playbackLease = link.acquire(playback);
+
+        // Ready right away, no second setup
+        assertEquals(1, playback.ready.size());
+        assertTrue(playbackLease.isConnected());
+        assertEquals(0, playbackLease.getSetupMs());
+        assertEquals(1, scoAudio.starts);
+        assertEquals(0, scoAudio.stops);
+
+        // The idle timer of the recording was cancelled by the playback lease
+        scheduler.advance(IDLE_TIMEOUT_MS);
+        assertEquals(ScoLinkManager.State.CONNECTED, link.getState());
+        playbackLease.release();
+    }
+
+    @Test
+    public void linkIsReleasedAfterIdleTimeout() {
+        ScoLinkManager.Lease lease = link.acquire(new Readiness());
+        connect();
+        lease.release();
+
+        scheduler.advance(IDLE_TIMEOUT_MS - 1);
+        assertEquals(0, scoAudio.stops);
+        scheduler.advance(1);
+
+        assertEquals(1, scoAudio.stops);
+        assertFalse(scoAudio.scoOn);
+        assertEquals(ScoLinkManager.State.IDLE, link.getState());
+
+        // The next lease sets the link up again
+        link.acquire(new Readiness());
+        assertEquals(2, scoAudio.starts);
+    }
+
+    @Test
+    public void setupTimeoutFailsWaitingLeases() {
+        Readiness readiness = new Readiness();
+        ScoLinkManager.Lease lease = link.acquire(readiness);
+
+        scheduler.advance(SETUP_TIMEOUT_MS);
+
+        assertEquals(1, readiness.ready.size());
+        assertFalse(lease.isConnected());
+        assertEquals(1, scoAudio.stops);
+        assertEquals(ScoLinkManager.State.IDLE, link.getState());
+    }
+
+    @Test
+    public void connectFailureFailsWaitingLeases() {
+        Readiness readiness = new Readiness();
+        ScoLinkManager.Lease lease = link.acquire(readiness);
+
+        // The state reported when the receiver registers does not end the setup
+        link.onScoAudioStateChanged(ScoLinkManager.SCO_AUDIO_STATE_DISCONNECTED);
+        assertTrue(readiness.ready.isEmpty());
+
+        link.onScoAudioStateChanged(ScoLinkManager.SCO_AUDIO_STATE_CONNECTING);
+        link.onScoAudioStateChanged(ScoLinkManager.SCO_AUDIO_STATE_DISCONNECTED);
+
+        assertEquals(1, readiness.ready.size());
+        assertFalse(lease.isConnected());
+        assertEquals(ScoLinkManager.State.IDLE, link.getState());
+        // The setup timeout was cancelled
+        assertEquals(0, scheduler.pending());
+    }
+
+    @Test
+    public void disconnectWhileWarmSetsTheLinkUpAgain() {
+        ScoLinkManager.Lease lease = link.acquire(new Readiness());
+        connect();
+        lease.release();
+
+        // Headset switched off during the idle period
+        link.onScoAudioStateChanged(ScoLinkManager.SCO_AUDIO_STATE_DISCONNECTED);
+        assertEquals(ScoLinkManager.State.IDLE, link.getState());
+        assertFalse(scoAudio.scoOn);
+        assertEquals(0, scheduler.pending());
+
+        Readiness readiness = new Readiness();
+        link.acquire(readiness);
+        assertEquals(2, scoAudio.starts);
+        assertTrue(readiness.ready.isEmpty());
+        connect();
+        assertEquals(1, readiness.ready.size());
+    }
+
+    @Test
+    public void releasedPendingLeaseIsNotNotified() {
+        Readiness readiness = new Readiness();
+        ScoLinkManager.Lease lease = link.acquire(readiness);
+        lease.release();
+        assertFalse(lease.isPending());
+
+        connect();
+
+        assertTrue(readiness.ready.isEmpty());
+        // No lease left, the link goes idle after the timeout
+        scheduler.advance(IDLE_TIMEOUT_MS);
+        assertEquals(ScoLinkManager.State.IDLE, link.getState());
+        assertEquals(1, scoAudio.stops);
+    }
+
+    @Test
+    public void shutdownStopsTheLinkAndFailsWaitingLeases() {
+        Readiness readiness = new Readiness();
+        ScoLinkManager.Lease lease = link.acquire(readiness);
+
+        link.shutdown();
+
+        assertEquals(1, readiness.ready.size());
+        assertFalse(lease.isConnected());
+        assertEquals(1, scoAudio.stops);
+        assertEquals(ScoLinkManager.State.IDLE, link.getState());
+
+        // Leases taken after shutdown are ready at once, without link
+        Readiness late = new Readiness();
+        link.acquire(late);
+        assertEquals(1, late.ready.size());
+        assertEquals(1, scoAudio.starts);
+    }
+}